@@ -0,0 +1,113 @@
+/*
+ * Copyright 2024 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.vau.benchmarks;
+
+import de.gematik.vau.lib.VauClientStateMachine;
+import de.gematik.vau.lib.VauServerStateMachine;
+import de.gematik.vau.lib.data.EccKyberKeyPair;
+import de.gematik.vau.lib.data.SignedPublicVauKeys;
+import de.gematik.vau.lib.data.VauPublicKeys;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.Security;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.time.Duration;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.pqc.jcajce.provider.BouncyCastlePQCProvider;
+
+/** The server keys and certificates of the lib tests, packaged as resources of this module. */
+final class BenchmarkKeys {
+
+  private BenchmarkKeys() {}
+
+  static void registerProviders() {
+    Security.addProvider(new BouncyCastleProvider());
+    Security.addProvider(new BouncyCastlePQCProvider());
+  }
+
+  static EccKyberKeyPair serverVauKeyPair() {
+    try (var in = resource("vau_server_keys.cbor")) {
+      var file = Files.createTempFile("vau_server_keys", ".cbor");
+      try {
+        Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+        return EccKyberKeyPair.readFromFile(file);
+      } finally {
+        Files.delete(file);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  static SignedPublicVauKeys signedPublicVauKeys(EccKyberKeyPair serverVauKeyPair) {
+    try {
+      var serverAutPrivateKey =
+          KeyFactory.getInstance("EC")
+              .generatePrivate(new PKCS8EncodedKeySpec(readResource("vau-sig-key.der")));
+      return SignedPublicVauKeys.sign(
+          readResource("vau_sig_cert.der"),
+          serverAutPrivateKey,
+          readResource("ocsp-response-vau-sig.der"),
+          1,
+          VauPublicKeys.withValidity(serverVauKeyPair, "VAU Server Keys", Duration.ofDays(30)));
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("cannot read the VAU signature key", e);
+    }
+  }
+
+  /**
+   * Runs a full handshake between a new client and server.
+   *
+   * @return the client, ready to encrypt requests for the server
+   */
+  static VauClientStateMachine handshake(VauServerStateMachine server) {
+    return handshake(new VauClientStateMachine(), server);
+  }
+
+  /**
+   * Runs a full handshake between the given new client and server.
+   *
+   * @return the client, ready to encrypt requests for the server
+   */
+  static VauClientStateMachine handshake(
+      VauClientStateMachine client, VauServerStateMachine server) {
+    var message2 = server.receiveMessage(client.generateMessage1());
+    client.receiveMessage4(server.receiveMessage(client.receiveMessage2(message2)));
+    return client;
+  }
+
+  private static byte[] readResource(String name) {
+    try (var in = resource(name)) {
+      return in.readAllBytes();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static InputStream resource(String name) throws IOException {
+    var in = BenchmarkKeys.class.getClassLoader().getResourceAsStream(name);
+    if (in == null) {
+      throw new IOException("missing resource " + name);
+    }
+    return in;
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2024 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.vau.benchmarks;
+
+import de.gematik.vau.lib.VauClientStateMachine;
+import de.gematik.vau.lib.VauServerKeyMaterial;
+import de.gematik.vau.lib.VauServerStateMachine;
+import de.gematik.vau.lib.crypto.KEM;
+import de.gematik.vau.lib.crypto.VauCryptoBackend;
+import de.gematik.vau.lib.crypto.VauCryptoBackends;
+import de.gematik.vau.lib.data.EccKyberKeyPair;
+import de.gematik.vau.lib.data.VauEccPublicKey;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Compares the {@link VauCryptoBackend}s, per primitive and for a full handshake. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CryptoBackendBenchmark {
+
+  private static final byte[] AEAD_PLAINTEXT = new byte[1400];
+
+  @Param({"default", "bouncyCastle", "jdk"})
+  public String backendName;
+
+  private VauCryptoBackend backend;
+  private VauServerKeyMaterial keyMaterial;
+  private EccKyberKeyPair serverVauKeyPair;
+  private VauEccPublicKey serverEcdhPublicKey;
+  private VauEccPublicKey clientEcdhPublicKey;
+  private byte[] sharedSecrets;
+  private byte[] aeadKey;
+  private byte[] aeadCiphertext;
+
+  @Setup
+  public void setUp() {
+    BenchmarkKeys.registerProviders();
+    backend =
+        switch (backendName) {
+          case "default" -> VauCryptoBackends.defaultBackend();
+          case "bouncyCastle" -> VauCryptoBackends.bouncyCastle();
+          case "jdk" -> VauCryptoBackends.jdk();
+          default -> throw new IllegalArgumentException("unknown backend " + backendName);
+        };
+    serverVauKeyPair = BenchmarkKeys.serverVauKeyPair();
+    keyMaterial =
+        VauServerKeyMaterial.of(
+            BenchmarkKeys.signedPublicVauKeys(serverVauKeyPair), serverVauKeyPair);
+    serverEcdhPublicKey = keyMaterial.getVauPublicKeys().ecdhPublicKey();
+    clientEcdhPublicKey = backend.ecdhEphemeral(serverEcdhPublicKey).publicKey();
+    sharedSecrets = new byte[64];
+    aeadKey = backend.hkdfSha256(sharedSecrets, 32);
+    aeadCiphertext = KEM.encryptAead(backend, aeadKey, AEAD_PLAINTEXT);
+  }
+
+  @Benchmark
+  public VauCryptoBackend.EcdhResult ecdhEphemeral() {
+    return backend.ecdhEphemeral(serverEcdhPublicKey);
+  }
+
+  @Benchmark
+  public byte[] ecdh() {
+    return backend.ecdh(clientEcdhPublicKey, serverVauKeyPair);
+  }
+
+  @Benchmark
+  public byte[] hkdf() {
+    return backend.hkdfSha256(sharedSecrets, 5 * 32);
+  }
+
+  @Benchmark
+  public byte[] encryptAead() {
+    return KEM.encryptAead(backend, aeadKey, AEAD_PLAINTEXT);
+  }
+
+  @Benchmark
+  public byte[] decryptAead() {
+    return KEM.decryptAead(backend, aeadKey, aeadCiphertext);
+  }
+
+  @Benchmark
+  public VauClientStateMachine handshake() {
+    return BenchmarkKeys.handshake(
+        new VauClientStateMachine(false, null, backend),
+        new VauServerStateMachine(keyMaterial, false, backend));
+  }
+}
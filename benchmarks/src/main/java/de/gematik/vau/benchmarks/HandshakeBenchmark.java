@@ -0,0 +1,59 @@
+/*
+ * Copyright 2024 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.vau.benchmarks;
+
+import de.gematik.vau.lib.VauClientStateMachine;
+import de.gematik.vau.lib.VauServerStateMachine;
+import de.gematik.vau.lib.data.EccKyberKeyPair;
+import de.gematik.vau.lib.data.SignedPublicVauKeys;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** A full handshake, message 1 to message 4, between a new client and server. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HandshakeBenchmark {
+
+  private SignedPublicVauKeys signedPublicVauKeys;
+  private EccKyberKeyPair serverVauKeyPair;
+
+  @Setup
+  public void setUp() {
+    BenchmarkKeys.registerProviders();
+    serverVauKeyPair = BenchmarkKeys.serverVauKeyPair();
+    signedPublicVauKeys = BenchmarkKeys.signedPublicVauKeys(serverVauKeyPair);
+  }
+
+  @Benchmark
+  public VauClientStateMachine handshake() {
+    return BenchmarkKeys.handshake(
+        new VauServerStateMachine(signedPublicVauKeys, serverVauKeyPair));
+  }
+}
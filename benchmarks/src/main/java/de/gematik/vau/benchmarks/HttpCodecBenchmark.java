@@ -0,0 +1,105 @@
+/*
+ * Copyright 2024 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.gematik.vau.benchmarks;
+
+import com.oviva.telematik.vau.httpclient.HttpClient;
+import com.oviva.telematik.vau.httpclient.internal.HttpCodec;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * HTTP framing of the requests and responses tunneled through VAU. The body sizes stay below 16 KiB
+ * since that is the most {@link HttpCodec#encode(HttpClient.Request)} can frame.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HttpCodecBenchmark {
+
+  @Param({"2", "8", "32"})
+  private int headerCount;
+
+  @Param({"0", "1024", "12288"})
+  private int bodySize;
+
+  private HttpClient.Request request;
+  private byte[] response;
+
+  @Setup
+  public void setUp() {
+    var headers = new ArrayList<HttpClient.Header>();
+    for (int i = 0; i < headerCount; i++) {
+      headers.add(new HttpClient.Header("x-header-" + i, "value-" + i + "; q=0.9"));
+    }
+    var body = jsonBody(bodySize);
+    request =
+        new HttpClient.Request(
+            URI.create("https://epa.example.com/epa/basic/api/v1/ps/entitlements"),
+            "POST",
+            headers,
+            body);
+    response = httpResponse(headers, body);
+  }
+
+  @Benchmark
+  public byte[] encode() {
+    return HttpCodec.encode(request);
+  }
+
+  @Benchmark
+  public HttpClient.Response decode() {
+    return HttpCodec.decode(response);
+  }
+
+  static byte[] jsonBody(int size) {
+    var body = new byte[size];
+    Arrays.fill(body, (byte) 'a');
+    if (size >= 2) {
+      body[0] = '"';
+      body[size - 1] = '"';
+    }
+    return body;
+  }
+
+  static byte[] httpResponse(Iterable<HttpClient.Header> headers, byte[] body) {
+    var head = new StringBuilder("HTTP/1.1 200 OK\r\n");
+    for (var h : headers) {
+      head.append(h.name()).append(": ").append(h.value()).append("\r\n");
+    }
+    head.append("content-length: ").append(body.length).append("\r\n\r\n");
+    var headBytes = head.toString().getBytes(StandardCharsets.UTF_8);
+    var bytes = Arrays.copyOf(headBytes, headBytes.length + body.length);
+    System.arraycopy(body, 0, bytes, headBytes.length, body.length);
+    return bytes;
+  }
+}
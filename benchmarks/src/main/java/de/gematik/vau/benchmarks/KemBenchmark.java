@@ -0,0 +1,110 @@
+/*
+ * Copyright 2024 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.vau.benchmarks;
+
+import de.gematik.vau.lib.crypto.EcdhEngine;
+import de.gematik.vau.lib.crypto.KEM;
+import de.gematik.vau.lib.crypto.KyberEngine;
+import de.gematik.vau.lib.data.EccKyberKeyPair;
+import de.gematik.vau.lib.data.KdfKey1;
+import de.gematik.vau.lib.data.KdfKey2;
+import de.gematik.vau.lib.data.KdfMessage;
+import de.gematik.vau.lib.data.VauEccPublicKey;
+import de.gematik.vau.lib.data.VauMessage3InnerLayer;
+import java.util.concurrent.TimeUnit;
+import org.bouncycastle.jce.interfaces.ECPublicKey;
+import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.pqc.crypto.crystals.kyber.KyberPublicKeyParameters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** The KEM building blocks of the handshake, against the server keys of the lib tests. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KemBenchmark {
+
+  private static final byte[] AEAD_PLAINTEXT = new byte[1400];
+
+  private EccKyberKeyPair serverVauKeyPair;
+  private ECPoint serverEcdhPublicKey;
+  private KyberPublicKeyParameters serverKyberPublicKey;
+  private VauMessage3InnerLayer ciphertexts;
+  private KdfMessage kemResult1;
+  private KdfMessage kemResult2;
+  private byte[] aeadKey;
+  private byte[] aeadCiphertext;
+
+  @Setup
+  public void setUp() {
+    BenchmarkKeys.registerProviders();
+    serverVauKeyPair = BenchmarkKeys.serverVauKeyPair();
+    serverEcdhPublicKey =
+        EcdhEngine.toPoint(
+            new VauEccPublicKey((ECPublicKey) serverVauKeyPair.eccKeyPair().getPublic()));
+    serverKyberPublicKey =
+        KyberEngine.toPublicKeyParameters(serverVauKeyPair.kyberKeyPair().getPublic());
+
+    kemResult1 = KEM.encapsulateMessage(serverEcdhPublicKey, serverKyberPublicKey);
+    kemResult2 = KEM.encapsulateMessage(serverEcdhPublicKey, serverKyberPublicKey);
+    ciphertexts =
+        new VauMessage3InnerLayer(kemResult1.ecdhCt(), kemResult1.kyberCt(), false, false);
+    aeadKey = KEM.kdf(kemResult1).clientToServer();
+    aeadCiphertext = KEM.encryptAead(aeadKey, AEAD_PLAINTEXT);
+  }
+
+  @Benchmark
+  public KdfMessage encapsulateMessage() {
+    return KEM.encapsulateMessage(serverEcdhPublicKey, serverKyberPublicKey);
+  }
+
+  @Benchmark
+  public KdfMessage decapsulateMessages() {
+    return KEM.decapsulateMessages(ciphertexts, serverVauKeyPair);
+  }
+
+  @Benchmark
+  public KdfKey1 kdf1() {
+    return KEM.kdf(kemResult1);
+  }
+
+  @Benchmark
+  public KdfKey2 kdf2() {
+    return KEM.kdf(kemResult1, kemResult2);
+  }
+
+  @Benchmark
+  public byte[] encryptAead() {
+    return KEM.encryptAead(aeadKey, AEAD_PLAINTEXT);
+  }
+
+  @Benchmark
+  public byte[] decryptAead() {
+    return KEM.decryptAead(aeadKey, aeadCiphertext);
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2024 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.vau.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks of this module with the GC profiler, so allocation rates are reported next to
+ * the timings. Takes the usual JMH command line options, e.g. a regex to select benchmarks:
+ *
+ * <pre>
+ * mvn -pl lib,httpclient,vau-server,benchmarks package -DskipTests
+ * java -jar benchmarks/target/benchmarks.jar KemBenchmark
+ * </pre>
+ */
+public class VauBenchmarks {
+
+  private VauBenchmarks() {}
+
+  public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+    var commandLine = new CommandLineOptions(args);
+    var options = new OptionsBuilder().parent(commandLine).addProfiler(GCProfiler.class);
+    if (commandLine.getIncludes().isEmpty()) {
+      options.include(VauBenchmarks.class.getPackageName());
+    }
+    new Runner(options.build()).run();
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2024 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.gematik.vau.benchmarks;
+
+import com.oviva.telematik.vau.httpclient.HttpClient;
+import com.oviva.telematik.vau.httpclient.internal.Connection;
+import com.oviva.telematik.vau.httpclient.internal.VauHttpClientImpl;
+import de.gematik.vau.lib.VauServerStateMachine;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A call through the VAU tunnel end to end, HTTP framing, encryption and decryption on both sides,
+ * against an in-memory VAU server instead of the network.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VauHttpClientBenchmark {
+
+  private static final URI SESSION_URI = URI.create("https://vau.example.com/VAU/benchmark");
+
+  @Param({"100", "16384", "1048576"})
+  private int responseSize;
+
+  private VauHttpClientImpl client;
+  private HttpClient.Request request;
+
+  @Setup
+  public void setUp() {
+    BenchmarkKeys.registerProviders();
+    var serverVauKeyPair = BenchmarkKeys.serverVauKeyPair();
+    var server =
+        new VauServerStateMachine(
+            BenchmarkKeys.signedPublicVauKeys(serverVauKeyPair), serverVauKeyPair);
+    var vauClient = BenchmarkKeys.handshake(server);
+
+    var response =
+        HttpCodecBenchmark.httpResponse(
+            List.of(new HttpClient.Header("content-type", "application/json")),
+            HttpCodecBenchmark.jsonBody(responseSize));
+    var outerClient = new InMemoryVauServer(server, response);
+    client =
+        new VauHttpClientImpl(
+            new Connection(outerClient, "benchmark", SESSION_URI, vauClient.session()));
+    request =
+        new HttpClient.Request(
+            URI.create("https://epa.example.com/epa/basic/api/v1/ps/entitlements"),
+            "GET",
+            List.of(new HttpClient.Header("accept", "application/json")),
+            null);
+  }
+
+  @Benchmark
+  public HttpClient.Response call() {
+    return client.call(request);
+  }
+
+  /** Decrypts every request and answers with the same encrypted HTTP response. */
+  private record InMemoryVauServer(VauServerStateMachine server, byte[] response)
+      implements HttpClient {
+
+    @Override
+    public Response call(Request req) {
+      server.decryptVauMessage(req.body());
+      return new Response(200, List.of(), server.encryptVauMessage(response));
+    }
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2024 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.vau.benchmarks;
+
+import com.oviva.telematik.vau.httpclient.HttpClient;
+import com.oviva.telematik.vau.httpclient.VauClientFactory;
+import com.oviva.telematik.vau.httpclient.VauClientFactoryBuilder;
+import com.oviva.telematik.vau.httpclient.internal.JavaHttpClient;
+import com.oviva.telematik.vau.server.VauHttpServer;
+import de.gematik.vau.lib.VauServerKeyMaterial;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The HTTP client against the {@link VauHttpServer} on the loopback interface, handshakes and calls
+ * including the outer HTTP round trips. The server answers every call with the same inner HTTP
+ * response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VauHttpServerBenchmark {
+
+  @Param({"100", "16384", "1048576"})
+  private int responseSize;
+
+  private VauHttpServer server;
+  private VauClientFactory clientFactory;
+  private HttpClient client;
+  private HttpClient.Request request;
+
+  @Setup
+  public void setUp() {
+    BenchmarkKeys.registerProviders();
+    var serverVauKeyPair = BenchmarkKeys.serverVauKeyPair();
+    var response =
+        HttpCodecBenchmark.httpResponse(
+            List.of(new HttpClient.Header("content-type", "application/json")),
+            HttpCodecBenchmark.jsonBody(responseSize));
+    server =
+        VauHttpServer.builder()
+            .keyMaterial(
+                VauServerKeyMaterial.of(
+                    BenchmarkKeys.signedPublicVauKeys(serverVauKeyPair), serverVauKeyPair))
+            .backend(req -> response)
+            .port(0)
+            // every handshake of the benchmark opens a new session
+            .maxSessions(1_000_000)
+            .build();
+    server.start();
+
+    clientFactory =
+        VauClientFactoryBuilder.builder()
+            .outerClient(new JavaHttpClient(java.net.http.HttpClient.newHttpClient()))
+            .environment(VauClientFactoryBuilder.Environment.TEST)
+            .vauBaseUri(URI.create("http://localhost:%d/VAU".formatted(server.address().getPort())))
+            .build();
+    client = clientFactory.connect();
+    request =
+        new HttpClient.Request(
+            URI.create("https://epa.example.com/epa/basic/api/v1/ps/entitlements"),
+            "GET",
+            List.of(new HttpClient.Header("accept", "application/json")),
+            null);
+  }
+
+  @TearDown
+  public void tearDown() {
+    server.close();
+  }
+
+  @Benchmark
+  public HttpClient handshake() {
+    return clientFactory.connect();
+  }
+
+  @Benchmark
+  public HttpClient.Response call() {
+    return client.call(request);
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2024 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.vau.benchmarks;
+
+import de.gematik.vau.lib.VauClientStateMachine;
+import de.gematik.vau.lib.VauServerStateMachine;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Encryption and decryption of application data after the handshake, by payload size. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VauMessageBenchmark {
+
+  @Param({"100", "1024", "16384", "1048576", "10485760"})
+  private int payloadSize;
+
+  private VauClientStateMachine client;
+  private VauServerStateMachine server;
+  private byte[] payload;
+  private byte[] ciphertext;
+
+  @Setup
+  public void setUp() {
+    BenchmarkKeys.registerProviders();
+    var serverVauKeyPair = BenchmarkKeys.serverVauKeyPair();
+    server =
+        new VauServerStateMachine(
+            BenchmarkKeys.signedPublicVauKeys(serverVauKeyPair), serverVauKeyPair);
+    client = BenchmarkKeys.handshake(server);
+
+    payload = new byte[payloadSize];
+    new Random(42).nextBytes(payload);
+    // the server rejects replayed requests, so the response is decrypted by the client instead:
+    // same record layer, but the client accepts the response to its latest request any number of
+    // times
+    server.decryptVauMessage(client.encryptVauMessage(payload));
+    ciphertext = server.encryptVauMessage(payload);
+  }
+
+  @Benchmark
+  public byte[] encryptVauMessage() {
+    return client.encryptVauMessage(payload);
+  }
+
+  @Benchmark
+  public byte[] decryptVauMessage() {
+    return client.decryptVauMessage(ciphertext);
+  }
+}
@@ -2,6 +2,9 @@ package com.oviva.telematik.vau.httpclient;
 
 import com.oviva.telematik.vau.httpclient.internal.ConnectionFactory;
 import com.oviva.telematik.vau.httpclient.internal.JavaHttpClient;
+import de.gematik.vau.lib.VauClientKeyPool;
+import de.gematik.vau.lib.crypto.VauCryptoBackend;
+import de.gematik.vau.lib.crypto.VauCryptoBackends;
 import java.net.URI;
 import java.time.Duration;
 
@@ -13,6 +16,8 @@ public class VauClientFactoryBuilder {
 
   private URI vauBaseUri;
   private Environment environment = Environment.PRODUCTION;
+  private VauClientKeyPool keyPool;
+  private VauCryptoBackend cryptoBackend;
 
   private HttpClient outerClient =
       new JavaHttpClient(
@@ -35,6 +40,24 @@ public class VauClientFactoryBuilder {
     return this;
   }
 
+  /**
+   * Pre-generates the ephemeral client keys of the handshake in the background, see {@link
+   * VauClientKeyPool}. Without a pool the keys are generated when connecting.
+   */
+  public VauClientFactoryBuilder keyPool(VauClientKeyPool keyPool) {
+    this.keyPool = keyPool;
+    return this;
+  }
+
+  /**
+   * Selects the implementation of the cryptographic primitives, e.g. {@link
+   * VauCryptoBackends#jdk()}. Defaults to {@link VauCryptoBackends#defaultBackend()}.
+   */
+  public VauClientFactoryBuilder cryptoBackend(VauCryptoBackend cryptoBackend) {
+    this.cryptoBackend = cryptoBackend;
+    return this;
+  }
+
   /**
    * Returns an HttpClient that uses the VAU transport as documented in <a
    * href="https://gemspec.gematik.de/docs/gemSpec/gemSpec_Krypt/gemSpec_Krypt_V2.37.0/#7">gemSpec_Krypt</a>.
@@ -50,7 +73,8 @@ public class VauClientFactoryBuilder {
       throw new IllegalArgumentException("outer client missing");
     }
 
-    return new ConnectionFactory(outerClient, environment == Environment.PRODUCTION, vauBaseUri);
+    return new ConnectionFactory(
+        outerClient, environment == Environment.PRODUCTION, vauBaseUri, keyPool, cryptoBackend);
   }
 
   public enum Environment {
@@ -0,0 +1,180 @@
+package com.oviva.telematik.vau.httpclient;
+
+import de.gematik.vau.lib.metrics.VauMetrics;
+import de.gematik.vau.lib.metrics.VauMetricsListener;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aggregates the timings and sizes reported by the VAU library into histograms with power-of-two
+ * buckets. Recording is lock-free, snapshots can be taken at any time, e.g. to export them to a
+ * monitoring system.
+ *
+ * <pre>{@code
+ * var histograms = new VauMetricsHistograms();
+ * VauMetrics.setListener(histograms);
+ * ...
+ * var kemNanos = histograms.phase(HandshakePhase.KEM_ENCAPSULATE);
+ * }</pre>
+ */
+public class VauMetricsHistograms implements VauMetricsListener {
+
+  private final Map<HandshakePhase, Histogram> phases = new EnumMap<>(HandshakePhase.class);
+  private final Map<HandshakeStep, Histogram> steps = new EnumMap<>(HandshakeStep.class);
+  private final Map<DecryptFailure, LongAdder> failures = new EnumMap<>(DecryptFailure.class);
+  private final Histogram encrypted = new Histogram();
+  private final Histogram decrypted = new Histogram();
+
+  public VauMetricsHistograms() {
+    for (var phase : HandshakePhase.values()) {
+      phases.put(phase, new Histogram());
+    }
+    for (var step : HandshakeStep.values()) {
+      steps.put(step, new Histogram());
+    }
+    for (var cause : DecryptFailure.values()) {
+      failures.put(cause, new LongAdder());
+    }
+  }
+
+  /**
+   * Installs a new instance as the listener of the VAU library.
+   *
+   * @return the installed instance
+   */
+  public static VauMetricsHistograms install() {
+    var histograms = new VauMetricsHistograms();
+    VauMetrics.setListener(histograms);
+    return histograms;
+  }
+
+  @Override
+  public void handshakePhase(HandshakePhase phase, long nanos) {
+    phases.get(phase).record(nanos);
+  }
+
+  @Override
+  public void handshakeStep(HandshakeStep step, long nanos) {
+    steps.get(step).record(nanos);
+  }
+
+  @Override
+  public void messageEncrypted(long cleartextLength) {
+    encrypted.record(cleartextLength);
+  }
+
+  @Override
+  public void messageDecrypted(long cleartextLength) {
+    decrypted.record(cleartextLength);
+  }
+
+  @Override
+  public void decryptFailed(DecryptFailure cause) {
+    failures.get(cause).increment();
+  }
+
+  /**
+   * @return durations of the phase in nanoseconds
+   */
+  public Snapshot phase(HandshakePhase phase) {
+    return phases.get(phase).snapshot();
+  }
+
+  /**
+   * @return durations of the step in nanoseconds
+   */
+  public Snapshot step(HandshakeStep step) {
+    return steps.get(step).snapshot();
+  }
+
+  /**
+   * @return cleartext lengths of the encrypted messages
+   */
+  public Snapshot encryptedSizes() {
+    return encrypted.snapshot();
+  }
+
+  /**
+   * @return cleartext lengths of the decrypted messages
+   */
+  public Snapshot decryptedSizes() {
+    return decrypted.snapshot();
+  }
+
+  /**
+   * @return number of received messages rejected for the cause
+   */
+  public long decryptFailures(DecryptFailure cause) {
+    return failures.get(cause).sum();
+  }
+
+  private static final class Histogram {
+
+    // bucket i holds values in [2^(i-1), 2^i), bucket 0 holds 0 and negative values
+    private final LongAdder[] buckets = new LongAdder[Long.SIZE];
+    private final LongAdder sum = new LongAdder();
+
+    Histogram() {
+      for (int i = 0; i < buckets.length; i++) {
+        buckets[i] = new LongAdder();
+      }
+    }
+
+    void record(long value) {
+      var bucket = value <= 0 ? 0 : Long.SIZE - Long.numberOfLeadingZeros(value);
+      buckets[bucket].increment();
+      sum.add(Math.max(value, 0));
+    }
+
+    Snapshot snapshot() {
+      var counts = new long[buckets.length];
+      for (int i = 0; i < counts.length; i++) {
+        counts[i] = buckets[i].sum();
+      }
+      return new Snapshot(counts, sum.sum());
+    }
+  }
+
+  /**
+   * Point in time view on a histogram.
+   *
+   * @param buckets number of values per bucket, bucket {@code i} counts the values in {@code
+   *     [2^(i-1), 2^i)}
+   * @param sum sum of all values
+   */
+  public record Snapshot(long[] buckets, long sum) {
+
+    public long count() {
+      long count = 0;
+      for (var bucket : buckets) {
+        count += bucket;
+      }
+      return count;
+    }
+
+    public double mean() {
+      var count = count();
+      return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * @param quantile between 0 and 1
+     * @return upper bound of the bucket holding the quantile, 0 if nothing has been recorded
+     */
+    public long quantile(double quantile) {
+      if (quantile < 0 || quantile > 1) {
+        throw new IllegalArgumentException("quantile must be between 0 and 1, got " + quantile);
+      }
+      var rank = (long) Math.ceil(quantile * count());
+      long seen = 0;
+      for (int i = 0; i < buckets.length; i++) {
+        seen += buckets[i];
+        if (seen >= rank && seen > 0) {
+          return i == 0 ? 0 : (1L << i) - 1;
+        }
+      }
+      return 0;
+    }
+  }
+}
@@ -1,10 +1,14 @@
 package com.oviva.telematik.vau.httpclient.internal;
 
 import com.oviva.telematik.vau.httpclient.HttpClient;
-import de.gematik.vau.lib.VauClientStateMachine;
+import de.gematik.vau.lib.VauSession;
 import java.net.URI;
 import java.util.List;
 
+/**
+ * A VAU tunnel after the handshake. Calls are thread-safe, concurrent calls share the tunnel and
+ * every response is matched to its own request.
+ */
 public class Connection {
 
   private static final String METHOD_POST = "POST";
@@ -12,21 +16,20 @@ public class Connection {
   private final HttpClient outerClient;
   private final String cid;
   private final URI sessionUri;
-  private final VauClientStateMachine client;
+  private final VauSession session;
 
-  public Connection(
-      HttpClient outerClient, String cid, URI sessionUri, VauClientStateMachine client) {
+  public Connection(HttpClient outerClient, String cid, URI sessionUri, VauSession session) {
     this.outerClient = outerClient;
     this.cid = cid;
     this.sessionUri = sessionUri;
-    this.client = client;
+    this.session = session;
   }
 
   public byte[] call(byte[] requestBody) {
 
     // https://gemspec.gematik.de/docs/gemSpec/gemSpec_Krypt/latest/#A_24628-01
 
-    var ciphertextRequest = client.encryptVauMessage(requestBody);
+    var ciphertextRequest = session.encryptRequest(requestBody);
     var req =
         new HttpClient.Request(
             sessionUri,
@@ -34,7 +37,7 @@ public class Connection {
             List.of(
                 new HttpClient.Header("content-type", "application/octet-stream"),
                 new HttpClient.Header("accept", "*/*")),
-            ciphertextRequest);
+            ciphertextRequest.body());
     var res = outerClient.call(req);
     if (res.status() != 200) {
       throw new HttpExceptionWithInfo(
@@ -44,6 +47,6 @@ public class Connection {
           "bad status code %d != 200, cid=%s".formatted(res.status(), cid));
     }
     var ciphertextResponse = res.body();
-    return client.decryptVauMessage(ciphertextResponse);
+    return session.decrypt(ciphertextResponse, ciphertextRequest.requestCounter());
   }
 }
@@ -2,10 +2,13 @@ package com.oviva.telematik.vau.httpclient.internal;
 
 import com.oviva.telematik.vau.httpclient.HttpClient;
 import com.oviva.telematik.vau.httpclient.VauClientFactory;
+import de.gematik.vau.lib.VauClientKeyPool;
 import de.gematik.vau.lib.VauClientStateMachine;
+import de.gematik.vau.lib.crypto.VauCryptoBackend;
 import de.gematik.vau.lib.exceptions.VauProtocolException;
 import java.net.URI;
 import java.util.List;
+import java.util.Optional;
 import java.util.regex.Pattern;
 
 public class ConnectionFactory implements VauClientFactory {
@@ -19,11 +22,29 @@ public class ConnectionFactory implements VauClientFactory {
   private final HttpClient outerClient;
   private final boolean isPu;
   private final URI vauUri;
+  private final VauClientKeyPool keyPool;
+  private final VauCryptoBackend cryptoBackend;
 
   public ConnectionFactory(HttpClient outerClient, boolean isPu, URI vauUri) {
+    this(outerClient, isPu, vauUri, null);
+  }
+
+  public ConnectionFactory(
+      HttpClient outerClient, boolean isPu, URI vauUri, VauClientKeyPool keyPool) {
+    this(outerClient, isPu, vauUri, keyPool, null);
+  }
+
+  public ConnectionFactory(
+      HttpClient outerClient,
+      boolean isPu,
+      URI vauUri,
+      VauClientKeyPool keyPool,
+      VauCryptoBackend cryptoBackend) {
     this.outerClient = outerClient;
     this.isPu = isPu;
     this.vauUri = vauUri;
+    this.keyPool = keyPool;
+    this.cryptoBackend = cryptoBackend;
   }
 
   /**
@@ -35,12 +56,12 @@ public class ConnectionFactory implements VauClientFactory {
    */
   public HttpClient connect() {
 
-    var client = new VauClientStateMachine(isPu);
+    var client = new VauClientStateMachine(isPu, keyPool, cryptoBackend);
 
     var result = handshake(client);
 
     return new VauHttpClientImpl(
-        new Connection(outerClient, result.cid(), result.sessionUri(), client));
+        new Connection(outerClient, result.cid(), result.sessionUri(), client.compact()));
   }
 
   /** does the handshake to initialize the trusted environment */
@@ -57,9 +78,17 @@ public class ConnectionFactory implements VauClientFactory {
 
     var sessionUri = vauUri.resolve(cid);
 
-    var msg4 = postCbor(outerClient, sessionUri, msg3).body();
+    var res4 = postCbor(outerClient, sessionUri, msg3);
 
-    client.receiveMessage4(msg4);
+    client.receiveMessage4(res4.body());
+
+    // servers with stateless sessions hand out a session ticket as new VAU-CID with message 4
+    var ticketCid = vauCid(res4);
+    if (ticketCid.isPresent()) {
+      cid = ticketCid.get();
+      validateCid(cid);
+      sessionUri = vauUri.resolve(cid);
+    }
     return new HandshakeResult(cid, sessionUri);
   }
 
@@ -68,13 +97,17 @@ public class ConnectionFactory implements VauClientFactory {
   private Msg2 postMsg1(HttpClient outerClient, URI uri, byte[] body) {
 
     var res = postCbor(outerClient, uri, body);
-    var vauCid =
-        res.headers().stream()
-            .filter(h -> "VAU-CID".equalsIgnoreCase(h.name()))
-            .map(HttpClient.Header::value)
-            .findFirst();
+    return new Msg2(res.body(), vauCid(res).orElse(null));
+  }
 
-    return new Msg2(res.body(), vauCid.orElse(null));
+  private static Optional<String> vauCid(HttpClient.Response res) {
+    if (res.headers() == null) {
+      return Optional.empty();
+    }
+    return res.headers().stream()
+        .filter(h -> "VAU-CID".equalsIgnoreCase(h.name()))
+        .map(HttpClient.Header::value)
+        .findFirst();
   }
 
   private HttpClient.Response postCbor(HttpClient outerClient, URI uri, byte[] body) {
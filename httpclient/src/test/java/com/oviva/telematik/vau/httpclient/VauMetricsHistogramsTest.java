@@ -0,0 +1,46 @@
+package com.oviva.telematik.vau.httpclient;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import de.gematik.vau.lib.metrics.VauMetricsListener.DecryptFailure;
+import de.gematik.vau.lib.metrics.VauMetricsListener.HandshakePhase;
+import org.junit.jupiter.api.Test;
+
+class VauMetricsHistogramsTest {
+
+  @Test
+  void aggregatesIntoPowerOfTwoBuckets() {
+    var histograms = new VauMetricsHistograms();
+
+    histograms.handshakePhase(HandshakePhase.KDF, 0);
+    histograms.handshakePhase(HandshakePhase.KDF, 1);
+    histograms.handshakePhase(HandshakePhase.KDF, 1000);
+    histograms.handshakePhase(HandshakePhase.KDF, 1023);
+
+    var kdf = histograms.phase(HandshakePhase.KDF);
+    assertEquals(4, kdf.count());
+    assertEquals(2024, kdf.sum());
+    assertEquals(1, kdf.buckets()[0]);
+    assertEquals(1, kdf.buckets()[1]);
+    assertEquals(2, kdf.buckets()[10]);
+    assertEquals(0, kdf.quantile(0.25));
+    assertEquals(1, kdf.quantile(0.5));
+    assertEquals(1023, kdf.quantile(1));
+    assertEquals(0, histograms.phase(HandshakePhase.CBOR_DECODE).count());
+  }
+
+  @Test
+  void countsSizesAndFailures() {
+    var histograms = new VauMetricsHistograms();
+
+    histograms.messageEncrypted(100);
+    histograms.messageDecrypted(4096);
+    histograms.decryptFailed(DecryptFailure.REQUEST_COUNTER);
+    histograms.decryptFailed(DecryptFailure.REQUEST_COUNTER);
+
+    assertEquals(100, histograms.encryptedSizes().mean());
+    assertEquals(8191, histograms.decryptedSizes().quantile(0.99));
+    assertEquals(2, histograms.decryptFailures(DecryptFailure.REQUEST_COUNTER));
+    assertEquals(0, histograms.decryptFailures(DecryptFailure.AUTHENTICATION));
+  }
+}
@@ -16,29 +16,27 @@
 
 package de.gematik.vau.lib;
 
-import static de.gematik.vau.lib.util.ArrayUtils.unionByteArrays;
-
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
-import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import de.gematik.vau.lib.crypto.VauCryptoBackend;
+import de.gematik.vau.lib.crypto.VauCryptoBackends;
 import de.gematik.vau.lib.data.*;
 import de.gematik.vau.lib.exceptions.VauDecryptionException;
 import de.gematik.vau.lib.exceptions.VauEncryptionException;
 import de.gematik.vau.lib.exceptions.VauProtocolException;
+import de.gematik.vau.lib.metrics.VauMetrics;
+import de.gematik.vau.lib.metrics.VauMetricsListener.DecryptFailure;
+import de.gematik.vau.lib.metrics.VauMetricsListener.HandshakePhase;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.security.*;
 import java.security.cert.CertificateException;
 import java.time.Instant;
-import javax.crypto.BadPaddingException;
-import javax.crypto.Cipher;
-import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.NoSuchPaddingException;
-import javax.crypto.spec.GCMParameterSpec;
-import javax.crypto.spec.SecretKeySpec;
+import java.util.Objects;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 import org.bouncycastle.util.encoders.Hex;
@@ -51,26 +49,47 @@ public abstract class AbstractVauStateMachine {
 
   private final Logger log = LoggerFactory.getLogger(this.getClass());
 
-  private static final CBORMapper cborMapper =
-      CBORMapper.builder()
-          .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
-          .build();
   private static final ObjectMapper objectMapper =
       new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
-  private static final String MESSAGE_TYPE = "MessageType";
-  private static final int AUTHENTICATION_TAG_BIT_SIZE = 128; // A_24628
   private byte[] keyId;
   private EncryptionVauKey encryptionVauKey;
   private byte[] decryptionVauKey;
   private final boolean isPu;
+  private final VauCryptoBackend cryptoBackend;
+
+  @Getter(AccessLevel.NONE)
+  @Setter(AccessLevel.NONE)
+  private VauKeySchedule encryptionKeySchedule;
 
-  AbstractVauStateMachine(boolean isPu) {
+  @Getter(AccessLevel.NONE)
+  @Setter(AccessLevel.NONE)
+  private VauKeySchedule decryptionKeySchedule;
+
+  AbstractVauStateMachine(boolean isPu, VauCryptoBackend cryptoBackend) {
     this.isPu = isPu;
+    this.cryptoBackend = cryptoBackend != null ? cryptoBackend : VauCryptoBackends.defaultBackend();
+  }
+
+  public void setKeyId(byte[] keyId) {
+    this.keyId = keyId;
+    this.encryptionKeySchedule = null;
+  }
+
+  public void setEncryptionVauKey(EncryptionVauKey encryptionVauKey) {
+    this.encryptionVauKey = encryptionVauKey;
+    this.encryptionKeySchedule = null;
+  }
+
+  public void setDecryptionVauKey(byte[] decryptionVauKey) {
+    this.decryptionVauKey = decryptionVauKey;
+    this.decryptionKeySchedule = null;
   }
 
   byte[] encodeUsingCbor(Object value) {
     try {
-      final byte[] bytes = cborMapper.writeValueAsBytes(value);
+      long start = VauMetrics.start();
+      final byte[] bytes = writeCbor(value);
+      VauMetrics.recordPhase(HandshakePhase.CBOR_ENCODE, start);
       if (log.isDebugEnabled()) {
         log.debug(
             "Encoding message \n{}\nto\n{}",
@@ -83,24 +102,22 @@ public abstract class AbstractVauStateMachine {
     }
   }
 
-  <T> T decodeCborMessageToClass(byte[] encodedMessage) throws IOException {
-    final JsonNode tree = cborMapper.readTree(encodedMessage);
-    if (!tree.has(MESSAGE_TYPE) || !tree.get(MESSAGE_TYPE).isTextual()) {
-      throw new VauProtocolException("Message type not recognized");
-    }
-    return switch (tree.get(MESSAGE_TYPE).textValue()) {
-      case "M1" -> cborMapper.readerFor(VauMessage1.class).readValue(encodedMessage);
-      case "M2" -> cborMapper.readerFor(VauMessage2.class).readValue(encodedMessage);
-      case "M3" -> cborMapper.readerFor(VauMessage3.class).readValue(encodedMessage);
-      case "M4" -> cborMapper.readerFor(VauMessage4.class).readValue(encodedMessage);
-      default ->
-          throw new VauProtocolException(
-              "Message type " + tree.get(MESSAGE_TYPE).textValue() + "not supported");
-    };
+  static byte[] writeCbor(Object value) {
+    return VauCborCodec.encode(value);
+  }
+
+  Object decodeCborMessageToClass(byte[] encodedMessage) throws IOException {
+    long start = VauMetrics.start();
+    var message = VauCborCodec.decodeHandshakeMessage(encodedMessage);
+    VauMetrics.recordPhase(HandshakePhase.CBOR_DECODE, start);
+    return message;
   }
 
   <T> T decodeCborMessageToClass(byte[] encodedMessage, Class<T> clazz) throws IOException {
-    return cborMapper.readerFor(clazz).readValue(encodedMessage);
+    long start = VauMetrics.start();
+    var message = VauCborCodec.decode(encodedMessage, clazz);
+    VauMetrics.recordPhase(HandshakePhase.CBOR_DECODE, start);
+    return message;
   }
 
   /**
@@ -111,75 +128,203 @@ public abstract class AbstractVauStateMachine {
    * @return the ciphertext
    */
   public byte[] encryptVauMessage(byte[] cleartext) {
-    byte versionByte = 2;
-    byte puByte = 0;
-    byte reqByte = getRequestByte();
-    byte[] reqCtrBytes = ByteBuffer.allocate(8).putLong(getRequestCounter()).array();
-    byte[] header = unionByteArrays(versionByte, puByte, reqByte, reqCtrBytes, getKeyId());
+    return encryptVauMessage(cleartext, 0, cleartext.length);
+  }
 
-    byte[] a = new byte[4];
-    new SecureRandom().nextBytes(a);
+  /**
+   * encrypts a message to be sent, see {@link #encryptVauMessage(byte[])}
+   *
+   * @param cleartext array holding the text to be encrypted
+   * @param offset start of the text in the array
+   * @param length length of the text
+   * @return the ciphertext
+   */
+  public byte[] encryptVauMessage(byte[] cleartext, int offset, int length) {
+    Objects.checkFromIndexSize(offset, length, cleartext.length);
+    try {
+      final byte[] bytes =
+          encryptionKeySchedule().encrypt(nextRequestCounter(), cleartext, offset, length);
+      if (log.isTraceEnabled()) {
+        log.trace(
+            "Encoded message: {} with key {} with iv {} with header {}",
+            Hex.toHexString(bytes),
+            Hex.toHexString(encryptionVauKey.appData()),
+            Hex.toHexString(bytes, VauKeySchedule.HEADER_LENGTH, VauKeySchedule.IV_LENGTH),
+            Hex.toHexString(bytes, 0, VauKeySchedule.HEADER_LENGTH));
+      }
+      VauMetrics.recordEncrypted(length);
+      return bytes;
+    } catch (GeneralSecurityException e) {
+      throw new VauEncryptionException("failed to encrypt message", e);
+    }
+  }
 
-    byte[] iv = unionByteArrays(a, reqCtrBytes);
+  /**
+   * encrypts the remaining bytes of {@code src} and writes the complete message (header, IV and
+   * ciphertext) to {@code dst} without intermediate copies, see {@link #encryptVauMessage(byte[])}.
+   * Direct buffers are supported.
+   *
+   * @param src the text to be encrypted, will be consumed completely
+   * @param dst destination with at least {@link #encryptedLength(int)} bytes remaining
+   * @return number of bytes written to {@code dst}
+   */
+  public int encryptVauMessage(ByteBuffer src, ByteBuffer dst) {
+    try {
+      var length = src.remaining();
+      var written = encryptionKeySchedule().encrypt(nextRequestCounter(), src, dst);
+      VauMetrics.recordEncrypted(length);
+      return written;
+    } catch (GeneralSecurityException e) {
+      throw new VauEncryptionException("failed to encrypt message", e);
+    }
+  }
 
-    byte[] ciphertext = encryptWithAesGcm(encryptionVauKey.appData(), iv, cleartext, header);
+  /**
+   * Opens a stream which encrypts everything written to it as one message, see {@link
+   * #encryptVauMessage(byte[])}. The cleartext is processed in chunks, so large documents do not
+   * have to be held in memory as a whole. The message is complete once the stream is finished or
+   * closed, no other message may be encrypted until then.
+   *
+   * @param out receives the encrypted message
+   * @return the encrypting stream
+   */
+  public VauEncryptingOutputStream encryptingStream(OutputStream out) {
+    try {
+      return new VauEncryptingOutputStream(out, encryptionKeySchedule(), nextRequestCounter());
+    } catch (GeneralSecurityException e) {
+      throw new VauEncryptionException("failed to encrypt message", e);
+    }
+  }
 
-    final byte[] bytes = unionByteArrays(header, iv, ciphertext);
-    if (log.isTraceEnabled()) {
-      log.trace(
-          "Encoded message: {} with key {} with iv {} with header {}",
-          Hex.toHexString(bytes),
-          Hex.toHexString(encryptionVauKey.appData()),
-          Hex.toHexString(iv),
-          Hex.toHexString(header));
+  /**
+   * Opens a stream which decrypts one message read from {@code in}, see {@link
+   * #decryptVauMessage(byte[])}. The ciphertext is processed in chunks, the authentication tag is
+   * verified when the end of the stream is reached; see {@link VauDecryptingInputStream} for what
+   * this means for callers. The stream decrypts with the BouncyCastle lightweight GCM instead of
+   * the backend's AES-GCM, so it only buffers a chunk however long the message is.
+   *
+   * @param in the encrypted message
+   * @return the decrypting stream
+   */
+  public VauDecryptingInputStream decryptingStream(InputStream in) {
+    return new VauDecryptingInputStream(in, this, decryptionVauKey);
+  }
+
+  /**
+   * Creates the thread-safe record layer of the session, see {@link VauSession}. The session
+   * continues with the current request counter; messages should then only be exchanged through the
+   * session, not this state machine.
+   *
+   * @return the session established by the handshake
+   * @throws IllegalStateException if the handshake has not been completed yet
+   */
+  public VauSession session() {
+    if (!isHandshakeCompleted()) {
+      throw new IllegalStateException("handshake not completed");
     }
-    return bytes;
+    return new VauSession(
+        cryptoBackend,
+        isPu,
+        getRequestByte(),
+        keyId,
+        encryptionVauKey.appData(),
+        decryptionVauKey,
+        getRequestCounter(),
+        replayWindow());
+  }
+
+  /**
+   * @return the window received request counters are checked against, {@code null} if the counters
+   *     are matched to the sent requests instead
+   */
+  protected VauReplayWindow replayWindow() {
+    return null;
+  }
+
+  /**
+   * Ends the handshake phase: creates the session, see {@link #session()}, and releases all key
+   * material of this state machine. Only the returned session should be kept, it holds just the
+   * app-data keys, the KeyID, the counter and the flags; the state machine cannot encrypt or
+   * decrypt anymore.
+   *
+   * @return the session established by the handshake
+   * @throws IllegalStateException if the handshake has not been completed yet
+   */
+  public VauSession compact() {
+    var session = session();
+    releaseHandshakeState();
+    keyId = null;
+    encryptionVauKey = null;
+    decryptionVauKey = null;
+    encryptionKeySchedule = null;
+    decryptionKeySchedule = null;
+    return session;
+  }
+
+  /** Drops the key material of the handshake, see {@link #compact()}. */
+  protected void releaseHandshakeState() {}
+
+  /**
+   * @return whether the keys of the session are established
+   */
+  protected boolean isHandshakeCompleted() {
+    return keyId != null && encryptionVauKey != null && decryptionVauKey != null;
+  }
+
+  /**
+   * @param cleartextLength length of a cleartext
+   * @return length of the encrypted VAU message for the cleartext
+   */
+  public static int encryptedLength(int cleartextLength) {
+    return VauKeySchedule.encryptedLength(cleartextLength);
+  }
+
+  /**
+   * @param ciphertextLength length of an encrypted VAU message
+   * @return length of the cleartext contained in the message
+   */
+  public static int decryptedLength(int ciphertextLength) {
+    return VauKeySchedule.decryptedLength(ciphertextLength);
   }
 
   protected abstract long getRequestCounter();
 
+  /**
+   * @return the request counter to use for the next message to be encrypted
+   */
+  protected long nextRequestCounter() {
+    return getRequestCounter();
+  }
+
   protected abstract byte getRequestByte();
 
-  private byte[] encryptWithAesGcm(
-      byte[] vauKey, byte[] iv, byte[] cleartext, byte[] associatedData) {
-    try {
-      var cipher = Cipher.getInstance("AES/GCM/NoPadding");
-      cipher.init(
-          Cipher.ENCRYPT_MODE,
-          new SecretKeySpec(vauKey, "AES"),
-          new GCMParameterSpec(AUTHENTICATION_TAG_BIT_SIZE, iv));
-      cipher.updateAAD(associatedData);
-      byte[] ciphertext = cipher.doFinal(cleartext);
-      if (ciphertext.length != cleartext.length + AUTHENTICATION_TAG_BIT_SIZE / Byte.SIZE) {
-        throw new VauEncryptionException(
-            String.format(
-                "Calculated Authentication tag must be %s Bytes, but it was %s Bytes.",
-                AUTHENTICATION_TAG_BIT_SIZE / Byte.SIZE, ciphertext.length - cleartext.length));
-      }
-      return ciphertext;
-    } catch (NoSuchAlgorithmException
-        | NoSuchPaddingException
-        | IllegalBlockSizeException
-        | InvalidAlgorithmParameterException
-        | BadPaddingException
-        | InvalidKeyException e) {
-      throw new VauEncryptionException("failed to encrypt message", e);
+  /**
+   * The key schedules are prepared once per key, the handshake sets the keys and the KeyID in
+   * separate steps so we build them on first use.
+   */
+  private VauKeySchedule encryptionKeySchedule() throws GeneralSecurityException {
+    requireSessionKeys();
+    if (encryptionKeySchedule == null) {
+      encryptionKeySchedule =
+          VauKeySchedule.forEncryption(
+              cryptoBackend, encryptionVauKey.appData(), getRequestByte(), keyId);
     }
+    return encryptionKeySchedule;
   }
 
-  private byte[] decryptWithAesGcm(byte[] secretKey, byte[] iv, byte[] cipherText, byte[] header)
-      throws GeneralSecurityException {
-    if (iv.length != 12) {
-      throw new IllegalArgumentException("Length of IV must be 12 Bytes.");
+  private VauKeySchedule decryptionKeySchedule() throws GeneralSecurityException {
+    requireSessionKeys();
+    if (decryptionKeySchedule == null) {
+      decryptionKeySchedule = VauKeySchedule.forDecryption(cryptoBackend, decryptionVauKey);
     }
+    return decryptionKeySchedule;
+  }
 
-    Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding"); // NOSONAR
-    cipher.init(
-        Cipher.DECRYPT_MODE,
-        new SecretKeySpec(secretKey, "AES"),
-        new GCMParameterSpec(AUTHENTICATION_TAG_BIT_SIZE, iv));
-    cipher.updateAAD(header);
-    return cipher.doFinal(cipherText);
+  private void requireSessionKeys() {
+    if (keyId == null || encryptionVauKey == null || decryptionVauKey == null) {
+      throw new IllegalStateException(
+          "no session keys, the handshake is not completed or the state machine is compacted");
+    }
   }
 
   /**
@@ -190,28 +335,96 @@ public abstract class AbstractVauStateMachine {
    * @return the resulting plaintext
    */
   public byte[] decryptVauMessage(byte[] ciphertext) {
-    var message = new EncryptedVauMessage(ciphertext, isPu);
+    return decryptVauMessage(ciphertext, 0, ciphertext.length);
+  }
 
-    // trace all
+  /**
+   * Decrypts a received message, see {@link #decryptVauMessage(byte[])}
+   *
+   * @param ciphertext array holding the to be decrypted message
+   * @param offset start of the message in the array
+   * @param length length of the message
+   * @return the resulting plaintext
+   */
+  public byte[] decryptVauMessage(byte[] ciphertext, int offset, int length) {
+    var message = checkedMessage(ByteBuffer.wrap(ciphertext, offset, length));
+    var cleartext = new byte[decryptedLength(length)];
+    decrypt(message, ByteBuffer.wrap(cleartext));
+    authenticated(message.getRequestCounter());
     if (log.isTraceEnabled()) {
-      message.logAsTrace(decryptionVauKey);
+      log.trace("Successful decrypted ct as: \n {}", new String(cleartext));
     }
+    VauMetrics.recordDecrypted(cleartext.length);
+    return cleartext;
+  }
 
-    // check VAU header information
-    message.checkCommonMessageParameters();
-    checkRequestByte(message.getRequest());
-    checkRequestCounter(ByteBuffer.wrap(message.getRequestCounter()).getLong());
-    checkRequestKeyId(message.getKeyId());
+  /**
+   * Decrypts the message in the remaining bytes of {@code src} and writes the plaintext to {@code
+   * dst} without intermediate copies, see {@link #decryptVauMessage(byte[])}. Direct buffers are
+   * supported.
+   *
+   * @param src the to be decrypted message, will be consumed completely
+   * @param dst destination with at least {@link #decryptedLength(int)} bytes remaining
+   * @return number of bytes written to {@code dst}
+   */
+  public int decryptVauMessage(ByteBuffer src, ByteBuffer dst) {
+    var message = checkedMessage(src);
+    var written = decrypt(message, dst);
+    authenticated(message.getRequestCounter());
+    src.position(src.limit());
+    VauMetrics.recordDecrypted(written);
+    return written;
+  }
 
+  private EncryptedVauMessage checkedMessage(ByteBuffer ciphertext) {
+    requireSessionKeys();
+    var stage = DecryptFailure.MALFORMED;
     try {
-      var cleartext =
-          decryptWithAesGcm(
-              decryptionVauKey, message.getIv(), message.getCt(), message.getHeader());
+      var message = new EncryptedVauMessage(ciphertext, isPu);
+
+      // trace all
       if (log.isTraceEnabled()) {
-        log.trace("Successful decrypted ct as: \n {}", new String(cleartext));
+        message.logAsTrace(decryptionVauKey);
       }
-      return cleartext;
+
+      // check VAU header information
+      message.checkCommonMessageParameters();
+      stage = DecryptFailure.REQUEST_BYTE;
+      checkRequestByte(message.getRequest());
+      stage = DecryptFailure.REQUEST_COUNTER;
+      checkRequestCounter(message.getRequestCounter());
+      stage = DecryptFailure.KEY_ID;
+      checkRequestKeyId(message.keyId());
+      return message;
+    } catch (RuntimeException e) {
+      VauMetrics.recordDecryptFailure(stage);
+      throw e;
+    }
+  }
+
+  void checkHeader(byte[] header) {
+    requireSessionKeys();
+    var stage = DecryptFailure.MALFORMED;
+    try {
+      var buffer = ByteBuffer.wrap(header);
+      EncryptedVauMessage.checkCommonMessageParameters(buffer.get(0), buffer.get(1), isPu);
+      stage = DecryptFailure.REQUEST_BYTE;
+      checkRequestByte(buffer.get(2));
+      stage = DecryptFailure.REQUEST_COUNTER;
+      checkRequestCounter(buffer.getLong(VauKeySchedule.COUNTER_OFFSET));
+      stage = DecryptFailure.KEY_ID;
+      checkRequestKeyId(buffer.slice(VauKeySchedule.KEY_ID_OFFSET, VauKeySchedule.KEY_ID_LENGTH));
+    } catch (RuntimeException e) {
+      VauMetrics.recordDecryptFailure(stage);
+      throw e;
+    }
+  }
+
+  private int decrypt(EncryptedVauMessage message, ByteBuffer dst) {
+    try {
+      return decryptionKeySchedule().decrypt(message, dst);
     } catch (GeneralSecurityException e) {
+      VauMetrics.recordDecryptFailure(DecryptFailure.AUTHENTICATION);
       throw new VauDecryptionException(
           "Exception thrown whilst trying to decrypt VAU message: " + e.getMessage(), e);
     }
@@ -219,9 +432,29 @@ public abstract class AbstractVauStateMachine {
 
   protected abstract void checkRequestCounter(long reqCtr);
 
+  /**
+   * Called once a received message passed {@link #checkRequestCounter(long)} and its authentication
+   * tag has been verified.
+   *
+   * @param reqCtr the request counter of the message
+   */
+  protected void acceptRequestCounter(long reqCtr) {}
+
+  void authenticated(long reqCtr) {
+    try {
+      acceptRequestCounter(reqCtr);
+    } catch (RuntimeException e) {
+      VauMetrics.recordDecryptFailure(DecryptFailure.REQUEST_COUNTER);
+      throw e;
+    }
+  }
+
   protected abstract void checkRequestByte(byte reqByte);
 
-  protected abstract void checkRequestKeyId(byte[] keyId);
+  /**
+   * @param keyId view on the KeyID in the header of a received message
+   */
+  protected abstract void checkRequestKeyId(ByteBuffer keyId);
 
   protected static void checkCertificateExpired(int exp) {
     var now = Instant.now();
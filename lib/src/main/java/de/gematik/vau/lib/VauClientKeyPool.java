@@ -0,0 +1,155 @@
+/*
+ * Copyright 2024 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.vau.lib;
+
+import de.gematik.vau.lib.data.EccKyberKeyPair;
+import de.gematik.vau.lib.data.VauMessage1;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pool of pre-generated ephemeral client keys (ECDH and Kyber-768) together with their encoded
+ * handshake message 1, so {@link VauClientStateMachine#generateMessage1()} does not have to
+ * generate keys on the request path. The pool is refilled in the background; every key is handed
+ * out exactly once and dropped from the pool. If the pool is empty, a key is generated on the
+ * calling thread.
+ */
+public class VauClientKeyPool implements AutoCloseable {
+
+  private static final Logger log = LoggerFactory.getLogger(VauClientKeyPool.class);
+
+  private final BlockingQueue<PreparedKey> keys;
+  private final Executor executor;
+  private final ExecutorService ownedExecutor;
+  private final AtomicBoolean refilling = new AtomicBoolean();
+  private volatile boolean closed;
+
+  /**
+   * Creates a pool refilled by a single low priority daemon thread.
+   *
+   * @param capacity number of keys to keep ready
+   */
+  public VauClientKeyPool(int capacity) {
+    this(capacity, null);
+  }
+
+  /**
+   * @param capacity number of keys to keep ready
+   * @param executor runs the refills, a single low priority daemon thread if {@code null}
+   */
+  public VauClientKeyPool(int capacity, Executor executor) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity must be positive, got " + capacity);
+    }
+    this.keys = new ArrayBlockingQueue<>(capacity);
+    if (executor == null) {
+      this.ownedExecutor =
+          Executors.newSingleThreadExecutor(
+              r -> {
+                var thread = new Thread(r, "vau-client-key-pool");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+              });
+      this.executor = ownedExecutor;
+    } else {
+      this.ownedExecutor = null;
+      this.executor = executor;
+    }
+    refill();
+  }
+
+  /**
+   * Takes a key out of the pool, or generates one if the pool is empty.
+   *
+   * @return a key which has not been handed out before
+   */
+  public PreparedKey take() {
+    var key = keys.poll();
+    refill();
+    if (key == null) {
+      log.debug("client key pool empty, generating key synchronously");
+      key = PreparedKey.generate();
+    }
+    return key;
+  }
+
+  /**
+   * @return the number of keys ready to be taken
+   */
+  public int size() {
+    return keys.size();
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    keys.clear();
+    if (ownedExecutor != null) {
+      ownedExecutor.shutdownNow();
+    }
+  }
+
+  private void refill() {
+    if (closed || keys.remainingCapacity() == 0 || !refilling.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      executor.execute(this::fill);
+    } catch (RejectedExecutionException e) {
+      refilling.set(false);
+      log.debug("client key pool refill rejected", e);
+    }
+  }
+
+  private void fill() {
+    try {
+      while (!closed && keys.remainingCapacity() > 0) {
+        keys.offer(PreparedKey.generate());
+      }
+    } catch (RuntimeException e) {
+      log.warn("failed to pre-generate client keys", e);
+      return;
+    } finally {
+      refilling.set(false);
+    }
+    // a key may have been taken after the last check
+    refill();
+  }
+
+  /**
+   * An ephemeral client key and the encoded handshake message 1 announcing it.
+   *
+   * @param keyPair the ECDH and Kyber-768 key pairs
+   * @param message1Encoded the CBOR encoded message 1
+   */
+  public record PreparedKey(EccKyberKeyPair keyPair, byte[] message1Encoded) {
+
+    static PreparedKey generate() {
+      var keyPair = EccKyberKeyPair.generateRandom();
+      return new PreparedKey(
+          keyPair, AbstractVauStateMachine.writeCbor(VauMessage1.fromClientKey(keyPair)));
+    }
+  }
+}
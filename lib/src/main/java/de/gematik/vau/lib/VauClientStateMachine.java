@@ -17,14 +17,23 @@
 package de.gematik.vau.lib;
 
 import de.gematik.vau.lib.crypto.KEM;
+import de.gematik.vau.lib.crypto.VauCryptoBackend;
+import de.gematik.vau.lib.crypto.VauCryptoBackends;
 import de.gematik.vau.lib.data.*;
 import de.gematik.vau.lib.exceptions.VauEncryptionException;
 import de.gematik.vau.lib.exceptions.VauProtocolException;
+import de.gematik.vau.lib.metrics.VauMetrics;
+import de.gematik.vau.lib.metrics.VauMetricsListener.HandshakePhase;
+import de.gematik.vau.lib.metrics.VauMetricsListener.HandshakeStep;
 import de.gematik.vau.lib.util.ArrayUtils;
 import de.gematik.vau.lib.util.DigestUtils;
+import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
 import java.util.Arrays;
+import lombok.AccessLevel;
 import lombok.Getter;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.pqc.crypto.crystals.kyber.KyberPublicKeyParameters;
 import org.bouncycastle.util.encoders.Hex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,32 +47,75 @@ public class VauClientStateMachine extends AbstractVauStateMachine {
   private EccKyberKeyPair clientKey1;
   private KdfKey1 kdfClientKey1;
   private KdfKey2 clientKey2;
-  private byte[] transcriptClient = new byte[0];
+
+  @Getter(AccessLevel.NONE)
+  private SHA256Digest transcriptClient;
+
+  @Getter(AccessLevel.NONE)
+  private boolean handshakeConfirmed;
+
   private long requestCounter = 0;
 
+  @Getter(AccessLevel.NONE)
+  private final VauClientKeyPool keyPool;
+
   public VauClientStateMachine(boolean isPu) {
-    super(isPu);
+    this(isPu, null);
+  }
+
+  /**
+   * @param isPu whether we are in the production environment
+   * @param keyPool pool to take the ephemeral keys for message 1 from, keys are generated on demand
+   *     if {@code null}
+   */
+  public VauClientStateMachine(boolean isPu, VauClientKeyPool keyPool) {
+    this(isPu, keyPool, null);
+  }
+
+  /**
+   * @param isPu whether we are in the production environment
+   * @param keyPool pool to take the ephemeral keys for message 1 from, keys are generated on demand
+   *     if {@code null}
+   * @param cryptoBackend the primitives for the handshake and the messages, {@link
+   *     VauCryptoBackends#defaultBackend()} if {@code null}
+   */
+  public VauClientStateMachine(
+      boolean isPu, VauClientKeyPool keyPool, VauCryptoBackend cryptoBackend) {
+    super(isPu, cryptoBackend);
+    this.keyPool = keyPool;
   }
 
   public VauClientStateMachine() {
-    super(false);
+    this(false);
   }
 
   /**
-   * Handshake Message 1: Generates Key Pairs, stores them in a Message1 and encodes it
+   * Handshake Message 1: Generates Key Pairs, stores them in a Message1 and encodes it; with a key
+   * pool the pre-generated keys and message are used instead
    *
    * @return the encoded message 1
    */
   public byte[] generateMessage1() {
-    if (clientKey1 == null) {
-      clientKey1 = EccKyberKeyPair.generateRandom();
+    long start = VauMetrics.start();
+    byte[] message1Encoded;
+    if (clientKey1 == null && keyPool != null) {
+      var preparedKey = keyPool.take();
+      clientKey1 = preparedKey.keyPair();
+      message1Encoded = preparedKey.message1Encoded();
+      VauMetrics.recordPhase(HandshakePhase.KEY_GENERATION, start);
+    } else {
+      if (clientKey1 == null) {
+        clientKey1 = EccKyberKeyPair.generateRandom();
+        VauMetrics.recordPhase(HandshakePhase.KEY_GENERATION, start);
+      }
+      var message1 = VauMessage1.fromClientKey(clientKey1);
+      message1Encoded = encodeUsingCbor(message1);
     }
 
-    var message1 = VauMessage1.fromClientKey(clientKey1);
-    byte[] message1Encoded = encodeUsingCbor(message1);
-
     log.debug("Generated message1: {}", Hex.toHexString(message1Encoded));
-    transcriptClient = message1Encoded;
+    transcriptClient = new SHA256Digest();
+    transcriptClient.update(message1Encoded, 0, message1Encoded.length);
+    VauMetrics.recordStep(HandshakeStep.GENERATE_MESSAGE_1, start);
     return message1Encoded;
   }
 
@@ -79,6 +131,7 @@ public class VauClientStateMachine extends AbstractVauStateMachine {
    * @return Message 3 with aead encrypted ciphertexts and client hash
    */
   public byte[] receiveMessage2(byte[] message2Encoded) {
+    long start = VauMetrics.start();
     VauMessage2 vauMessage2;
     try {
       vauMessage2 = decodeCborMessageToClass(message2Encoded, VauMessage2.class);
@@ -87,10 +140,11 @@ public class VauClientStateMachine extends AbstractVauStateMachine {
           "Could not CBOR decode Message 2 when receiving it at client. " + e.getMessage());
     }
 
-    KdfMessage clientKemResult1 = KEM.decapsulateMessages(vauMessage2, clientKey1);
-    kdfClientKey1 = KEM.kdf(clientKemResult1);
+    var backend = getCryptoBackend();
+    KdfMessage clientKemResult1 = KEM.decapsulateMessages(backend, vauMessage2, clientKey1);
+    kdfClientKey1 = KEM.kdfKey1(backend, clientKemResult1);
     byte[] transferredSignedServerPublicKey =
-        KEM.decryptAead(kdfClientKey1.serverToClient(), vauMessage2.getAeadCt());
+        KEM.decryptAead(backend, kdfClientKey1.serverToClient(), vauMessage2.getAeadCt());
 
     SignedPublicVauKeys signedPublicVauKeys;
     try {
@@ -104,12 +158,13 @@ public class VauClientStateMachine extends AbstractVauStateMachine {
     VauPublicKeys transferredSignedServerPublicKeyList = signedPublicVauKeys.extractVauKeys();
     checkCertificateExpired(transferredSignedServerPublicKeyList.exp());
 
-    verifyClientMessageIsWellFormed(
-        transferredSignedServerPublicKeyList.ecdhPublicKey(), transferredSignedServerPublicKeyList);
+    var kyberPublicKey =
+        verifyClientMessageIsWellFormed(
+            transferredSignedServerPublicKeyList.ecdhPublicKey(),
+            transferredSignedServerPublicKeyList);
     KdfMessage clientKemResult2 =
         KEM.encapsulateMessage(
-            transferredSignedServerPublicKeyList.ecdhPublicKey().toEcPublicKey(),
-            transferredSignedServerPublicKeyList.kyberPublicKey());
+            backend, transferredSignedServerPublicKeyList.ecdhPublicPoint(), kyberPublicKey);
 
     var innerLayer =
         VauMessage3InnerLayer.builder()
@@ -121,23 +176,23 @@ public class VauClientStateMachine extends AbstractVauStateMachine {
 
     byte[] message3InnerLayerEncoded = encodeUsingCbor(innerLayer);
     byte[] aeadCipherTextMessage3 =
-        KEM.encryptAead(kdfClientKey1.clientToServer(), message3InnerLayerEncoded);
+        KEM.encryptAead(backend, kdfClientKey1.clientToServer(), message3InnerLayerEncoded);
 
-    transcriptClient = ArrayUtils.addAll(transcriptClient, message2Encoded);
-    byte[] transcriptClientToSend = ArrayUtils.addAll(transcriptClient, aeadCipherTextMessage3);
+    transcriptClient.update(message2Encoded, 0, message2Encoded.length);
 
-    clientKey2 = KEM.kdf(clientKemResult1, clientKemResult2);
+    clientKey2 = KEM.kdfKey2(backend, clientKemResult1, clientKemResult2);
     setEncryptionVauKey(new EncryptionVauKey(clientKey2.clientToServerAppData()));
     setDecryptionVauKey(clientKey2.serverToClientAppData());
     setKeyId(clientKey2.keyId());
-    byte[] transcriptClientHash = DigestUtils.sha256(transcriptClientToSend);
+    byte[] transcriptClientHash = DigestUtils.sha256(transcriptClient, aeadCipherTextMessage3);
 
     byte[] aeadCiphertextMessage3KeyKonfirmation =
-        KEM.encryptAead(clientKey2.clientToServerKeyConfirmation(), transcriptClientHash);
+        KEM.encryptAead(backend, clientKey2.clientToServerKeyConfirmation(), transcriptClientHash);
     VauMessage3 message3 =
         new VauMessage3("M3", aeadCipherTextMessage3, aeadCiphertextMessage3KeyKonfirmation);
     byte[] message3Encoded = encodeUsingCbor(message3);
-    transcriptClient = ArrayUtils.addAll(transcriptClient, message3Encoded);
+    transcriptClient.update(message3Encoded, 0, message3Encoded.length);
+    VauMetrics.recordStep(HandshakeStep.RECEIVE_MESSAGE_2, start);
     return message3Encoded;
   }
 
@@ -147,6 +202,7 @@ public class VauClientStateMachine extends AbstractVauStateMachine {
    * @param message4Encoded CBOR decoded Message 4, containing the aead encrypted server hash
    */
   public void receiveMessage4(byte[] message4Encoded) {
+    long start = VauMetrics.start();
     VauMessage4 message4;
     try {
       message4 = decodeCborMessageToClass(message4Encoded, VauMessage4.class);
@@ -156,20 +212,27 @@ public class VauClientStateMachine extends AbstractVauStateMachine {
     }
     byte[] vauTranscript =
         KEM.decryptAead(
-            clientKey2.serverToClientKeyConfirmation(), message4.getAeadCtKeyKonfirmation());
-    byte[] newTranscriptClientHash = DigestUtils.sha256(transcriptClient);
+            getCryptoBackend(),
+            clientKey2.serverToClientKeyConfirmation(),
+            message4.getAeadCtKeyKonfirmation());
+    byte[] newTranscriptClientHash = DigestUtils.finish(transcriptClient);
 
     if (!Arrays.equals(vauTranscript, newTranscriptClientHash)) {
       var cause =
           new InvalidKeyException("Vau transcript and new client transcript hash do not equal.");
       throw new VauProtocolException("bad message 4", cause);
     }
+    handshakeConfirmed = true;
+    transcriptClient = null;
+    // the ephemeral Kyber private key alone takes about 2.4 KB
+    clientKey1 = null;
+    kdfClientKey1 = null;
+    VauMetrics.recordStep(HandshakeStep.RECEIVE_MESSAGE_4, start);
   }
 
   @Override
   public byte[] encryptVauMessage(byte[] cleartext) {
     try {
-      requestCounter++;
       return super.encryptVauMessage(cleartext);
     } catch (IllegalArgumentException | VauEncryptionException e) {
       throw new VauEncryptionException(
@@ -177,6 +240,28 @@ public class VauClientStateMachine extends AbstractVauStateMachine {
     }
   }
 
+  @Override
+  protected void releaseHandshakeState() {
+    clientKey1 = null;
+    kdfClientKey1 = null;
+    clientKey2 = null;
+    transcriptClient = null;
+  }
+
+  /**
+   * The keys are derived from message 2 already, but the session is only established once message 4
+   * confirmed the transcript.
+   */
+  @Override
+  protected boolean isHandshakeCompleted() {
+    return super.isHandshakeCompleted() && handshakeConfirmed;
+  }
+
+  @Override
+  protected long nextRequestCounter() {
+    return ++requestCounter;
+  }
+
   @Override
   public byte getRequestByte() {
     return 1;
@@ -199,22 +284,22 @@ public class VauClientStateMachine extends AbstractVauStateMachine {
   }
 
   @Override
-  protected void checkRequestKeyId(byte[] keyId) {
-    if (!Arrays.equals(clientKey2.keyId(), keyId)) {
+  protected void checkRequestKeyId(ByteBuffer keyId) {
+    if (!keyId.equals(ByteBuffer.wrap(clientKey2.keyId()))) {
       throw new IllegalArgumentException(
           "Key ID in the header "
-              + Hex.toHexString(keyId)
+              + Hex.toHexString(ArrayUtils.toArray(keyId))
               + " does not equals "
               + Hex.toHexString(clientKey2.keyId())
               + " stored on client side");
     }
   }
 
-  private void verifyClientMessageIsWellFormed(
+  private KyberPublicKeyParameters verifyClientMessageIsWellFormed(
       VauEccPublicKey eccPublicKey, VauPublicKeys kyberPublicKey) {
     verifyEccPublicKey(eccPublicKey);
 
     // indirectly checks whether we can read the public key
-    kyberPublicKey.kyberPublicKey();
+    return kyberPublicKey.kyberPublicKeyParameters();
   }
 }
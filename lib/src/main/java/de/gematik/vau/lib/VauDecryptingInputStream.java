@@ -0,0 +1,169 @@
+/*
+ * Copyright 2024 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.vau.lib;
+
+import de.gematik.vau.lib.exceptions.VauDecryptionException;
+import de.gematik.vau.lib.metrics.VauMetrics;
+import de.gematik.vau.lib.metrics.VauMetricsListener.DecryptFailure;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Objects;
+import org.bouncycastle.crypto.InvalidCipherTextException;
+import org.bouncycastle.crypto.engines.AESEngine;
+import org.bouncycastle.crypto.modes.GCMBlockCipher;
+import org.bouncycastle.crypto.modes.GCMModeCipher;
+import org.bouncycastle.crypto.params.AEADParameters;
+import org.bouncycastle.crypto.params.KeyParameter;
+
+/**
+ * Decrypts a single VAU message (A_24628) read from the underlying stream. The header is checked
+ * like in {@link AbstractVauStateMachine#decryptVauMessage(byte[])} before the first byte of
+ * cleartext is returned, the ciphertext is then decrypted in chunks of {@link
+ * VauEncryptingOutputStream#CHUNK_SIZE} bytes.
+ *
+ * <p>Decryption always uses the BouncyCastle lightweight GCM, whatever {@link
+ * de.gematik.vau.lib.crypto.VauCryptoBackend} the state machine is configured with: a JCA AES/GCM
+ * such as the JDK's holds back the complete message until the tag is verified, which would need a
+ * buffer of the size of the message. The lightweight GCM only holds back the tag, so the memory
+ * needed does not depend on the size of the message. Cleartext returned before the end of the
+ * stream is therefore not authenticated yet: a manipulated message is only detected when the end of
+ * the stream is reached, where a {@link VauDecryptionException} is thrown. Callers must read to the
+ * end before acting on the content.
+ *
+ * <p>Obtained from {@link AbstractVauStateMachine#decryptingStream(InputStream)}.
+ */
+public final class VauDecryptingInputStream extends FilterInputStream {
+
+  private static final int CHUNK_SIZE = VauEncryptingOutputStream.CHUNK_SIZE;
+
+  private final AbstractVauStateMachine stateMachine;
+  private final KeyParameter key;
+  private final GCMModeCipher cipher = GCMBlockCipher.newInstance(AESEngine.newInstance());
+  private final byte[] chunk = new byte[CHUNK_SIZE];
+  // a chunk plus what the cipher holds back: the tag and less than a block
+  private final byte[] cleartext = new byte[CHUNK_SIZE + 2 * VauKeySchedule.TAG_LENGTH];
+  private final byte[] single = new byte[1];
+  private int position;
+  private int limit;
+  private long decrypted;
+  private long requestCounter;
+  private boolean started;
+  private boolean finished;
+
+  VauDecryptingInputStream(InputStream in, AbstractVauStateMachine stateMachine, byte[] key) {
+    super(in);
+    this.stateMachine = stateMachine;
+    this.key = new KeyParameter(key);
+  }
+
+  @Override
+  public int read() throws IOException {
+    return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    Objects.checkFromIndexSize(off, len, b.length);
+    if (len == 0) {
+      return 0;
+    }
+    while (position == limit) {
+      if (finished) {
+        return -1;
+      }
+      fill();
+    }
+    int n = Math.min(len, limit - position);
+    System.arraycopy(cleartext, position, b, off, n);
+    position += n;
+    return n;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    long skipped = 0;
+    while (skipped < n && read() != -1) {
+      skipped++;
+    }
+    return skipped;
+  }
+
+  @Override
+  public int available() {
+    return limit - position;
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+
+  @Override
+  public synchronized void mark(int readlimit) {
+    // not supported
+  }
+
+  @Override
+  public synchronized void reset() throws IOException {
+    throw new IOException("mark/reset not supported");
+  }
+
+  private void fill() throws IOException {
+    if (!started) {
+      start();
+    }
+    position = 0;
+    int read = in.read(chunk, 0, CHUNK_SIZE);
+    try {
+      if (read == -1) {
+        finished = true;
+        limit = cipher.doFinal(cleartext, 0);
+        stateMachine.authenticated(requestCounter);
+        VauMetrics.recordDecrypted(decrypted + limit);
+      } else {
+        limit = cipher.processBytes(chunk, 0, read, cleartext, 0);
+        decrypted += limit;
+      }
+    } catch (InvalidCipherTextException e) {
+      VauMetrics.recordDecryptFailure(DecryptFailure.AUTHENTICATION);
+      throw new VauDecryptionException(
+          "Exception thrown whilst trying to decrypt VAU message: " + e.getMessage(), e);
+    }
+  }
+
+  private void start() throws IOException {
+    started = true;
+    var prefix = in.readNBytes(VauKeySchedule.PREFIX_LENGTH);
+    if (prefix.length < VauKeySchedule.PREFIX_LENGTH) {
+      VauMetrics.recordDecryptFailure(DecryptFailure.MALFORMED);
+      throw new IllegalArgumentException(
+          "Invalid ciphertext length. Needs to be at least "
+              + VauKeySchedule.PREFIX_LENGTH
+              + " bytes, but we received "
+              + prefix.length
+              + " bytes!");
+    }
+    var header = Arrays.copyOf(prefix, VauKeySchedule.HEADER_LENGTH);
+    stateMachine.checkHeader(header);
+    requestCounter = ByteBuffer.wrap(header).getLong(VauKeySchedule.COUNTER_OFFSET);
+    var iv = Arrays.copyOfRange(prefix, VauKeySchedule.HEADER_LENGTH, VauKeySchedule.PREFIX_LENGTH);
+    cipher.init(false, new AEADParameters(key, VauKeySchedule.TAG_LENGTH * Byte.SIZE, iv, header));
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2024 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.vau.lib;
+
+import de.gematik.vau.lib.exceptions.VauEncryptionException;
+import de.gematik.vau.lib.metrics.VauMetrics;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.util.Objects;
+import javax.crypto.Cipher;
+
+/**
+ * Encrypts everything written to it as a single VAU message (A_24628) and writes header || iv ||
+ * ciphertext || tag to the underlying stream. The cleartext is fed to the cipher in chunks of
+ * {@link #CHUNK_SIZE} bytes, so the memory needed does not depend on the size of the message. The
+ * message is complete once {@link #finish()} or {@link #close()} has been called.
+ *
+ * <p>Obtained from {@link AbstractVauStateMachine#encryptingStream(OutputStream)}. While the stream
+ * is open no other message may be encrypted by the same state machine.
+ */
+public final class VauEncryptingOutputStream extends FilterOutputStream {
+
+  static final int CHUNK_SIZE = 8 * 1024;
+
+  private final Cipher cipher;
+  private final byte[] prefix = new byte[VauKeySchedule.PREFIX_LENGTH];
+  private final byte[] buffer;
+  private final byte[] single = new byte[1];
+  private long written;
+  private boolean prefixWritten;
+  private boolean finished;
+
+  VauEncryptingOutputStream(OutputStream out, VauKeySchedule keySchedule, long requestCounter) {
+    super(out);
+    try {
+      this.cipher = keySchedule.beginEncryption(requestCounter, prefix);
+    } catch (GeneralSecurityException e) {
+      throw new VauEncryptionException("failed to encrypt message", e);
+    }
+    this.buffer = new byte[cipher.getOutputSize(CHUNK_SIZE)];
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    single[0] = (byte) b;
+    write(single, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    Objects.checkFromIndexSize(off, len, b.length);
+    if (finished) {
+      throw new IOException("VAU message already finished");
+    }
+    writePrefix();
+    try {
+      while (len > 0) {
+        int chunk = Math.min(len, CHUNK_SIZE);
+        out.write(buffer, 0, cipher.update(b, off, chunk, buffer));
+        written += chunk;
+        off += chunk;
+        len -= chunk;
+      }
+    } catch (GeneralSecurityException e) {
+      throw new VauEncryptionException("failed to encrypt message", e);
+    }
+  }
+
+  /**
+   * Completes the message by writing the remaining ciphertext and the authentication tag, without
+   * closing the underlying stream.
+   */
+  public void finish() throws IOException {
+    if (finished) {
+      return;
+    }
+    finished = true;
+    writePrefix();
+    try {
+      out.write(buffer, 0, cipher.doFinal(buffer, 0));
+    } catch (GeneralSecurityException e) {
+      throw new VauEncryptionException("failed to encrypt message", e);
+    }
+    VauMetrics.recordEncrypted(written);
+  }
+
+  @Override
+  public void close() throws IOException {
+    try (var ignored = out) {
+      finish();
+    }
+  }
+
+  private void writePrefix() throws IOException {
+    if (!prefixWritten) {
+      prefixWritten = true;
+      out.write(prefix);
+    }
+  }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2024 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.vau.lib;
+
+import de.gematik.vau.lib.crypto.VauCryptoBackend;
+import de.gematik.vau.lib.crypto.VauRandomSources;
+import de.gematik.vau.lib.data.EncryptedVauMessage;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.GeneralSecurityException;
+import javax.crypto.Cipher;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Prepared key material for one direction of the A_24628 record layer of a session. The AES key,
+ * the cipher instance and - for encryption - the 43 byte header are set up once, so encrypting or
+ * decrypting a message only does the per-message work. For encryption only the counter bytes of the
+ * header and the IV are patched per message. Instances are not thread-safe, just like the state
+ * machines owning them; {@link VauSession} prepares one per message on a cipher cached per thread.
+ */
+final class VauKeySchedule {
+
+  static final int HEADER_LENGTH = 1 + 1 + 1 + 8 + 32; // A_24628
+  static final int IV_LENGTH = 12; // A_24628
+  static final int TAG_LENGTH = 16; // A_24628
+  static final int COUNTER_OFFSET = 3;
+  static final int PREFIX_LENGTH = HEADER_LENGTH + IV_LENGTH;
+  static final int KEY_ID_OFFSET = 11;
+  static final int KEY_ID_LENGTH = 32;
+
+  private static final int RANDOM_IV_LENGTH = 4;
+  private static final byte VERSION_BYTE = 2;
+  private static final byte PU_BYTE = 0;
+
+  private static final VarHandle LONG_BIG_ENDIAN =
+      MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+  private final SecretKeySpec key;
+  private final Cipher cipher;
+  private final byte[] header;
+  private final byte[] iv = new byte[IV_LENGTH];
+
+  private VauKeySchedule(VauCryptoBackend backend, byte[] appDataKey, byte[] header)
+      throws GeneralSecurityException {
+    this(backend.aesGcm(), new SecretKeySpec(appDataKey, "AES"), header);
+  }
+
+  private VauKeySchedule(Cipher cipher, SecretKeySpec key, byte[] header) {
+    this.key = key;
+    this.cipher = cipher;
+    this.header = header;
+  }
+
+  /**
+   * Prepares the encrypting direction of a session.
+   *
+   * @param backend provides the cipher
+   * @param appDataKey the K2_*_app_data key of the sending side
+   * @param requestByte 1 for requests from the client, 2 for responses of the server
+   * @param keyId the KeyID of the session
+   */
+  static VauKeySchedule forEncryption(
+      VauCryptoBackend backend, byte[] appDataKey, byte requestByte, byte[] keyId)
+      throws GeneralSecurityException {
+    var header = new byte[HEADER_LENGTH];
+    header[0] = VERSION_BYTE;
+    header[1] = PU_BYTE;
+    header[2] = requestByte;
+    System.arraycopy(keyId, 0, header, KEY_ID_OFFSET, keyId.length);
+    return new VauKeySchedule(backend, appDataKey, header);
+  }
+
+  /**
+   * Prepares the encrypting direction of a session on a cipher of the caller, e.g. one cached per
+   * thread, for a single message.
+   *
+   * @param cipher an AES-GCM cipher
+   * @param key the K2_*_app_data key of the sending side
+   * @param requestByte 1 for requests from the client, 2 for responses of the server
+   * @param keyId array holding the KeyID of the session
+   * @param keyIdOffset start of the KeyID in the array
+   */
+  static VauKeySchedule forEncryption(
+      Cipher cipher, SecretKeySpec key, byte requestByte, byte[] keyId, int keyIdOffset) {
+    var header = new byte[HEADER_LENGTH];
+    header[0] = VERSION_BYTE;
+    header[1] = PU_BYTE;
+    header[2] = requestByte;
+    System.arraycopy(keyId, keyIdOffset, header, KEY_ID_OFFSET, KEY_ID_LENGTH);
+    return new VauKeySchedule(cipher, key, header);
+  }
+
+  /**
+   * Prepares the decrypting direction of a session on a cipher of the caller, for a single message.
+   *
+   * @param cipher an AES-GCM cipher
+   * @param key the K2_*_app_data key of the remote side
+   */
+  static VauKeySchedule forDecryption(Cipher cipher, SecretKeySpec key) {
+    return new VauKeySchedule(cipher, key, null);
+  }
+
+  /**
+   * Prepares the decrypting direction of a session.
+   *
+   * @param backend provides the cipher
+   * @param appDataKey the K2_*_app_data key of the remote side
+   */
+  static VauKeySchedule forDecryption(VauCryptoBackend backend, byte[] appDataKey)
+      throws GeneralSecurityException {
+    return new VauKeySchedule(backend, appDataKey, null);
+  }
+
+  /**
+   * Encrypts a message as header || iv || ciphertext || tag, see A_24628.
+   *
+   * @param requestCounter the counter to patch into the header and the IV
+   * @param cleartext the array holding the cleartext
+   * @param offset start of the cleartext in the array
+   * @param length length of the cleartext
+   * @return the complete encrypted VAU message
+   */
+  byte[] encrypt(long requestCounter, byte[] cleartext, int offset, int length)
+      throws GeneralSecurityException {
+    var out = new byte[encryptedLength(length)];
+    initEncryption(requestCounter);
+    System.arraycopy(header, 0, out, 0, HEADER_LENGTH);
+    System.arraycopy(iv, 0, out, HEADER_LENGTH, IV_LENGTH);
+    cipher.doFinal(cleartext, offset, length, out, HEADER_LENGTH + IV_LENGTH);
+    return out;
+  }
+
+  /**
+   * Encrypts the remaining bytes of {@code src} and writes header || iv || ciphertext || tag to
+   * {@code dst}, see A_24628. Both buffers may be direct.
+   *
+   * @param requestCounter the counter to patch into the header and the IV
+   * @param src the cleartext, consumed completely
+   * @param dst the destination, needs {@link #encryptedLength(int)} bytes remaining
+   * @return the number of bytes written to {@code dst}
+   */
+  int encrypt(long requestCounter, ByteBuffer src, ByteBuffer dst) throws GeneralSecurityException {
+    var length = encryptedLength(src.remaining());
+    if (dst.remaining() < length) {
+      throw new ShortBufferException(
+          "destination too small, need %d bytes but only %d remaining"
+              .formatted(length, dst.remaining()));
+    }
+    initEncryption(requestCounter);
+    dst.put(header).put(iv);
+    cipher.doFinal(src, dst);
+    return length;
+  }
+
+  /**
+   * Starts an encryption whose cleartext is fed incrementally, the returned cipher is initialised
+   * and ready for {@code update} calls. The message is only valid once {@code doFinal} appended the
+   * tag, no other message may be encrypted with this schedule before.
+   *
+   * @param requestCounter the counter to patch into the header and the IV
+   * @param prefix receives header || iv, needs {@link #PREFIX_LENGTH} bytes
+   * @return the initialised cipher
+   */
+  Cipher beginEncryption(long requestCounter, byte[] prefix) throws GeneralSecurityException {
+    initEncryption(requestCounter);
+    System.arraycopy(header, 0, prefix, 0, HEADER_LENGTH);
+    System.arraycopy(iv, 0, prefix, HEADER_LENGTH, IV_LENGTH);
+    return cipher;
+  }
+
+  /**
+   * Decrypts and authenticates the ciphertext of a message.
+   *
+   * @param message the message to decrypt, its header has been checked already
+   * @param dst the destination for the cleartext, needs the length of the ciphertext minus the tag
+   * @return the number of bytes written to {@code dst}
+   */
+  int decrypt(EncryptedVauMessage message, ByteBuffer dst) throws GeneralSecurityException {
+    var iv = message.iv();
+    var spec =
+        iv.hasArray()
+            ? new GCMParameterSpec(TAG_LENGTH * Byte.SIZE, iv.array(), iv.arrayOffset(), IV_LENGTH)
+            : new GCMParameterSpec(TAG_LENGTH * Byte.SIZE, message.getIv());
+    cipher.init(Cipher.DECRYPT_MODE, key, spec);
+    cipher.updateAAD(message.header());
+    return cipher.doFinal(message.ciphertext(), dst);
+  }
+
+  static int encryptedLength(int cleartextLength) {
+    return HEADER_LENGTH + IV_LENGTH + cleartextLength + TAG_LENGTH;
+  }
+
+  static int decryptedLength(int messageLength) {
+    return Math.max(0, messageLength - HEADER_LENGTH - IV_LENGTH - TAG_LENGTH);
+  }
+
+  private void initEncryption(long requestCounter) throws GeneralSecurityException {
+    LONG_BIG_ENDIAN.set(header, COUNTER_OFFSET, requestCounter);
+    VauRandomSources.get().nextNonce(iv);
+    LONG_BIG_ENDIAN.set(iv, RANDOM_IV_LENGTH, requestCounter);
+
+    cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * Byte.SIZE, iv));
+    cipher.updateAAD(header);
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2024 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.vau.lib;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Lock-free sliding window of the request counters a server session has received, the anti-replay
+ * window of IPsec (RFC 4303, section 3.4.3) applied to the counters of A_24628. Counters may arrive
+ * out of order as long as they are within {@code size} of the highest counter seen, every counter
+ * is accepted at most once.
+ *
+ * <p>The bitmap is a ring of 64 bit slots, each holding the index of a block of 32 consecutive
+ * counters in the upper and the bits of the block in the lower half, so checking and marking a
+ * counter is a single compare-and-set. This limits the counters to {@link #MAX_REQUEST_COUNTER},
+ * far more requests than a session will ever carry.
+ *
+ * <p>As with IPsec, a counter should only be {@link #accept(long) accepted} once the message
+ * carrying it has been authenticated, otherwise forged headers could move the window. Use {@link
+ * #isFresh(long)} to reject replays before spending the decryption.
+ */
+public final class VauReplayWindow {
+
+  /** Default number of counters below the highest one which are still accepted. */
+  public static final int DEFAULT_SIZE = 1024;
+
+  /** Highest counter the window can track. */
+  public static final long MAX_REQUEST_COUNTER = (1L << 37) - 1;
+
+  private static final int MAX_SIZE = 1 << 24;
+  private static final int BLOCK_SHIFT = 5;
+  private static final int BLOCK_MASK = (1 << BLOCK_SHIFT) - 1;
+
+  private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(long[].class);
+  private static final VarHandle HIGHEST;
+
+  static {
+    try {
+      HIGHEST = MethodHandles.lookup().findVarHandle(VauReplayWindow.class, "highest", long.class);
+    } catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  private final int size;
+  private final long[] slots;
+
+  @SuppressWarnings("unused") // accessed through HIGHEST
+  private volatile long highest;
+
+  public VauReplayWindow() {
+    this(DEFAULT_SIZE);
+  }
+
+  /**
+   * @param size number of counters below the highest one which are still accepted
+   */
+  public VauReplayWindow(int size) {
+    if (size <= 0 || size > MAX_SIZE) {
+      throw new IllegalArgumentException(
+          "window size must be between 1 and %d, got %d".formatted(MAX_SIZE, size));
+    }
+    this.size = size;
+    // at least one spare slot, so a new block never evicts a block still inside the window
+    var blocks = (size + BLOCK_MASK) >>> BLOCK_SHIFT;
+    var slotCount = 1 << (Integer.SIZE - Integer.numberOfLeadingZeros(blocks));
+    this.slots = new long[slotCount];
+  }
+
+  /**
+   * @return number of counters below the highest one which are still accepted
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return the highest counter accepted so far, 0 if none
+   */
+  public long highest() {
+    return (long) HIGHEST.getVolatile(this);
+  }
+
+  /**
+   * Checks a counter without marking it, e.g. before decrypting the message carrying it.
+   *
+   * @param requestCounter the counter of a received message
+   * @return whether the counter has not been accepted yet and is inside the window
+   */
+  public boolean isFresh(long requestCounter) {
+    if (!inWindow(requestCounter)) {
+      return false;
+    }
+    var block = requestCounter >>> BLOCK_SHIFT;
+    var slot = (long) SLOTS.getVolatile(slots, slot(block));
+    var tag = slot >>> Integer.SIZE;
+    return tag < block || (tag == block && (slot & bit(requestCounter)) == 0);
+  }
+
+  /**
+   * Marks a counter as received.
+   *
+   * @param requestCounter the counter of an authenticated message
+   * @return {@code true} if the counter was accepted, {@code false} if it is a replay or outside
+   *     the window
+   */
+  public boolean accept(long requestCounter) {
+    if (!inWindow(requestCounter)) {
+      return false;
+    }
+    var block = requestCounter >>> BLOCK_SHIFT;
+    var index = slot(block);
+    var bit = bit(requestCounter);
+    long current;
+    long updated;
+    do {
+      current = (long) SLOTS.getVolatile(slots, index);
+      var tag = current >>> Integer.SIZE;
+      if (tag > block) {
+        // the slot moved on to a newer block, so the counter is below the window
+        return false;
+      } else if (tag == block) {
+        if ((current & bit) != 0) {
+          return false;
+        }
+        updated = current | bit;
+      } else {
+        updated = (block << Integer.SIZE) | bit;
+      }
+    } while (!SLOTS.compareAndSet(slots, index, current, updated));
+    long seen;
+    do {
+      seen = highest();
+    } while (seen < requestCounter && !HIGHEST.compareAndSet(this, seen, requestCounter));
+    return true;
+  }
+
+  private boolean inWindow(long requestCounter) {
+    return requestCounter >= 0
+        && requestCounter <= MAX_REQUEST_COUNTER
+        && requestCounter > highest() - size;
+  }
+
+  private int slot(long block) {
+    return (int) block & (slots.length - 1);
+  }
+
+  private static long bit(long requestCounter) {
+    return 1L << (requestCounter & BLOCK_MASK);
+  }
+}
@@ -0,0 +1,432 @@
+/*
+ * Copyright 2024 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.vau.lib;
+
+import de.gematik.vau.lib.crypto.VauCryptoBackend;
+import de.gematik.vau.lib.crypto.VauCryptoBackends;
+import de.gematik.vau.lib.crypto.VauRandomSources;
+import de.gematik.vau.lib.exceptions.VauProtocolException;
+import de.gematik.vau.lib.exceptions.VauServerException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The server side of the VAU protocol for many clients, independent of the HTTP transport in front
+ * of it. Handshakes run on a worker pool: message 1 starts a handshake under a newly allocated
+ * VAU-CID (A_24608), message 3 sent to that CID completes it. The established session is then
+ * compacted into a {@link VauSessionStore}, where application messages find it by the KeyID in
+ * their header.
+ *
+ * <p>There is no global lock: pending handshakes live in a concurrent map and message 3 claims its
+ * handshake by removing it, sessions are only locked within their store segment. Both the pending
+ * handshakes and the sessions are bounded, handshakes not completed within the handshake timeout
+ * and sessions idle for longer than the idle timeout are evicted periodically.
+ *
+ * <pre>{@code
+ * try (var server = VauServer.builder().keyMaterial(keyMaterial).build()) {
+ *   var message2 = server.receiveMessage1(body).join();      // POST /VAU
+ *   var message4 = server.receiveMessage3(cid, body).join(); // POST {VAU-CID}, application/cbor
+ *   var request = server.decrypt(body);                      // POST {VAU-CID}, octet-stream
+ *   var response = request.session().encrypt(request.requestCounter(), responseBody);
+ * }
+ * }</pre>
+ */
+public final class VauServer implements AutoCloseable {
+
+  private static final Logger log = LoggerFactory.getLogger(VauServer.class);
+
+  // https://gemspec.gematik.de/docs/gemSpec/gemSpec_Krypt/latest/#A_24608
+  private static final int CID_MAX_LENGTH = 200;
+  private static final Pattern CID_PREFIX_PATTERN = Pattern.compile("/[A-Za-z0-9-/]*");
+  private static final int CID_RANDOM_BYTES = 20;
+  private static final int CID_RANDOM_LENGTH = (CID_RANDOM_BYTES * 8 + 4) / 5;
+
+  private final VauServerKeyMaterial keyMaterial;
+  private final boolean isPu;
+  private final VauCryptoBackend cryptoBackend;
+  private final String cidPrefix;
+  private final int maxSessions;
+  private final int maxPendingHandshakes;
+  private final int replayWindowSize;
+  private final long handshakeTimeoutMillis;
+  private final Clock clock;
+  private final Executor executor;
+  private final ExecutorService ownedExecutor;
+  private final ScheduledExecutorService evictionScheduler;
+
+  private final Map<String, PendingHandshake> pending = new ConcurrentHashMap<>();
+  private final AtomicInteger pendingCount = new AtomicInteger();
+  private final VauSessionStore sessions;
+
+  private VauServer(Builder builder) {
+    this.keyMaterial = builder.keyMaterial;
+    this.isPu = builder.isPu;
+    this.cryptoBackend =
+        builder.cryptoBackend != null ? builder.cryptoBackend : VauCryptoBackends.defaultBackend();
+    this.cidPrefix = builder.cidPrefix;
+    this.maxSessions = builder.maxSessions;
+    this.maxPendingHandshakes = builder.maxPendingHandshakes;
+    this.replayWindowSize = builder.replayWindowSize;
+    this.handshakeTimeoutMillis = builder.handshakeTimeout.toMillis();
+    this.clock = builder.clock;
+    this.sessions =
+        new VauSessionStore(
+            maxSessions, builder.idleTimeout, isPu, clock, cryptoBackend, replayWindowSize);
+
+    if (builder.executor == null) {
+      var threadNumber = new AtomicInteger();
+      this.ownedExecutor =
+          Executors.newFixedThreadPool(
+              Runtime.getRuntime().availableProcessors(),
+              r -> {
+                var thread = new Thread(r, "vau-handshake-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+              });
+      this.executor = ownedExecutor;
+    } else {
+      this.ownedExecutor = null;
+      this.executor = builder.executor;
+    }
+
+    if (builder.evictionInterval != null) {
+      this.evictionScheduler =
+          Executors.newSingleThreadScheduledExecutor(
+              r -> {
+                var thread = new Thread(r, "vau-session-eviction");
+                thread.setDaemon(true);
+                return thread;
+              });
+      var interval = builder.evictionInterval.toMillis();
+      evictionScheduler.scheduleWithFixedDelay(
+          this::evictExpiredQuietly, interval, interval, TimeUnit.MILLISECONDS);
+    } else {
+      this.evictionScheduler = null;
+    }
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Starts a handshake on the worker pool.
+   *
+   * @param message1 the CBOR encoded message 1
+   * @return the VAU-CID allocated for the session and the CBOR encoded message 2; fails with a
+   *     {@link VauServerException} if too many handshakes are pending or the worker pool rejects
+   *     the handshake
+   */
+  public CompletableFuture<Message2> receiveMessage1(byte[] message1) {
+    if (pendingCount.incrementAndGet() > maxPendingHandshakes) {
+      pendingCount.decrementAndGet();
+      return CompletableFuture.failedFuture(new VauServerException("too many pending handshakes"));
+    }
+    return supplyAsync(
+            () -> {
+              var stateMachine =
+                  new VauServerStateMachine(keyMaterial, isPu, cryptoBackend, replayWindowSize);
+              var message2 = stateMachine.receiveMessage(message1);
+              var handshake =
+                  new PendingHandshake(stateMachine, clock.millis() + handshakeTimeoutMillis);
+              String cid;
+              do {
+                cid = allocateCid();
+              } while (pending.putIfAbsent(cid, handshake) != null);
+              return new Message2(cid, message2);
+            })
+        .whenComplete(
+            (message2, e) -> {
+              if (e != null) {
+                pendingCount.decrementAndGet();
+              }
+            });
+  }
+
+  /**
+   * Completes a handshake on the worker pool, the session is available for application messages
+   * once the returned future completed.
+   *
+   * @param cid the VAU-CID message 3 was sent to
+   * @param message3 the CBOR encoded message 3
+   * @return the CBOR encoded message 4; fails with a {@link VauProtocolException} if there is no
+   *     pending handshake for the CID, or with a {@link VauServerException} if the maximum number
+   *     of sessions is reached or the worker pool rejects the handshake, which then stays pending
+   */
+  public CompletableFuture<byte[]> receiveMessage3(String cid, byte[] message3) {
+    var handshake = pending.remove(cid);
+    if (handshake == null) {
+      return CompletableFuture.failedFuture(
+          new VauProtocolException("no pending handshake for VAU-CID " + cid));
+    }
+    pendingCount.decrementAndGet();
+    if (handshake.expiresAt() <= clock.millis()) {
+      return CompletableFuture.failedFuture(
+          new VauProtocolException("handshake for VAU-CID " + cid + " timed out"));
+    }
+    return supplyAsync(
+        () -> {
+          var stateMachine = handshake.stateMachine();
+          var message4 = stateMachine.receiveMessage(message3);
+          if (!stateMachine.isHandshakeCompleted()) {
+            throw new VauProtocolException("expected message 3 for VAU-CID " + cid);
+          }
+          if (sessions.size() >= maxSessions && sessions.evictExpired() == 0) {
+            throw new VauServerException("maximum number of sessions reached");
+          }
+          try {
+            sessions.put(stateMachine.compact());
+          } catch (IllegalStateException e) {
+            throw new VauServerException("maximum number of sessions reached", e);
+          }
+          return message4;
+        },
+        () -> {
+          // the task never ran, hand the handshake back so message 3 can be sent again
+          if (pending.putIfAbsent(cid, handshake) == null) {
+            pendingCount.incrementAndGet();
+          }
+        });
+  }
+
+  /**
+   * Decrypts an application message, see {@link VauSessionStore#decrypt(byte[])}.
+   *
+   * @param message the encrypted request
+   * @return the session, to encrypt the response with, the request counter and the plaintext
+   */
+  public VauSessionStore.Request decrypt(byte[] message) {
+    return sessions.decrypt(message);
+  }
+
+  /**
+   * @return number of started but not yet completed handshakes
+   */
+  public int pendingHandshakes() {
+    return pendingCount.get();
+  }
+
+  /**
+   * @return number of established sessions, including expired ones not evicted yet
+   */
+  public int sessions() {
+    return sessions.size();
+  }
+
+  /**
+   * Evicts timed out handshakes and idle sessions, runs periodically if an eviction interval is
+   * configured.
+   *
+   * @return number of evicted handshakes and sessions
+   */
+  public int evictExpired() {
+    var now = clock.millis();
+    int evicted = 0;
+    for (var entry : pending.entrySet()) {
+      if (entry.getValue().expiresAt() <= now && pending.remove(entry.getKey(), entry.getValue())) {
+        pendingCount.decrementAndGet();
+        evicted++;
+      }
+    }
+    return evicted + sessions.evictExpired();
+  }
+
+  @Override
+  public void close() {
+    if (evictionScheduler != null) {
+      evictionScheduler.shutdownNow();
+    }
+    if (ownedExecutor != null) {
+      ownedExecutor.shutdownNow();
+    }
+  }
+
+  private void evictExpiredQuietly() {
+    try {
+      var evicted = evictExpired();
+      if (evicted > 0) {
+        log.debug("evicted {} expired handshakes and sessions", evicted);
+      }
+    } catch (RuntimeException e) {
+      log.warn("failed to evict expired handshakes and sessions", e);
+    }
+  }
+
+  private <T> CompletableFuture<T> supplyAsync(Supplier<T> supplier) {
+    return supplyAsync(supplier, () -> {});
+  }
+
+  private <T> CompletableFuture<T> supplyAsync(Supplier<T> supplier, Runnable onRejected) {
+    try {
+      return CompletableFuture.supplyAsync(supplier, executor);
+    } catch (RejectedExecutionException e) {
+      onRejected.run();
+      return CompletableFuture.failedFuture(
+          new VauServerException("handshake rejected by the worker pool", e));
+    }
+  }
+
+  private String allocateCid() {
+    var random = new byte[CID_RANDOM_BYTES];
+    VauRandomSources.get().secureRandom().nextBytes(random);
+    return cidPrefix + VauSessionTickets.Base32.encode(random);
+  }
+
+  private record PendingHandshake(VauServerStateMachine stateMachine, long expiresAt) {}
+
+  /**
+   * The response to message 1.
+   *
+   * @param cid the VAU-CID of the session, to be returned in the VAU-CID header
+   * @param message2 the CBOR encoded message 2
+   */
+  public record Message2(String cid, byte[] message2) {}
+
+  public static final class Builder {
+
+    private VauServerKeyMaterial keyMaterial;
+    private boolean isPu;
+    private VauCryptoBackend cryptoBackend;
+    private String cidPrefix = "/VAU/";
+    private int maxSessions = 10_000;
+    private int maxPendingHandshakes = 1_000;
+    private int replayWindowSize = VauReplayWindow.DEFAULT_SIZE;
+    private Duration handshakeTimeout = Duration.ofSeconds(30);
+    private Duration idleTimeout = Duration.ofMinutes(30);
+    private Duration evictionInterval = Duration.ofSeconds(30);
+    private Executor executor;
+    private Clock clock = Clock.systemUTC();
+
+    private Builder() {}
+
+    /** The keys of the VAU instance, required. */
+    public Builder keyMaterial(VauServerKeyMaterial keyMaterial) {
+      this.keyMaterial = keyMaterial;
+      return this;
+    }
+
+    /** Whether this is a production environment, defaults to {@code false}. */
+    public Builder pu(boolean isPu) {
+      this.isPu = isPu;
+      return this;
+    }
+
+    /** Defaults to {@link VauCryptoBackends#defaultBackend()}. */
+    public Builder cryptoBackend(VauCryptoBackend cryptoBackend) {
+      this.cryptoBackend = cryptoBackend;
+      return this;
+    }
+
+    /** Path every allocated VAU-CID starts with, defaults to {@code /VAU/}. */
+    public Builder cidPrefix(String cidPrefix) {
+      this.cidPrefix = cidPrefix;
+      return this;
+    }
+
+    /** Maximum number of established sessions, defaults to 10 000. */
+    public Builder maxSessions(int maxSessions) {
+      this.maxSessions = maxSessions;
+      return this;
+    }
+
+    /** Maximum number of handshakes between message 1 and 3, defaults to 1 000. */
+    public Builder maxPendingHandshakes(int maxPendingHandshakes) {
+      this.maxPendingHandshakes = maxPendingHandshakes;
+      return this;
+    }
+
+    /**
+     * How far below the highest request counter of a session requests may still arrive, see {@link
+     * VauReplayWindow}; defaults to {@link VauReplayWindow#DEFAULT_SIZE}. Every established session
+     * keeps 8 bytes off-heap per 64 counters.
+     */
+    public Builder replayWindowSize(int replayWindowSize) {
+      this.replayWindowSize = replayWindowSize;
+      return this;
+    }
+
+    /** Time between message 1 and 3 of a handshake, defaults to 30 seconds. */
+    public Builder handshakeTimeout(Duration handshakeTimeout) {
+      this.handshakeTimeout = handshakeTimeout;
+      return this;
+    }
+
+    /** Sessions not used for this long are evicted, defaults to 30 minutes. */
+    public Builder idleTimeout(Duration idleTimeout) {
+      this.idleTimeout = idleTimeout;
+      return this;
+    }
+
+    /**
+     * Interval of the background eviction, defaults to 30 seconds; {@code null} disables it, {@link
+     * VauServer#evictExpired()} then has to be called by the application.
+     */
+    public Builder evictionInterval(Duration evictionInterval) {
+      this.evictionInterval = evictionInterval;
+      return this;
+    }
+
+    /**
+     * Runs the handshakes, defaults to a pool of daemon threads, one per processor, which is shut
+     * down with the server.
+     */
+    public Builder executor(Executor executor) {
+      this.executor = executor;
+      return this;
+    }
+
+    public Builder clock(Clock clock) {
+      this.clock = clock;
+      return this;
+    }
+
+    public VauServer build() {
+      if (keyMaterial == null) {
+        throw new IllegalArgumentException("key material missing");
+      }
+      if (cidPrefix == null
+          || !CID_PREFIX_PATTERN.matcher(cidPrefix).matches()
+          || cidPrefix.length() + CID_RANDOM_LENGTH > CID_MAX_LENGTH) {
+        throw new IllegalArgumentException("invalid VAU-CID prefix " + cidPrefix);
+      }
+      if (maxSessions <= 0 || maxPendingHandshakes <= 0) {
+        throw new IllegalArgumentException("session limits must be positive");
+      }
+      if (replayWindowSize <= 0) {
+        throw new IllegalArgumentException("replay window size must be positive");
+      }
+      if (handshakeTimeout.isNegative() || handshakeTimeout.isZero()) {
+        throw new IllegalArgumentException("handshake timeout must be positive");
+      }
+      return new VauServer(this);
+    }
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2024 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.vau.lib;
+
+import de.gematik.vau.lib.data.EccKyberKeyPair;
+import de.gematik.vau.lib.data.SignedPublicVauKeys;
+import de.gematik.vau.lib.data.VauPublicKeys;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+/**
+ * Immutable snapshot of the keys of a VAU instance. The signed public keys are parsed, validated
+ * and CBOR encoded once and the private keys are prepared, so a handshake only has to do the
+ * ephemeral crypto. One snapshot is meant to be shared by all {@link VauServerStateMachine}s until
+ * the keys are rotated.
+ */
+@Getter
+public final class VauServerKeyMaterial {
+
+  private static final int EXPIRATION_DAYS = 30;
+
+  private final SignedPublicVauKeys signedPublicVauKeys;
+  private final EccKyberKeyPair serverVauKeys;
+  private final VauPublicKeys vauPublicKeys;
+  private final int iat;
+  private final int exp;
+
+  @Getter(AccessLevel.NONE)
+  private final byte[] signedPublicVauKeysEncoded;
+
+  private VauServerKeyMaterial(SignedPublicVauKeys signedPublicVauKeys, EccKyberKeyPair keys) {
+    this.vauPublicKeys = signedPublicVauKeys.extractVauKeys();
+    this.iat = vauPublicKeys.iat();
+    this.exp = vauPublicKeys.exp();
+    if ((long) exp - iat > EXPIRATION_DAYS * 60 * 60 * 24) {
+      throw new IllegalArgumentException(
+          "Dates of initialization and expiration of server keys can be only up to 30 days apart.");
+    }
+    this.signedPublicVauKeys = signedPublicVauKeys;
+    this.serverVauKeys = keys;
+    this.signedPublicVauKeysEncoded = AbstractVauStateMachine.writeCbor(signedPublicVauKeys);
+
+    // prepare the private keys once instead of in the first handshake
+    keys.eccPrivateKeyParameters();
+    keys.kyberPrivateKeyParameters();
+  }
+
+  /**
+   * @param signedPublicVauKeys the signed public keys sent to the clients
+   * @param serverVauKeys the corresponding private keys
+   * @return the snapshot
+   * @throws IllegalArgumentException if the keys are valid for more than 30 days
+   */
+  public static VauServerKeyMaterial of(
+      SignedPublicVauKeys signedPublicVauKeys, EccKyberKeyPair serverVauKeys) {
+    return new VauServerKeyMaterial(signedPublicVauKeys, serverVauKeys);
+  }
+
+  /**
+   * @return the CBOR encoded signed public keys, the inner payload of message 2
+   */
+  public byte[] getSignedPublicVauKeysEncoded() {
+    return signedPublicVauKeysEncoded.clone();
+  }
+
+  byte[] signedPublicVauKeysEncoded() {
+    return signedPublicVauKeysEncoded;
+  }
+}
@@ -17,13 +17,21 @@
 package de.gematik.vau.lib;
 
 import de.gematik.vau.lib.crypto.KEM;
+import de.gematik.vau.lib.crypto.VauCryptoBackend;
+import de.gematik.vau.lib.crypto.VauCryptoBackends;
 import de.gematik.vau.lib.data.*;
 import de.gematik.vau.lib.exceptions.VauProtocolException;
+import de.gematik.vau.lib.metrics.VauMetrics;
+import de.gematik.vau.lib.metrics.VauMetricsListener.HandshakeStep;
 import de.gematik.vau.lib.util.ArrayUtils;
 import de.gematik.vau.lib.util.DigestUtils;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import lombok.AccessLevel;
 import lombok.Getter;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.pqc.crypto.crystals.kyber.KyberPublicKeyParameters;
 import org.bouncycastle.util.encoders.Hex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,30 +45,65 @@ public class VauServerStateMachine extends AbstractVauStateMachine {
 
   private final Logger log = LoggerFactory.getLogger(this.getClass());
 
-  private final SignedPublicVauKeys signedPublicVauKeys;
-  private final EccKyberKeyPair serverVauKeys;
+  private final VauServerKeyMaterial keyMaterial;
   private byte[] c2s; // S_K1_c2s
   private byte[] s2c; // S_K1_s2c
   private KdfMessage kemResult1;
   private KdfMessage kemResult2;
-  private byte[] serverTranscript;
+
+  @Getter(AccessLevel.NONE)
+  private SHA256Digest serverTranscript;
+
   private KdfKey2 serverKey2;
   private long clientRequestCounter;
-  private static final int EXPIRATION_DAYS = 30;
 
+  @Getter(AccessLevel.NONE)
+  private final VauReplayWindow replayWindow;
+
+  /**
+   * @param keyMaterial the keys of the VAU instance, shared by all state machines
+   * @param isPu whether this is a production environment
+   */
+  public VauServerStateMachine(VauServerKeyMaterial keyMaterial, boolean isPu) {
+    this(keyMaterial, isPu, null);
+  }
+
+  /**
+   * @param keyMaterial the keys of the VAU instance, shared by all state machines
+   * @param isPu whether this is a production environment
+   * @param cryptoBackend the primitives for the handshake and the messages, {@link
+   *     VauCryptoBackends#defaultBackend()} if {@code null}
+   */
   public VauServerStateMachine(
-      SignedPublicVauKeys vauKeys, EccKyberKeyPair kyberKeys, boolean isPu) {
-    super(isPu);
+      VauServerKeyMaterial keyMaterial, boolean isPu, VauCryptoBackend cryptoBackend) {
+    this(keyMaterial, isPu, cryptoBackend, VauReplayWindow.DEFAULT_SIZE);
+  }
 
-    int iat = vauKeys.extractVauKeys().iat();
-    int exp = vauKeys.extractVauKeys().exp();
-    if (exp - iat > EXPIRATION_DAYS * 60 * 60 * 24) {
-      throw new IllegalArgumentException(
-          "Dates of initialization and expiration of server keys can be only up to 30 days apart.");
-    }
+  /**
+   * @param keyMaterial the keys of the VAU instance, shared by all state machines
+   * @param isPu whether this is a production environment
+   * @param cryptoBackend the primitives for the handshake and the messages, {@link
+   *     VauCryptoBackends#defaultBackend()} if {@code null}
+   * @param replayWindowSize how far below the highest request counter received so far requests may
+   *     still arrive, see {@link VauReplayWindow}
+   */
+  public VauServerStateMachine(
+      VauServerKeyMaterial keyMaterial,
+      boolean isPu,
+      VauCryptoBackend cryptoBackend,
+      int replayWindowSize) {
+    super(isPu, cryptoBackend);
+    this.keyMaterial = keyMaterial;
+    this.replayWindow = new VauReplayWindow(replayWindowSize);
+  }
+
+  public VauServerStateMachine(VauServerKeyMaterial keyMaterial) {
+    this(keyMaterial, false);
+  }
 
-    this.signedPublicVauKeys = vauKeys;
-    this.serverVauKeys = kyberKeys;
+  public VauServerStateMachine(
+      SignedPublicVauKeys vauKeys, EccKyberKeyPair kyberKeys, boolean isPu) {
+    this(VauServerKeyMaterial.of(vauKeys, kyberKeys), isPu);
   }
 
   public VauServerStateMachine(
@@ -75,14 +118,19 @@ public class VauServerStateMachine extends AbstractVauStateMachine {
    * @return CBOR decoded Message 2 or 4
    */
   public byte[] receiveMessage(byte[] encodedMessage) {
-    checkCertificateExpired(signedPublicVauKeys.extractVauKeys().exp());
+    checkCertificateExpired(keyMaterial.getExp());
 
+    long start = VauMetrics.start();
     try {
       Object message = decodeCborMessageToClass(encodedMessage);
       if (message instanceof VauMessage1 message1) {
-        return receiveMessage1(message1, encodedMessage);
+        var message2Encoded = receiveMessage1(message1, encodedMessage);
+        VauMetrics.recordStep(HandshakeStep.RECEIVE_MESSAGE_1, start);
+        return message2Encoded;
       } else if (message instanceof VauMessage3 message3) {
-        return receiveMessage3(message3, encodedMessage);
+        var message4Encoded = receiveMessage3(message3, encodedMessage);
+        VauMetrics.recordStep(HandshakeStep.RECEIVE_MESSAGE_3, start);
+        return message4Encoded;
       } else {
         throw new UnsupportedOperationException("Message type not supported");
       }
@@ -101,29 +149,29 @@ public class VauServerStateMachine extends AbstractVauStateMachine {
    * @return Message 2 with aead encrypted publicKey and the ciphertexts
    */
   private byte[] receiveMessage1(VauMessage1 vauMessage1, byte[] message1Encoded) {
-    serverTranscript = message1Encoded;
-    verifyClientMessageIsWellFormed(vauMessage1);
+    serverTranscript = new SHA256Digest();
+    serverTranscript.update(message1Encoded, 0, message1Encoded.length);
+    var kyberPublicKey = verifyClientMessageIsWellFormed(vauMessage1);
 
-    kemResult1 =
-        KEM.encapsulateMessage(
-            vauMessage1.ecdhPublicKey().toEcPublicKey(), vauMessage1.kyberPublicKey());
+    var backend = getCryptoBackend();
+    kemResult1 = KEM.encapsulateMessage(backend, vauMessage1.ecdhPublicKey(), kyberPublicKey);
     if (log.isTraceEnabled()) {
       log.trace("ecdh_shared_secret: (hexdump) {}", Hex.toHexString(kemResult1.ecdhSharedSecret()));
       log.trace(
           "Kyber768_shared_secret: (hexdump) {}", Hex.toHexString(kemResult1.kyberSharedSecret()));
     }
-    KdfKey1 kdfServerKey1 = KEM.kdf(kemResult1);
+    KdfKey1 kdfServerKey1 = KEM.kdfKey1(backend, kemResult1);
     c2s = kdfServerKey1.clientToServer();
     s2c = kdfServerKey1.serverToClient();
 
-    byte[] encodedSignedPublicVauKeys = encodeUsingCbor(signedPublicVauKeys);
     byte[] aeadCiphertextMessage2 =
-        KEM.encryptAead(kdfServerKey1.serverToClient(), encodedSignedPublicVauKeys);
+        KEM.encryptAead(
+            backend, kdfServerKey1.serverToClient(), keyMaterial.signedPublicVauKeysEncoded());
     VauMessage2 message2 =
         new VauMessage2(kemResult1.ecdhCt(), kemResult1.kyberCt(), aeadCiphertextMessage2);
     log.debug("Generated message1: {}", Hex.toHexString(message1Encoded));
     byte[] message2Encoded = encodeUsingCbor(message2);
-    serverTranscript = ArrayUtils.addAll(serverTranscript, message2Encoded);
+    serverTranscript.update(message2Encoded, 0, message2Encoded.length);
     return message2Encoded;
   }
 
@@ -140,10 +188,11 @@ public class VauServerStateMachine extends AbstractVauStateMachine {
    * @return CBOR decoded Message 4 containing the aead encrypted server hash
    */
   private byte[] receiveMessage3(VauMessage3 vauMessage3, byte[] message3Encoded) {
-    byte[] transcriptServerToCheck = ArrayUtils.addAll(serverTranscript, vauMessage3.getAeadCt());
-    serverTranscript = ArrayUtils.addAll(serverTranscript, message3Encoded);
+    byte[] clientVauHashCalculation = DigestUtils.sha256(serverTranscript, vauMessage3.getAeadCt());
+    serverTranscript.update(message3Encoded, 0, message3Encoded.length);
 
-    byte[] kemCertificatesEncoded = KEM.decryptAead(c2s, vauMessage3.getAeadCt());
+    var backend = getCryptoBackend();
+    byte[] kemCertificatesEncoded = KEM.decryptAead(backend, c2s, vauMessage3.getAeadCt());
 
     VauMessage3InnerLayer kemCertificates;
     try {
@@ -155,27 +204,52 @@ public class VauServerStateMachine extends AbstractVauStateMachine {
               + e.getMessage());
     }
 
-    kemResult2 = KEM.decapsulateMessages(kemCertificates, serverVauKeys);
-    serverKey2 = KEM.kdf(kemResult1, kemResult2);
+    kemResult2 = KEM.decapsulateMessages(backend, kemCertificates, keyMaterial.getServerVauKeys());
+    serverKey2 = KEM.kdfKey2(backend, kemResult1, kemResult2);
     setEncryptionVauKey(new EncryptionVauKey(serverKey2.serverToClientAppData()));
     setDecryptionVauKey(serverKey2.clientToServerAppData());
     setKeyId(serverKey2.keyId());
     byte[] clientTranscriptHash =
         KEM.decryptAead(
-            serverKey2.clientToServerKeyConfirmation(), vauMessage3.getAeadCtKeyKonfirmation());
-
-    byte[] clientVauHashCalculation = DigestUtils.sha256(transcriptServerToCheck);
+            backend,
+            serverKey2.clientToServerKeyConfirmation(),
+            vauMessage3.getAeadCtKeyKonfirmation());
 
     if (!Arrays.equals(clientTranscriptHash, clientVauHashCalculation)) {
       throw new VauProtocolException("Client transcript hash and vau calculation do not equal.");
     }
-    byte[] transcriptServerHash = DigestUtils.sha256(serverTranscript);
+    byte[] transcriptServerHash = DigestUtils.finish(serverTranscript);
+    serverTranscript = null;
     byte[] aeadCiphertextMessage4KeyKonfirmation =
-        KEM.encryptAead(serverKey2.serverToClientKeyConfirmation(), transcriptServerHash);
+        KEM.encryptAead(backend, serverKey2.serverToClientKeyConfirmation(), transcriptServerHash);
     VauMessage4 message4 = new VauMessage4("M4", aeadCiphertextMessage4KeyKonfirmation);
     return encodeUsingCbor(message4);
   }
 
+  public SignedPublicVauKeys getSignedPublicVauKeys() {
+    return keyMaterial.getSignedPublicVauKeys();
+  }
+
+  public EccKyberKeyPair getServerVauKeys() {
+    return keyMaterial.getServerVauKeys();
+  }
+
+  @Override
+  protected void releaseHandshakeState() {
+    c2s = null;
+    s2c = null;
+    kemResult1 = null;
+    kemResult2 = null;
+    serverTranscript = null;
+    serverKey2 = null;
+  }
+
+  /** The keys are set before the transcript of the client has been verified. */
+  @Override
+  protected boolean isHandshakeCompleted() {
+    return super.isHandshakeCompleted() && serverTranscript == null;
+  }
+
   @Override
   protected long getRequestCounter() {
     return clientRequestCounter;
@@ -188,9 +262,27 @@ public class VauServerStateMachine extends AbstractVauStateMachine {
 
   @Override
   protected void checkRequestCounter(long reqCtr) {
+    if (!replayWindow.isFresh(reqCtr)) {
+      throw new IllegalArgumentException(
+          "Invalid request counter %d, replayed or outside of the replay window".formatted(reqCtr));
+    }
+  }
+
+  /** Marks the counter as received and answers the request with it. */
+  @Override
+  protected void acceptRequestCounter(long reqCtr) {
+    if (!replayWindow.accept(reqCtr)) {
+      throw new IllegalArgumentException(
+          "Invalid request counter %d, replayed or outside of the replay window".formatted(reqCtr));
+    }
     this.clientRequestCounter = reqCtr;
   }
 
+  @Override
+  protected VauReplayWindow replayWindow() {
+    return replayWindow;
+  }
+
   @Override
   protected void checkRequestByte(byte reqByte) {
     if (reqByte != 1) {
@@ -200,21 +292,21 @@ public class VauServerStateMachine extends AbstractVauStateMachine {
   }
 
   @Override
-  protected void checkRequestKeyId(byte[] keyId) {
-    if (!Arrays.equals(serverKey2.keyId(), keyId)) {
+  protected void checkRequestKeyId(ByteBuffer keyId) {
+    if (!keyId.equals(ByteBuffer.wrap(serverKey2.keyId()))) {
       throw new IllegalArgumentException(
           "Key ID in the header "
-              + Hex.toHexString(keyId)
+              + Hex.toHexString(ArrayUtils.toArray(keyId))
               + " does not equals "
               + Hex.toHexString(serverKey2.keyId())
               + " stored on server side");
     }
   }
 
-  private void verifyClientMessageIsWellFormed(VauMessage1 vauMessage1) {
+  private KyberPublicKeyParameters verifyClientMessageIsWellFormed(VauMessage1 vauMessage1) {
     verifyEccPublicKey(vauMessage1.ecdhPublicKey());
 
     // indirectly verifies we can read the key
-    vauMessage1.kyberPublicKey();
+    return vauMessage1.kyberPublicKeyParameters();
   }
 }
@@ -0,0 +1,333 @@
+/*
+ * Copyright 2024 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.vau.lib;
+
+import de.gematik.vau.lib.crypto.VauCryptoBackend;
+import de.gematik.vau.lib.data.EncryptedVauMessage;
+import de.gematik.vau.lib.exceptions.VauDecryptionException;
+import de.gematik.vau.lib.exceptions.VauEncryptionException;
+import de.gematik.vau.lib.metrics.VauMetrics;
+import de.gematik.vau.lib.metrics.VauMetricsListener.DecryptFailure;
+import de.gematik.vau.lib.util.ArrayUtils;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Objects;
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import org.bouncycastle.util.encoders.Hex;
+
+/**
+ * The record layer of an established VAU session (gemSpec_Krypt A_24628), created by {@link
+ * AbstractVauStateMachine#session()} or {@link AbstractVauStateMachine#compact()} once the
+ * handshake is completed. Unlike the state machines, a session is safe for concurrent use: the keys
+ * are fixed, the request counter is atomic and every thread encrypts and decrypts with its own
+ * cipher. A response is matched against the counter of the request it answers rather than the
+ * latest counter, so one tunnel can carry any number of requests in parallel.
+ *
+ * <p>Sessions are kept dense so very many idle ones fit into a heap: both app-data keys and the
+ * KeyID share one array, the counter and the flags are plain fields and the ciphers are cached per
+ * thread rather than per session. A session takes about 150 bytes, plus the {@link VauReplayWindow}
+ * on the server side.
+ *
+ * <pre>{@code
+ * var session = client.compact();
+ * var request = session.encryptRequest(body);
+ * ...
+ * var response = session.decrypt(ciphertext, request.requestCounter());
+ * }</pre>
+ */
+public final class VauSession {
+
+  static final int KEY_LENGTH = 32;
+  static final int KEYS_LENGTH = 3 * KEY_LENGTH;
+  private static final int ENCRYPTION_KEY_OFFSET = 0;
+  private static final int DECRYPTION_KEY_OFFSET = KEY_LENGTH;
+  static final int KEY_ID_OFFSET = 2 * KEY_LENGTH;
+  private static final byte FLAG_PU = 1;
+  private static final byte FLAG_SERVER = 2;
+
+  private static final VarHandle REQUEST_COUNTER;
+
+  static {
+    try {
+      REQUEST_COUNTER =
+          MethodHandles.lookup().findVarHandle(VauSession.class, "requestCounter", long.class);
+    } catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  // one cipher per thread for all sessions, re-created only if the backend changes
+  private static final ThreadLocal<CachedCipher> CIPHERS = new ThreadLocal<>();
+
+  private final VauCryptoBackend cryptoBackend;
+  // encryption key || decryption key || KeyID
+  private final byte[] keys;
+  private final VauReplayWindow replayWindow;
+  private final byte flags;
+
+  @SuppressWarnings("unused") // accessed through REQUEST_COUNTER
+  private volatile long requestCounter;
+
+  /**
+   * @param cryptoBackend provides the ciphers
+   * @param isPu whether we are in the production environment
+   * @param requestByte 1 on the client side, 2 on the server side
+   * @param keyId the KeyID of the session
+   * @param encryptionKey the K2_*_app_data key of this side
+   * @param decryptionKey the K2_*_app_data key of the remote side
+   * @param requestCounter the last request counter used
+   * @param replayWindow window for the counters of received messages on the server side, {@code
+   *     null} on the client side
+   */
+  VauSession(
+      VauCryptoBackend cryptoBackend,
+      boolean isPu,
+      byte requestByte,
+      byte[] keyId,
+      byte[] encryptionKey,
+      byte[] decryptionKey,
+      long requestCounter,
+      VauReplayWindow replayWindow) {
+    this(
+        cryptoBackend,
+        isPu,
+        requestByte,
+        packKeys(encryptionKey, decryptionKey, keyId),
+        requestCounter,
+        replayWindow);
+  }
+
+  /**
+   * @param keys encryption key || decryption key || KeyID, taken over by the session
+   */
+  VauSession(
+      VauCryptoBackend cryptoBackend,
+      boolean isPu,
+      byte requestByte,
+      byte[] keys,
+      long requestCounter,
+      VauReplayWindow replayWindow) {
+    this.cryptoBackend = Objects.requireNonNull(cryptoBackend, "cryptoBackend");
+    this.keys = keys;
+    this.flags = (byte) ((isPu ? FLAG_PU : 0) | (requestByte == 2 ? FLAG_SERVER : 0));
+    this.replayWindow = replayWindow;
+    this.requestCounter = requestCounter;
+  }
+
+  private static byte[] packKeys(byte[] encryptionKey, byte[] decryptionKey, byte[] keyId) {
+    var keys = new byte[KEYS_LENGTH];
+    System.arraycopy(encryptionKey, 0, keys, ENCRYPTION_KEY_OFFSET, KEY_LENGTH);
+    System.arraycopy(decryptionKey, 0, keys, DECRYPTION_KEY_OFFSET, KEY_LENGTH);
+    System.arraycopy(keyId, 0, keys, KEY_ID_OFFSET, KEY_LENGTH);
+    return keys;
+  }
+
+  /**
+   * @return whether we are in the production environment
+   */
+  public boolean isPu() {
+    return (flags & FLAG_PU) != 0;
+  }
+
+  /**
+   * @return a copy of the KeyID of the session
+   */
+  public byte[] getKeyId() {
+    return Arrays.copyOfRange(keys, KEY_ID_OFFSET, KEY_ID_OFFSET + KEY_LENGTH);
+  }
+
+  /**
+   * @return the request counter used last
+   */
+  public long getRequestCounter() {
+    return (long) REQUEST_COUNTER.getVolatile(this);
+  }
+
+  /**
+   * Reserves the request counter for a new request, every call returns a different value. Only
+   * meaningful on the client side, the server answers with the counter of the request.
+   *
+   * @return the request counter to use for the next request
+   */
+  public long nextRequestCounter() {
+    return (long) REQUEST_COUNTER.getAndAdd(this, 1L) + 1;
+  }
+
+  /**
+   * Encrypts a new request with the next request counter, see {@link #nextRequestCounter()}.
+   *
+   * @param cleartext the request to be encrypted
+   * @return the request counter used, to be passed on to {@link #decrypt(byte[], long)} for the
+   *     response, and the ciphertext
+   */
+  public Message encryptRequest(byte[] cleartext) {
+    var counter = nextRequestCounter();
+    return new Message(counter, encrypt(counter, cleartext));
+  }
+
+  /**
+   * Encrypts a message with the given request counter, e.g. the server answering a request.
+   *
+   * @param requestCounter the counter to put into the header and the IV
+   * @param cleartext text to be encrypted
+   * @return the ciphertext
+   */
+  public byte[] encrypt(long requestCounter, byte[] cleartext) {
+    try {
+      var bytes =
+          VauKeySchedule.forEncryption(
+                  cipher(), key(ENCRYPTION_KEY_OFFSET), requestByte(), keys, KEY_ID_OFFSET)
+              .encrypt(requestCounter, cleartext, 0, cleartext.length);
+      VauMetrics.recordEncrypted(cleartext.length);
+      return bytes;
+    } catch (GeneralSecurityException e) {
+      throw new VauEncryptionException("failed to encrypt message", e);
+    }
+  }
+
+  /**
+   * Decrypts a received message with any request counter, e.g. the server receiving a request. On
+   * the server side, every request counter is only accepted once and has to be inside the {@link
+   * VauReplayWindow}, requests may arrive out of order.
+   *
+   * @param ciphertext the to be decrypted message
+   * @return the request counter in the header of the message, to answer the message with, and the
+   *     plaintext
+   * @throws IllegalArgumentException if the request counter is replayed or too old
+   */
+  public Message decrypt(byte[] ciphertext) {
+    var message = checkedMessage(ciphertext);
+    var counter = message.getRequestCounter();
+    if (replayWindow != null && !replayWindow.isFresh(counter)) {
+      throw replayed(counter);
+    }
+    var cleartext = decrypt(message, ciphertext.length);
+    if (replayWindow != null && !replayWindow.accept(counter)) {
+      throw replayed(counter);
+    }
+    return new Message(counter, cleartext);
+  }
+
+  private static IllegalArgumentException replayed(long counter) {
+    VauMetrics.recordDecryptFailure(DecryptFailure.REQUEST_COUNTER);
+    return new IllegalArgumentException(
+        "Invalid request counter %d, replayed or outside of the replay window".formatted(counter));
+  }
+
+  /**
+   * Decrypts the response to a request.
+   *
+   * @param ciphertext the to be decrypted message
+   * @param expectedRequestCounter the counter of the request answered by the message
+   * @return the resulting plaintext
+   * @throws IllegalArgumentException if the message answers a different request
+   */
+  public byte[] decrypt(byte[] ciphertext, long expectedRequestCounter) {
+    var message = checkedMessage(ciphertext);
+    var actual = message.getRequestCounter();
+    if (actual != expectedRequestCounter) {
+      VauMetrics.recordDecryptFailure(DecryptFailure.REQUEST_COUNTER);
+      throw new IllegalArgumentException(
+          "Invalid request counter. Expected " + expectedRequestCounter + ", got " + actual);
+    }
+    return decrypt(message, ciphertext.length);
+  }
+
+  private EncryptedVauMessage checkedMessage(byte[] ciphertext) {
+    var stage = DecryptFailure.MALFORMED;
+    try {
+      var message = new EncryptedVauMessage(ByteBuffer.wrap(ciphertext), isPu());
+      message.checkCommonMessageParameters();
+      stage = DecryptFailure.REQUEST_BYTE;
+      var remoteRequestByte = requestByte() == 1 ? 2 : 1;
+      if (message.getRequest() != remoteRequestByte) {
+        throw new UnsupportedOperationException(
+            "Request byte was unexpected. Expected %d, but got %d"
+                .formatted(remoteRequestByte, message.getRequest()));
+      }
+      stage = DecryptFailure.KEY_ID;
+      if (!message.keyId().equals(ByteBuffer.wrap(keys, KEY_ID_OFFSET, KEY_LENGTH))) {
+        throw new IllegalArgumentException(
+            "Key ID in the header "
+                + Hex.toHexString(ArrayUtils.toArray(message.keyId()))
+                + " does not equal the one of the session "
+                + Hex.toHexString(keys, KEY_ID_OFFSET, KEY_LENGTH));
+      }
+      return message;
+    } catch (RuntimeException e) {
+      VauMetrics.recordDecryptFailure(stage);
+      throw e;
+    }
+  }
+
+  private byte[] decrypt(EncryptedVauMessage message, int length) {
+    var cleartext = new byte[VauKeySchedule.decryptedLength(length)];
+    try {
+      VauKeySchedule.forDecryption(cipher(), key(DECRYPTION_KEY_OFFSET))
+          .decrypt(message, ByteBuffer.wrap(cleartext));
+    } catch (GeneralSecurityException e) {
+      VauMetrics.recordDecryptFailure(DecryptFailure.AUTHENTICATION);
+      throw new VauDecryptionException(
+          "Exception thrown whilst trying to decrypt VAU message: " + e.getMessage(), e);
+    }
+    VauMetrics.recordDecrypted(cleartext.length);
+    return cleartext;
+  }
+
+  boolean isServer() {
+    return (flags & FLAG_SERVER) != 0;
+  }
+
+  /**
+   * @param dst receives encryption key || decryption key || KeyID, 96 bytes
+   * @param offset start in {@code dst}
+   */
+  void copyKeys(ByteBuffer dst, int offset) {
+    dst.put(offset, keys);
+  }
+
+  private byte requestByte() {
+    return (byte) ((flags & FLAG_SERVER) != 0 ? 2 : 1);
+  }
+
+  private SecretKeySpec key(int offset) {
+    return new SecretKeySpec(keys, offset, KEY_LENGTH, "AES");
+  }
+
+  private Cipher cipher() throws GeneralSecurityException {
+    var cached = CIPHERS.get();
+    if (cached == null || cached.backend() != cryptoBackend) {
+      cached = new CachedCipher(cryptoBackend, cryptoBackend.aesGcm());
+      CIPHERS.set(cached);
+    }
+    return cached.cipher();
+  }
+
+  private record CachedCipher(VauCryptoBackend backend, Cipher cipher) {}
+
+  /**
+   * A message of the session together with its request counter.
+   *
+   * @param requestCounter the counter in the header of the message
+   * @param body the ciphertext of an outgoing or the plaintext of an incoming message
+   */
+  public record Message(long requestCounter, byte[] body) {}
+}
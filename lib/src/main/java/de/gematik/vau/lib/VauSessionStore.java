@@ -0,0 +1,548 @@
+/*
+ * Copyright 2024 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.vau.lib;
+
+import de.gematik.vau.lib.crypto.VauCryptoBackend;
+import de.gematik.vau.lib.crypto.VauCryptoBackends;
+import de.gematik.vau.lib.data.EncryptedVauMessage;
+import de.gematik.vau.lib.metrics.VauMetrics;
+import de.gematik.vau.lib.metrics.VauMetricsListener.DecryptFailure;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Server-side store of compacted sessions, kept off-heap and found by the KeyID every encrypted
+ * message carries in its header (A_24628), so requests can be decrypted without parsing the VAU-CID
+ * first and millions of sessions cause no GC pressure.
+ *
+ * <p>The store is split into segments, each a direct buffer of fixed-size slots with an
+ * open-addressing (linear probing) index on the KeyID and its own lock. A slot holds the app-data
+ * keys, the KeyID, the expiry and a replay window (RFC 4303, section 3.4.3) of the same size as a
+ * {@link VauReplayWindow} by default, 17 longs for {@link VauReplayWindow#DEFAULT_SIZE}; the lock
+ * is only held to look up and to update a slot, decryption happens outside of it. Sessions expire
+ * when they have not been used for the idle timeout, expired slots are reused by {@link
+ * #put(VauSession)} or reclaimed by {@link #evictExpired()}. Removal shifts the following entries
+ * of the probe sequence back instead of leaving tombstones, so lookups of unknown KeyIDs stay short
+ * however many sessions came and went.
+ *
+ * <pre>{@code
+ * store.put(server.compact());
+ * ...
+ * var request = store.decrypt(ciphertext);
+ * var response = request.session().encrypt(request.requestCounter(), body);
+ * }</pre>
+ */
+public final class VauSessionStore {
+
+  // slot layout, all longs big-endian
+  private static final int STATE_OFFSET = 0;
+  private static final int EXPIRES_OFFSET = 8;
+  private static final int HIGHEST_OFFSET = 16;
+  private static final int KEYS_OFFSET = 24;
+  private static final int KEY_ID_OFFSET = KEYS_OFFSET + VauSession.KEY_ID_OFFSET;
+  private static final int BITMAP_OFFSET = KEYS_OFFSET + VauSession.KEYS_LENGTH;
+
+  private static final byte EMPTY = 0;
+  private static final byte USED = 1;
+
+  private static final int BLOCK_SHIFT = 6; // a long of the bitmap covers 64 counters
+  private static final int MAX_SEGMENTS = 64;
+  private static final int SESSIONS_PER_SEGMENT = 256;
+  private static final int HEADER_KEY_ID_OFFSET = 11; // A_24628
+  private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+  private static final VarHandle LONG_BIG_ENDIAN =
+      MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+  private final int replayWindowSize;
+  // longs of the bitmap, a ring over the blocks of 64 counters the window touches
+  private final int windowWords;
+  private final int slotSize;
+  private final Segment[] segments;
+  private final int segmentShift;
+  private final long idleTimeoutMillis;
+  private final boolean isPu;
+  private final Clock clock;
+  private final VauCryptoBackend cryptoBackend;
+
+  /**
+   * @param capacity number of sessions the store has to hold
+   * @param idleTimeout sessions not used for this long are removed
+   * @param isPu whether this is a production environment
+   */
+  public VauSessionStore(int capacity, Duration idleTimeout, boolean isPu) {
+    this(capacity, idleTimeout, isPu, Clock.systemUTC(), null);
+  }
+
+  /**
+   * @param capacity number of sessions the store has to hold
+   * @param idleTimeout sessions not used for this long are removed
+   * @param isPu whether this is a production environment
+   * @param clock the clock to expire sessions by
+   * @param cryptoBackend provides the ciphers, {@link VauCryptoBackends#defaultBackend()} if {@code
+   *     null}
+   */
+  public VauSessionStore(
+      int capacity,
+      Duration idleTimeout,
+      boolean isPu,
+      Clock clock,
+      VauCryptoBackend cryptoBackend) {
+    this(capacity, idleTimeout, isPu, clock, cryptoBackend, VauReplayWindow.DEFAULT_SIZE);
+  }
+
+  /**
+   * @param capacity number of sessions the store has to hold
+   * @param idleTimeout sessions not used for this long are removed
+   * @param isPu whether this is a production environment
+   * @param clock the clock to expire sessions by
+   * @param cryptoBackend provides the ciphers, {@link VauCryptoBackends#defaultBackend()} if {@code
+   *     null}
+   * @param replayWindowSize how far below the highest request counter received so far requests may
+   *     still arrive, see {@link VauReplayWindow}; every 64 counters take 8 bytes per session
+   */
+  public VauSessionStore(
+      int capacity,
+      Duration idleTimeout,
+      boolean isPu,
+      Clock clock,
+      VauCryptoBackend cryptoBackend,
+      int replayWindowSize) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity must be positive, got " + capacity);
+    }
+    if (idleTimeout.isNegative() || idleTimeout.isZero()) {
+      throw new IllegalArgumentException("idle timeout must be positive, got " + idleTimeout);
+    }
+    if (replayWindowSize <= 0) {
+      throw new IllegalArgumentException(
+          "replay window size must be positive, got " + replayWindowSize);
+    }
+    this.replayWindowSize = replayWindowSize;
+    // a window not aligned to the blocks touches one block more than it covers
+    this.windowWords = ((replayWindowSize + Long.SIZE - 1) >>> BLOCK_SHIFT) + 1;
+    this.slotSize = BITMAP_OFFSET + windowWords * Long.BYTES;
+    var segmentCount =
+        Integer.highestOneBit(Math.min(MAX_SEGMENTS, Math.max(1, capacity / SESSIONS_PER_SEGMENT)));
+    // a quarter of the slots stays free so probe sequences remain short
+    var perSegment = (capacity + segmentCount - 1) / segmentCount;
+    var slotsPerSegment = Integer.highestOneBit(Math.max(8, perSegment + perSegment / 3) - 1) << 1;
+    if ((long) slotsPerSegment * slotSize > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("capacity too large: " + capacity);
+    }
+    this.segments = new Segment[segmentCount];
+    for (int i = 0; i < segmentCount; i++) {
+      segments[i] = new Segment(slotsPerSegment);
+    }
+    this.segmentShift = Long.SIZE - Integer.numberOfTrailingZeros(segmentCount);
+    this.idleTimeoutMillis = idleTimeout.toMillis();
+    this.isPu = isPu;
+    this.clock = clock;
+    this.cryptoBackend = cryptoBackend != null ? cryptoBackend : VauCryptoBackends.defaultBackend();
+  }
+
+  /**
+   * Adds a session, replacing one with the same KeyID.
+   *
+   * @param session the server side of a session, e.g. from {@link VauServerStateMachine#compact()}
+   * @throws IllegalArgumentException for client sessions or sessions of another environment
+   * @throws IllegalStateException if the store is full
+   */
+  public void put(VauSession session) {
+    if (!session.isServer()) {
+      throw new IllegalArgumentException("only server sessions can be stored");
+    }
+    if (session.isPu() != isPu) {
+      throw new IllegalArgumentException("session is not of this environment, PU=" + isPu);
+    }
+    var keys = ByteBuffer.allocate(VauSession.KEYS_LENGTH);
+    session.copyKeys(keys, 0);
+    var keyId = Arrays.copyOfRange(keys.array(), VauSession.KEY_ID_OFFSET, VauSession.KEYS_LENGTH);
+    var hash = hash(keyId);
+    var now = clock.millis();
+    segment(hash).put(hash, keyId, keys.array(), now + idleTimeoutMillis, now);
+  }
+
+  /**
+   * @param keyId the KeyID of a session
+   * @return whether the session was present
+   */
+  public boolean remove(byte[] keyId) {
+    var hash = hash(keyId);
+    return segment(hash).remove(hash, keyId, clock.millis());
+  }
+
+  /**
+   * @return number of stored sessions, including expired ones not reclaimed yet
+   */
+  public int size() {
+    int size = 0;
+    for (var segment : segments) {
+      size += segment.size();
+    }
+    return size;
+  }
+
+  /**
+   * Removes all expired sessions, e.g. called periodically.
+   *
+   * @return number of removed sessions
+   */
+  public int evictExpired() {
+    var now = clock.millis();
+    int evicted = 0;
+    for (var segment : segments) {
+      evicted += segment.evictExpired(now);
+    }
+    return evicted;
+  }
+
+  /**
+   * Finds the session of a request by the KeyID in its header and decrypts it. Every request
+   * counter is only accepted once, out of order within the replay window.
+   *
+   * @param message the encrypted request
+   * @return the session, to encrypt the response with, the request counter and the plaintext
+   * @throws IllegalArgumentException if the header is invalid, no session with the KeyID is stored
+   *     or the request counter is replayed
+   * @throws de.gematik.vau.lib.exceptions.VauDecryptionException if the message is not authentic
+   */
+  public Request decrypt(byte[] message) {
+    long counter;
+    try {
+      var header = new EncryptedVauMessage(message, isPu);
+      header.checkCommonMessageParameters();
+      counter = header.getRequestCounter();
+    } catch (RuntimeException e) {
+      VauMetrics.recordDecryptFailure(DecryptFailure.MALFORMED);
+      throw e;
+    }
+    var keyId =
+        Arrays.copyOfRange(
+            message, HEADER_KEY_ID_OFFSET, HEADER_KEY_ID_OFFSET + VauSession.KEY_LENGTH);
+    var hash = hash(keyId);
+    var segment = segment(hash);
+
+    var keys = segment.lookup(hash, keyId, counter, clock.millis());
+    var session = new VauSession(cryptoBackend, isPu, (byte) 2, keys, 0, null);
+    var cleartext = session.decrypt(message);
+
+    var now = clock.millis();
+    segment.accept(hash, keyId, counter, now, now + idleTimeoutMillis);
+    return new Request(session, counter, cleartext.body());
+  }
+
+  /**
+   * @return the longest run of occupied slots in any segment, an upper bound for the slots a lookup
+   *     of an unknown KeyID probes
+   */
+  int longestProbeSequence() {
+    int longest = 0;
+    for (var segment : segments) {
+      longest = Math.max(longest, segment.longestRun());
+    }
+    return longest;
+  }
+
+  private Segment segment(long hash) {
+    return segments[segmentShift == Long.SIZE ? 0 : (int) (hash >>> segmentShift)];
+  }
+
+  private static long hash(byte[] keyId) {
+    // KeyIDs are HKDF output, the mixing only guards against KeyIDs picked to collide
+    return ((long) LONG_BIG_ENDIAN.get(keyId, 0)) * HASH_MULTIPLIER;
+  }
+
+  private static IllegalArgumentException unknownKeyId() {
+    VauMetrics.recordDecryptFailure(DecryptFailure.KEY_ID);
+    return new IllegalArgumentException("no session with the Key ID of the message");
+  }
+
+  private static IllegalArgumentException replayed(long counter) {
+    VauMetrics.recordDecryptFailure(DecryptFailure.REQUEST_COUNTER);
+    return new IllegalArgumentException(
+        "Invalid request counter %d, replayed or outside of the replay window".formatted(counter));
+  }
+
+  private static long bit(long counter) {
+    return 1L << (counter & (Long.SIZE - 1));
+  }
+
+  /** One part of the store, all slots are only accessed while holding its lock. */
+  private final class Segment {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ByteBuffer slots;
+    private final int mask;
+    private int size;
+
+    Segment(int slotCount) {
+      this.slots = ByteBuffer.allocateDirect(slotCount * slotSize);
+      this.mask = slotCount - 1;
+    }
+
+    void put(long hash, byte[] keyId, byte[] keys, long expires, long now) {
+      lock.lock();
+      try {
+        var slot = find(hash, keyId, now);
+        if (slot < 0) {
+          slot = free(hash, now);
+        }
+        var base = slot * slotSize;
+        slots.put(base + STATE_OFFSET, USED);
+        slots.putLong(base + EXPIRES_OFFSET, expires);
+        slots.putLong(base + HIGHEST_OFFSET, 0);
+        slots.put(base + KEYS_OFFSET, keys);
+        for (int word = 0; word < windowWords; word++) {
+          slots.putLong(bitmapWord(base, word), 0);
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    boolean remove(long hash, byte[] keyId, long now) {
+      lock.lock();
+      try {
+        var slot = find(hash, keyId, now);
+        if (slot < 0) {
+          return false;
+        }
+        delete(slot);
+        return true;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * @return a copy of the keys of the session, after checking the counter against its window
+     */
+    byte[] lookup(long hash, byte[] keyId, long counter, long now) {
+      lock.lock();
+      try {
+        var slot = find(hash, keyId, now);
+        if (slot < 0) {
+          throw unknownKeyId();
+        }
+        var base = slot * slotSize;
+        if (!isFresh(base, counter)) {
+          throw replayed(counter);
+        }
+        var keys = new byte[VauSession.KEYS_LENGTH];
+        slots.get(base + KEYS_OFFSET, keys);
+        return keys;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /** Marks the counter of an authenticated message and extends the lifetime of the session. */
+    void accept(long hash, byte[] keyId, long counter, long now, long expires) {
+      lock.lock();
+      try {
+        var slot = find(hash, keyId, now);
+        if (slot < 0) {
+          throw unknownKeyId();
+        }
+        var base = slot * slotSize;
+        if (!isFresh(base, counter)) {
+          throw replayed(counter);
+        }
+        var highest = slots.getLong(base + HIGHEST_OFFSET);
+        if (counter > highest) {
+          // clear the blocks the window slides over, they still hold counters of an earlier lap
+          var from = (highest >>> BLOCK_SHIFT) + 1;
+          var to = counter >>> BLOCK_SHIFT;
+          for (var block = Math.max(from, to - windowWords + 1); block <= to; block++) {
+            slots.putLong(bitmapWord(base, block), 0);
+          }
+          slots.putLong(base + HIGHEST_OFFSET, counter);
+        }
+        var word = bitmapWord(base, counter >>> BLOCK_SHIFT);
+        slots.putLong(word, slots.getLong(word) | bit(counter));
+        slots.putLong(base + EXPIRES_OFFSET, expires);
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    int size() {
+      lock.lock();
+      try {
+        return size;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    int evictExpired(long now) {
+      lock.lock();
+      try {
+        int evicted = 0;
+        for (int slot = 0; slot <= mask; slot++) {
+          // deleting shifts a following entry into the slot, which has to be checked as well
+          while (slots.get(slot * slotSize + STATE_OFFSET) == USED && isExpired(slot, now)) {
+            delete(slot);
+            evicted++;
+          }
+        }
+        return evicted;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    int longestRun() {
+      lock.lock();
+      try {
+        if (size > mask) {
+          return mask + 1;
+        }
+        // start behind an empty slot, so no run is split at the end of the buffer
+        int start = 0;
+        while (slots.get(start * slotSize + STATE_OFFSET) != EMPTY) {
+          start++;
+        }
+        int longest = 0;
+        int run = 0;
+        for (int i = 1; i <= mask + 1; i++) {
+          var slot = (start + i) & mask;
+          run = slots.get(slot * slotSize + STATE_OFFSET) == USED ? run + 1 : 0;
+          longest = Math.max(longest, run);
+        }
+        return longest;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * @return the slot of the live session with the KeyID, -1 if there is none
+     */
+    private int find(long hash, byte[] keyId, long now) {
+      for (int i = 0, slot = (int) hash & mask; i <= mask; i++, slot = (slot + 1) & mask) {
+        var state = slots.get(slot * slotSize + STATE_OFFSET);
+        if (state == EMPTY) {
+          return -1;
+        }
+        if (hasKeyId(slot, keyId)) {
+          if (isExpired(slot, now)) {
+            delete(slot);
+            return -1;
+          }
+          return slot;
+        }
+      }
+      return -1;
+    }
+
+    /**
+     * @return the first slot of the probe sequence which is empty or holds an expired session, to
+     *     be overwritten; counted as used
+     */
+    private int free(long hash, long now) {
+      for (int i = 0, slot = (int) hash & mask; i <= mask; i++, slot = (slot + 1) & mask) {
+        if (slots.get(slot * slotSize + STATE_OFFSET) == EMPTY) {
+          size++;
+          return slot;
+        }
+        // taking over the slot in place keeps the probe sequences running through it intact
+        if (isExpired(slot, now)) {
+          return slot;
+        }
+      }
+      throw new IllegalStateException("session store is full");
+    }
+
+    private boolean hasKeyId(int slot, byte[] keyId) {
+      var base = slot * slotSize + KEY_ID_OFFSET;
+      for (int i = 0; i < VauSession.KEY_LENGTH; i += Long.BYTES) {
+        if (slots.getLong(base + i) != (long) LONG_BIG_ENDIAN.get(keyId, i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private boolean isExpired(int slot, long now) {
+      return slots.getLong(slot * slotSize + EXPIRES_OFFSET) <= now;
+    }
+
+    /**
+     * Empties the slot by backward shift deletion: entries behind it in the same run, whose home
+     * slot is not between the hole and themselves, move into the hole, until the run ends.
+     */
+    private void delete(int slot) {
+      var hole = slot;
+      // a full segment has no empty slot ending the run, then every other slot is visited once
+      for (int i = 0, next = (slot + 1) & mask;
+          i < mask && slots.get(next * slotSize + STATE_OFFSET) == USED;
+          i++, next = (next + 1) & mask) {
+        var home = (int) (slots.getLong(next * slotSize + KEY_ID_OFFSET) * HASH_MULTIPLIER) & mask;
+        // the entry may only move if the hole lies cyclically between its home slot and itself
+        if (((next - home) & mask) >= ((next - hole) & mask)) {
+          copySlot(next, hole);
+          hole = next;
+        }
+      }
+      var base = hole * slotSize;
+      slots.put(base + STATE_OFFSET, EMPTY);
+      // wipe the keys, the slot may stay unused for long
+      slots.put(base + KEYS_OFFSET, new byte[VauSession.KEYS_LENGTH]);
+      size--;
+    }
+
+    private void copySlot(int from, int to) {
+      slots.put(to * slotSize, slots, from * slotSize, slotSize);
+    }
+
+    private boolean isFresh(int base, long counter) {
+      if (counter < 0) {
+        return false;
+      }
+      var highest = slots.getLong(base + HIGHEST_OFFSET);
+      if (counter > highest) {
+        return true;
+      }
+      return highest - counter < replayWindowSize
+          && (slots.getLong(bitmapWord(base, counter >>> BLOCK_SHIFT)) & bit(counter)) == 0;
+    }
+
+    /**
+     * @return the position of the bitmap long holding the block of 64 counters
+     */
+    private int bitmapWord(int base, long block) {
+      return base + BITMAP_OFFSET + (int) (block % windowWords) * Long.BYTES;
+    }
+  }
+
+  /**
+   * A decrypted request.
+   *
+   * @param session the session of the request, to encrypt the response with
+   * @param requestCounter the counter to answer the request with
+   * @param body the plaintext of the request
+   */
+  public record Request(VauSession session, long requestCounter, byte[] body) {}
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright 2024 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.vau.lib;
+
+import de.gematik.vau.lib.crypto.VauCryptoBackend;
+import de.gematik.vau.lib.crypto.VauCryptoBackends;
+import de.gematik.vau.lib.crypto.VauRandomSources;
+import de.gematik.vau.lib.data.KdfMessage;
+import de.gematik.vau.lib.exceptions.VauProtocolException;
+import de.gematik.vau.lib.util.ArrayUtils;
+import de.gematik.vau.lib.util.BoundedCache;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Arrays;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Stateless server sessions: seals the keys of an established session into an authenticated ticket
+ * which is carried in the VAU-CID, so any node holding the ticket key can decrypt and encrypt the
+ * application data of the session without per-session memory.
+ *
+ * <p>A_24622 assigns the VAU-CID with message 2, before the keys of the session are derived from
+ * message 3. The ticket is therefore a second CID, to be returned as VAU-CID header with message 4;
+ * clients which adopt it (like the client of this project) can be routed to any node, the others
+ * keep using the CID of the handshake. Message 3 itself still has to reach the node which answered
+ * message 1.
+ *
+ * <p>The ticket holds the HKDF pseudorandom key all keys of KdfKey2 and the KeyID are expanded
+ * from, the PU flag and the expiry, sealed with AES-GCM under a ticket key. Ticket keys are rotated
+ * with {@link #rotate(TicketKey)}; tickets of the previous key are still accepted, so the rotation
+ * interval should not be shorter than the ticket lifetime.
+ *
+ * <p>Each node keeps the sessions it has opened, keyed by their KeyID, so the {@link
+ * VauReplayWindow} of a session survives further requests with the same ticket and a replayed
+ * request is rejected. The replay state is per node: a request replayed to a node which has not
+ * seen the original is accepted once there. The number of kept sessions is bounded, a session
+ * evicted to make room starts with a fresh window when it is opened again, so the bound should
+ * cover the sessions active within one ticket lifetime.
+ */
+public final class VauSessionTickets {
+
+  private static final byte FORMAT_VERSION = 1;
+  private static final int KEY_LENGTH = 32;
+  private static final int NONCE_LENGTH = 12;
+  private static final int TAG_LENGTH = 16;
+  private static final int PAYLOAD_LENGTH = 1 + Long.BYTES + KEY_LENGTH; // flags, expiry, PRK
+  private static final int TICKET_LENGTH = 2 + NONCE_LENGTH + PAYLOAD_LENGTH + TAG_LENGTH;
+  private static final byte FLAG_PU = 1;
+  private static final int DEFAULT_MAX_OPEN_SESSIONS = 10_000;
+
+  // KdfKey2 is expanded into 5 blocks: c2s confirmation, c2s app data, s2c confirmation, s2c app
+  // data and the KeyID
+  private static final int KDF_KEY_2_LENGTH = 5 * KEY_LENGTH;
+  private static final int C2S_APP_DATA_OFFSET = KEY_LENGTH;
+  private static final int S2C_APP_DATA_OFFSET = 3 * KEY_LENGTH;
+  private static final int KEY_ID_OFFSET = 4 * KEY_LENGTH;
+
+  private final Duration lifetime;
+  private final Clock clock;
+  private final VauCryptoBackend cryptoBackend;
+  private final BoundedCache<ByteBuffer, VauSession> openSessions;
+  private volatile Keys keys;
+
+  /**
+   * @param initialKey the key to seal tickets with
+   * @param lifetime how long a ticket is valid after the handshake
+   */
+  public VauSessionTickets(TicketKey initialKey, Duration lifetime) {
+    this(initialKey, lifetime, Clock.systemUTC(), null);
+  }
+
+  /**
+   * @param initialKey the key to seal tickets with
+   * @param lifetime how long a ticket is valid after the handshake
+   * @param clock the clock to check the expiry against
+   * @param cryptoBackend provides the ciphers for tickets and sessions, {@link
+   *     VauCryptoBackends#defaultBackend()} if {@code null}
+   */
+  public VauSessionTickets(
+      TicketKey initialKey, Duration lifetime, Clock clock, VauCryptoBackend cryptoBackend) {
+    this(initialKey, lifetime, clock, cryptoBackend, DEFAULT_MAX_OPEN_SESSIONS);
+  }
+
+  /**
+   * @param initialKey the key to seal tickets with
+   * @param lifetime how long a ticket is valid after the handshake
+   * @param clock the clock to check the expiry against
+   * @param cryptoBackend provides the ciphers for tickets and sessions, {@link
+   *     VauCryptoBackends#defaultBackend()} if {@code null}
+   * @param maxOpenSessions how many opened sessions this node keeps for replay protection
+   */
+  public VauSessionTickets(
+      TicketKey initialKey,
+      Duration lifetime,
+      Clock clock,
+      VauCryptoBackend cryptoBackend,
+      int maxOpenSessions) {
+    if (lifetime.isNegative() || lifetime.isZero()) {
+      throw new IllegalArgumentException("lifetime must be positive, got " + lifetime);
+    }
+    this.keys = new Keys(initialKey, null);
+    this.lifetime = lifetime;
+    this.clock = clock;
+    this.cryptoBackend = cryptoBackend != null ? cryptoBackend : VauCryptoBackends.defaultBackend();
+    this.openSessions = new BoundedCache<>(maxOpenSessions);
+  }
+
+  /**
+   * Seals new tickets with {@code next} from now on, tickets of the current key are still accepted
+   * until the next rotation.
+   *
+   * @param next the new ticket key, its id must differ from the current one
+   */
+  public void rotate(TicketKey next) {
+    var current = keys.current();
+    if (next.id() == current.id()) {
+      throw new IllegalArgumentException("ticket key id %d is in use".formatted(next.id()));
+    }
+    keys = new Keys(next, current);
+  }
+
+  /**
+   * Seals the session established by a completed handshake.
+   *
+   * @param server the state machine after message 3
+   * @return the VAU-CID carrying the ticket, a single path segment
+   * @throws IllegalStateException if the handshake has not been completed yet
+   */
+  public String issue(VauServerStateMachine server) {
+    if (!server.isHandshakeCompleted()) {
+      throw new IllegalStateException("handshake not completed");
+    }
+    var payload =
+        ByteBuffer.allocate(PAYLOAD_LENGTH)
+            .put(server.isPu() ? FLAG_PU : 0)
+            .putLong(clock.instant().plus(lifetime).getEpochSecond())
+            .put(pseudoRandomKey(server.getKemResult1(), server.getKemResult2()))
+            .array();
+
+    var key = keys.current();
+    var ticket = new byte[TICKET_LENGTH];
+    ticket[0] = FORMAT_VERSION;
+    ticket[1] = (byte) key.id();
+    var nonce = new byte[NONCE_LENGTH];
+    VauRandomSources.get().secureRandom().nextBytes(nonce);
+    System.arraycopy(nonce, 0, ticket, 2, NONCE_LENGTH);
+    try {
+      var cipher = cryptoBackend.aesGcm();
+      cipher.init(
+          Cipher.ENCRYPT_MODE,
+          new SecretKeySpec(key.secret(), "AES"),
+          new GCMParameterSpec(TAG_LENGTH * Byte.SIZE, nonce));
+      cipher.updateAAD(ticket, 0, 2);
+      cipher.doFinal(payload, 0, payload.length, ticket, 2 + NONCE_LENGTH);
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("failed to seal session ticket", e);
+    }
+    return "/" + Base32.encode(ticket);
+  }
+
+  /**
+   * Rebuilds the server side of a session from its ticket, or returns the session this node has
+   * already opened for it.
+   *
+   * @param cid the VAU-CID, or a request path ending with it
+   * @return the session, continuing the request counters of the client
+   * @throws VauProtocolException if the ticket is malformed, not authentic or expired
+   */
+  public VauSession open(String cid) {
+    var ticket = Base32.decode(cid.substring(cid.lastIndexOf('/') + 1));
+    if (ticket == null || ticket.length != TICKET_LENGTH || ticket[0] != FORMAT_VERSION) {
+      throw new VauProtocolException("malformed session ticket");
+    }
+    var key = keys.find(ticket[1] & 0xff);
+    if (key == null) {
+      throw new VauProtocolException("unknown session ticket key " + (ticket[1] & 0xff));
+    }
+
+    byte[] payload;
+    try {
+      var cipher = cryptoBackend.aesGcm();
+      cipher.init(
+          Cipher.DECRYPT_MODE,
+          new SecretKeySpec(key.secret(), "AES"),
+          new GCMParameterSpec(TAG_LENGTH * Byte.SIZE, ticket, 2, NONCE_LENGTH));
+      cipher.updateAAD(ticket, 0, 2);
+      payload = cipher.doFinal(ticket, 2 + NONCE_LENGTH, PAYLOAD_LENGTH + TAG_LENGTH);
+    } catch (GeneralSecurityException e) {
+      throw new VauProtocolException("invalid session ticket", e);
+    }
+
+    var buffer = ByteBuffer.wrap(payload);
+    var isPu = (buffer.get() & FLAG_PU) != 0;
+    var exp = buffer.getLong();
+    if (clock.instant().getEpochSecond() > exp) {
+      throw new VauProtocolException("session ticket expired");
+    }
+    var keyMaterial =
+        cryptoBackend.hkdfSha256Expand(
+            Arrays.copyOfRange(payload, buffer.position(), payload.length), KDF_KEY_2_LENGTH);
+    var keyId = Arrays.copyOfRange(keyMaterial, KEY_ID_OFFSET, KEY_ID_OFFSET + KEY_LENGTH);
+    return openSessions.get(
+        ByteBuffer.wrap(keyId),
+        k ->
+            new VauSession(
+                cryptoBackend,
+                isPu,
+                (byte) 2,
+                keyId,
+                Arrays.copyOfRange(
+                    keyMaterial, S2C_APP_DATA_OFFSET, S2C_APP_DATA_OFFSET + KEY_LENGTH),
+                Arrays.copyOfRange(
+                    keyMaterial, C2S_APP_DATA_OFFSET, C2S_APP_DATA_OFFSET + KEY_LENGTH),
+                0,
+                new VauReplayWindow()));
+  }
+
+  /** HKDF-Extract of the KdfKey2 input, see KEM#kdfKey2 */
+  private byte[] pseudoRandomKey(KdfMessage kemResult1, KdfMessage kemResult2) {
+    var inputKeyMaterial =
+        ArrayUtils.addAll(
+            ArrayUtils.addAll(kemResult1.ecdhSharedSecret(), kemResult1.kyberSharedSecret()),
+            ArrayUtils.addAll(kemResult2.ecdhSharedSecret(), kemResult2.kyberSharedSecret()));
+    return cryptoBackend.hkdfSha256Extract(inputKeyMaterial);
+  }
+
+  private record Keys(TicketKey current, TicketKey previous) {
+
+    TicketKey find(int id) {
+      if (current.id() == id) {
+        return current;
+      }
+      return previous != null && previous.id() == id ? previous : null;
+    }
+  }
+
+  /**
+   * A key tickets are sealed with, to be shared by all nodes of a deployment.
+   *
+   * @param id identifies the key in the ticket, between 0 and 255
+   * @param secret the AES-256 key
+   */
+  public record TicketKey(int id, byte[] secret) {
+
+    public TicketKey {
+      if (id < 0 || id > 255) {
+        throw new IllegalArgumentException("ticket key id must be between 0 and 255, got " + id);
+      }
+      if (secret == null || secret.length != KEY_LENGTH) {
+        throw new IllegalArgumentException("ticket key must have %d bytes".formatted(KEY_LENGTH));
+      }
+      secret = secret.clone();
+    }
+
+    /**
+     * @param id identifies the key in the ticket, between 0 and 255
+     * @return a new random key
+     */
+    public static TicketKey generate(int id) {
+      var secret = new byte[KEY_LENGTH];
+      VauRandomSources.get().secureRandom().nextBytes(secret);
+      return new TicketKey(id, secret);
+    }
+  }
+
+  /** RFC 4648 Base32 without padding, its alphabet is a subset of the one allowed in a VAU-CID. */
+  static final class Base32 {
+
+    private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZ234567".toCharArray();
+
+    private Base32() {}
+
+    static String encode(byte[] data) {
+      var out = new StringBuilder((data.length * 8 + 4) / 5);
+      int buffer = 0;
+      int bits = 0;
+      for (var b : data) {
+        buffer = (buffer << 8) | (b & 0xff);
+        bits += 8;
+        while (bits >= 5) {
+          bits -= 5;
+          out.append(ALPHABET[(buffer >>> bits) & 31]);
+        }
+      }
+      if (bits > 0) {
+        out.append(ALPHABET[(buffer << (5 - bits)) & 31]);
+      }
+      return out.toString();
+    }
+
+    /**
+     * @return the decoded bytes, {@code null} if the text is not Base32
+     */
+    static byte[] decode(String text) {
+      var out = new byte[text.length() * 5 / 8];
+      int buffer = 0;
+      int bits = 0;
+      int position = 0;
+      for (int i = 0; i < text.length(); i++) {
+        var c = text.charAt(i);
+        int value;
+        if (c >= 'A' && c <= 'Z') {
+          value = c - 'A';
+        } else if (c >= '2' && c <= '7') {
+          value = c - '2' + 26;
+        } else {
+          return null;
+        }
+        buffer = (buffer << 5) | value;
+        bits += 5;
+        if (bits >= 8) {
+          bits -= 8;
+          out[position++] = (byte) (buffer >>> bits);
+        }
+      }
+      return out;
+    }
+  }
+}
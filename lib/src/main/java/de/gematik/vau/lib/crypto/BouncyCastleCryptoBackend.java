@@ -0,0 +1,114 @@
+/*
+ * Copyright 2024 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.vau.lib.crypto;
+
+import de.gematik.vau.lib.data.EccKyberKeyPair;
+import de.gematik.vau.lib.data.VauEccPublicKey;
+import java.security.GeneralSecurityException;
+import java.security.Provider;
+import java.util.function.Supplier;
+import javax.crypto.Cipher;
+import org.bouncycastle.crypto.AsymmetricCipherKeyPair;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.generators.HKDFBytesGenerator;
+import org.bouncycastle.crypto.params.ECPrivateKeyParameters;
+import org.bouncycastle.crypto.params.ECPublicKeyParameters;
+import org.bouncycastle.crypto.params.HKDFParameters;
+import org.bouncycastle.jcajce.SecretKeyWithEncapsulation;
+import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.pqc.crypto.crystals.kyber.KyberPublicKeyParameters;
+
+/**
+ * ECDH, Kyber and HKDF on the BouncyCastle lightweight API, see {@link EcdhEngine} and {@link
+ * KyberEngine}; none of them needs a registered provider. AES-GCM comes from the given provider
+ * instance, or from the JCA lookup without one. Ephemeral ECDH key pairs are generated per
+ * handshake unless a source such as an {@link EphemeralEcdhKeyPool} is given.
+ */
+final class BouncyCastleCryptoBackend implements VauCryptoBackend {
+
+  private static final String AES_GCM = "AES/GCM/NoPadding";
+
+  private final Provider cipherProvider;
+  private final Supplier<AsymmetricCipherKeyPair> ephemeralKeySource;
+
+  BouncyCastleCryptoBackend(Provider cipherProvider) {
+    this(cipherProvider, EcdhEngine::generateKeyPair);
+  }
+
+  BouncyCastleCryptoBackend(
+      Provider cipherProvider, Supplier<AsymmetricCipherKeyPair> ephemeralKeySource) {
+    this.cipherProvider = cipherProvider;
+    this.ephemeralKeySource = ephemeralKeySource;
+  }
+
+  @Override
+  public EcdhResult ecdhEphemeral(VauEccPublicKey remotePublicKey) {
+    return ecdhEphemeral(EcdhEngine.toPoint(remotePublicKey));
+  }
+
+  @Override
+  public EcdhResult ecdhEphemeral(ECPoint remotePublicKey) {
+    var keyPair = ephemeralKeySource.get();
+    var sharedSecret =
+        EcdhEngine.sharedSecret(remotePublicKey, (ECPrivateKeyParameters) keyPair.getPrivate());
+    return new EcdhResult(
+        EcdhEngine.toVauEccPublicKey((ECPublicKeyParameters) keyPair.getPublic()), sharedSecret);
+  }
+
+  @Override
+  public byte[] ecdh(VauEccPublicKey remotePublicKey, EccKyberKeyPair localKeys) {
+    // the parameters are cached on the key pair and go away with it
+    return EcdhEngine.sharedSecret(remotePublicKey, localKeys.eccPrivateKeyParameters());
+  }
+
+  @Override
+  public SecretKeyWithEncapsulation kyberEncapsulate(KyberPublicKeyParameters publicKey) {
+    return KyberEngine.encapsulate(publicKey);
+  }
+
+  @Override
+  public byte[] kyberDecapsulate(EccKyberKeyPair localKeys, byte[] ciphertext) {
+    return KyberEngine.decapsulate(localKeys.kyberPrivateKeyParameters(), ciphertext);
+  }
+
+  @Override
+  public byte[] hkdfSha256Extract(byte[] inputKeyMaterial) {
+    return new HKDFBytesGenerator(new SHA256Digest()).extractPRK(null, inputKeyMaterial);
+  }
+
+  @Override
+  public byte[] hkdfSha256Expand(byte[] pseudoRandomKey, int length) {
+    var generator = new HKDFBytesGenerator(new SHA256Digest());
+    generator.init(HKDFParameters.skipExtractParameters(pseudoRandomKey, null));
+    var out = new byte[length];
+    generator.generateBytes(out, 0, length);
+    return out;
+  }
+
+  @Override
+  public Cipher aesGcm() throws GeneralSecurityException {
+    return cipherProvider != null
+        ? Cipher.getInstance(AES_GCM, cipherProvider)
+        : Cipher.getInstance(AES_GCM); // NOSONAR
+  }
+
+  @Override
+  public String toString() {
+    return "BouncyCastle"
+        + (cipherProvider != null ? " (AES-GCM: " + cipherProvider.getName() + ")" : "");
+  }
+}
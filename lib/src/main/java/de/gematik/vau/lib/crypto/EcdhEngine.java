@@ -0,0 +1,127 @@
+/*
+ * Copyright 2024 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.vau.lib.crypto;
+
+import de.gematik.vau.lib.data.VauEccPublicKey;
+import java.math.BigInteger;
+import java.security.PrivateKey;
+import org.bouncycastle.crypto.AsymmetricCipherKeyPair;
+import org.bouncycastle.crypto.agreement.ECDHBasicAgreement;
+import org.bouncycastle.crypto.ec.CustomNamedCurves;
+import org.bouncycastle.crypto.generators.ECKeyPairGenerator;
+import org.bouncycastle.crypto.params.ECDomainParameters;
+import org.bouncycastle.crypto.params.ECKeyGenerationParameters;
+import org.bouncycastle.crypto.params.ECPrivateKeyParameters;
+import org.bouncycastle.crypto.params.ECPublicKeyParameters;
+import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.util.BigIntegers;
+
+/**
+ * P-256 ECDH on the BouncyCastle lightweight API. Works directly on the 32 byte coordinates as
+ * transferred in the handshake messages, without the JCA KeyFactory round trip of {@link
+ * EllipticCurve}, and with the curve parameters prepared once.
+ */
+public class EcdhEngine {
+
+  private static final int COORDINATE_LENGTH = 32;
+  private static final ECDomainParameters P256 =
+      new ECDomainParameters(CustomNamedCurves.getByName("secp256r1"));
+
+  private EcdhEngine() {}
+
+  /**
+   * Converts a private key once, so it can be used for any number of key agreements.
+   *
+   * @param privateKey a P-256 private key
+   * @return the prepared private key
+   * @throws IllegalArgumentException if the key is not an EC private key
+   */
+  public static ECPrivateKeyParameters toPrivateKeyParameters(PrivateKey privateKey) {
+    if (privateKey instanceof org.bouncycastle.jce.interfaces.ECPrivateKey ecPrivateKey) {
+      return new ECPrivateKeyParameters(ecPrivateKey.getD(), P256);
+    } else if (privateKey instanceof java.security.interfaces.ECPrivateKey ecPrivateKey) {
+      return new ECPrivateKeyParameters(ecPrivateKey.getS(), P256);
+    }
+    throw new IllegalArgumentException(
+        "Unsupported private key type " + privateKey.getClass().getName());
+  }
+
+  /**
+   * Generates an ephemeral key pair
+   *
+   * @return the key pair, the public key is a {@link ECPublicKeyParameters}, the private key a
+   *     {@link ECPrivateKeyParameters}
+   */
+  public static AsymmetricCipherKeyPair generateKeyPair() {
+    var generator = new ECKeyPairGenerator();
+    generator.init(new ECKeyGenerationParameters(P256, VauRandomSources.get().secureRandom()));
+    return generator.generateKeyPair();
+  }
+
+  /**
+   * @param publicKey a public key of this engine
+   * @return the public key in the format of the handshake messages
+   */
+  public static VauEccPublicKey toVauEccPublicKey(ECPublicKeyParameters publicKey) {
+    var q = publicKey.getQ().normalize();
+    return new VauEccPublicKey(
+        "P-256",
+        BigIntegers.asUnsignedByteArray(COORDINATE_LENGTH, q.getAffineXCoord().toBigInteger()),
+        BigIntegers.asUnsignedByteArray(COORDINATE_LENGTH, q.getAffineYCoord().toBigInteger()));
+  }
+
+  /**
+   * Generates the shared secret
+   *
+   * @param remotePublicKey the remote public key as transferred in the handshake
+   * @param localPrivateKey own prepared private key
+   * @return the shared secret in bytes
+   * @throws IllegalArgumentException if the remote key is not a valid point on the curve
+   */
+  public static byte[] sharedSecret(
+      VauEccPublicKey remotePublicKey, ECPrivateKeyParameters localPrivateKey) {
+    return sharedSecret(toPoint(remotePublicKey), localPrivateKey);
+  }
+
+  /**
+   * @param publicKey a public key as transferred in the handshake
+   * @return the public point
+   * @throws IllegalArgumentException if the key is not a valid point on the curve
+   */
+  public static ECPoint toPoint(VauEccPublicKey publicKey) {
+    var x = publicKey.getX();
+    var y = publicKey.getY();
+    return P256.getCurve()
+        .validatePoint(new BigInteger(1, x, 0, x.length), new BigInteger(1, y, 0, y.length));
+  }
+
+  /**
+   * Generates the shared secret
+   *
+   * @param remotePoint the remote public point
+   * @param localPrivateKey own prepared private key
+   * @return the shared secret in bytes
+   * @throws IllegalArgumentException if the remote point is not valid
+   */
+  public static byte[] sharedSecret(ECPoint remotePoint, ECPrivateKeyParameters localPrivateKey) {
+    var agreement = new ECDHBasicAgreement();
+    agreement.init(localPrivateKey);
+    var remoteKey = new ECPublicKeyParameters(P256.getCurve().importPoint(remotePoint), P256);
+    return BigIntegers.asUnsignedByteArray(
+        COORDINATE_LENGTH, agreement.calculateAgreement(remoteKey));
+  }
+}
@@ -20,10 +20,6 @@ import de.gematik.vau.lib.exceptions.VauKyberCryptoException;
 import java.math.BigInteger;
 import java.security.*;
 import java.security.spec.InvalidKeySpecException;
-import org.bouncycastle.crypto.agreement.ECDHBasicAgreement;
-import org.bouncycastle.crypto.params.ECDomainParameters;
-import org.bouncycastle.crypto.params.ECPrivateKeyParameters;
-import org.bouncycastle.crypto.params.ECPublicKeyParameters;
 import org.bouncycastle.jce.ECNamedCurveTable;
 import org.bouncycastle.jce.interfaces.ECPrivateKey;
 import org.bouncycastle.jce.interfaces.ECPublicKey;
@@ -31,7 +27,6 @@ import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.jce.spec.ECNamedCurveParameterSpec;
 import org.bouncycastle.jce.spec.ECPublicKeySpec;
 import org.bouncycastle.math.ec.ECPoint;
-import org.bouncycastle.util.BigIntegers;
 
 public class EllipticCurve {
 
@@ -49,7 +44,7 @@ public class EllipticCurve {
   public static KeyPair generateKeyPair() {
     try {
       KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("ECDH", BC_PROVIDER);
-      keyPairGenerator.initialize(SEC_P256_CURVE_SPEC, new SecureRandom());
+      keyPairGenerator.initialize(SEC_P256_CURVE_SPEC, VauRandomSources.get().secureRandom());
       return keyPairGenerator.generateKeyPair();
     } catch (NoSuchAlgorithmException
         | NoSuchProviderException
@@ -104,30 +99,7 @@ public class EllipticCurve {
    */
   public static byte[] getSharedSecret(
       ECPublicKey remoteEcdhPublicKey, ECPrivateKey localEcdhPrivateKey) {
-    ECDHBasicAgreement ecdhBasicAgreement = new ECDHBasicAgreement();
-
-    ECDomainParameters domainParams =
-        new ECDomainParameters(
-            SEC_P256_CURVE_SPEC.getCurve(),
-            SEC_P256_CURVE_SPEC.getG(),
-            SEC_P256_CURVE_SPEC.getN(),
-            SEC_P256_CURVE_SPEC.getH(),
-            SEC_P256_CURVE_SPEC.getSeed());
-
-    ECPrivateKeyParameters privateKeyParameters =
-        new ECPrivateKeyParameters(localEcdhPrivateKey.getD(), domainParams);
-    ecdhBasicAgreement.init(privateKeyParameters);
-
-    ECPoint ecPoint =
-        SEC_P256_CURVE_SPEC
-            .getCurve()
-            .createPoint(
-                remoteEcdhPublicKey.getQ().getXCoord().toBigInteger(),
-                remoteEcdhPublicKey.getQ().getYCoord().toBigInteger());
-
-    ECPublicKeyParameters publicKeyParameters = new ECPublicKeyParameters(ecPoint, domainParams);
-
-    BigInteger sharedSecret = ecdhBasicAgreement.calculateAgreement(publicKeyParameters);
-    return BigIntegers.asUnsignedByteArray(32, sharedSecret);
+    return EcdhEngine.sharedSecret(
+        remoteEcdhPublicKey.getQ(), EcdhEngine.toPrivateKeyParameters(localEcdhPrivateKey));
   }
 }
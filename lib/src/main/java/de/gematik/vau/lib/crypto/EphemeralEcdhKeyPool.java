@@ -0,0 +1,179 @@
+/*
+ * Copyright 2024 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.vau.lib.crypto;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import org.bouncycastle.crypto.AsymmetricCipherKeyPair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Lock-free pool of pre-generated ephemeral P-256 key pairs for the ECDH part of an encapsulation,
+ * pass it to {@link VauCryptoBackends#defaultBackend(Supplier)} and configure the state machines
+ * with that backend. The pool is refilled in the background once it drops below half of its
+ * capacity; every key pair is handed out exactly once. If the pool is empty, a key pair is
+ * generated on the calling thread.
+ */
+public class EphemeralEcdhKeyPool implements Supplier<AsymmetricCipherKeyPair>, AutoCloseable {
+
+  private static final Logger log = LoggerFactory.getLogger(EphemeralEcdhKeyPool.class);
+
+  private final int capacity;
+  private final Queue<AsymmetricCipherKeyPair> keys = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger depth = new AtomicInteger();
+  private final AtomicBoolean refilling = new AtomicBoolean();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder generated = new LongAdder();
+  private final LongAdder generationNanos = new LongAdder();
+  private final Executor executor;
+  private final ExecutorService ownedExecutor;
+  private volatile boolean closed;
+
+  /**
+   * Creates a pool refilled by a single low priority daemon thread.
+   *
+   * @param capacity number of key pairs to keep ready
+   */
+  public EphemeralEcdhKeyPool(int capacity) {
+    this(capacity, null);
+  }
+
+  /**
+   * @param capacity number of key pairs to keep ready
+   * @param executor runs the refills, a single low priority daemon thread if {@code null}
+   */
+  public EphemeralEcdhKeyPool(int capacity, Executor executor) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity must be positive, got " + capacity);
+    }
+    this.capacity = capacity;
+    if (executor == null) {
+      this.ownedExecutor =
+          Executors.newSingleThreadExecutor(
+              r -> {
+                var thread = new Thread(r, "vau-ecdh-key-pool");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+              });
+      this.executor = ownedExecutor;
+    } else {
+      this.ownedExecutor = null;
+      this.executor = executor;
+    }
+    refill();
+  }
+
+  /**
+   * @return a key pair which has not been handed out before
+   */
+  @Override
+  public AsymmetricCipherKeyPair get() {
+    var keyPair = keys.poll();
+    if (keyPair != null) {
+      depth.decrementAndGet();
+      hits.increment();
+    } else {
+      misses.increment();
+      keyPair = EcdhEngine.generateKeyPair();
+    }
+    if (depth.get() < (capacity + 1) / 2) {
+      refill();
+    }
+    return keyPair;
+  }
+
+  /**
+   * @return a snapshot of the pool's counters
+   */
+  public Metrics metrics() {
+    return new Metrics(
+        depth.get(), capacity, hits.sum(), misses.sum(), generated.sum(), generationNanos.sum());
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    keys.clear();
+    depth.set(0);
+    if (ownedExecutor != null) {
+      ownedExecutor.shutdownNow();
+    }
+  }
+
+  private void refill() {
+    if (closed || !refilling.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      executor.execute(this::fill);
+    } catch (RejectedExecutionException e) {
+      refilling.set(false);
+      log.debug("ecdh key pool refill rejected", e);
+    }
+  }
+
+  private void fill() {
+    try {
+      while (!closed && depth.get() < capacity) {
+        var start = System.nanoTime();
+        var keyPair = EcdhEngine.generateKeyPair();
+        generationNanos.add(System.nanoTime() - start);
+        generated.increment();
+        keys.offer(keyPair);
+        depth.incrementAndGet();
+      }
+    } catch (RuntimeException e) {
+      log.warn("failed to pre-generate ecdh key pairs", e);
+    } finally {
+      refilling.set(false);
+    }
+  }
+
+  /**
+   * Counters of a pool.
+   *
+   * @param depth key pairs currently ready
+   * @param capacity maximum number of key pairs kept ready
+   * @param hits key pairs handed out from the pool
+   * @param misses key pairs generated on the calling thread because the pool was empty
+   * @param generated key pairs generated by refills
+   * @param generationNanos time spent generating key pairs in refills
+   */
+  public record Metrics(
+      int depth, int capacity, long hits, long misses, long generated, long generationNanos) {
+
+    /**
+     * @return key pairs a refill generates per second of generation time, i.e. the throughput of a
+     *     single refill thread and not how fast the pool is actually refilled; 0 before the first
+     *     refill
+     */
+    public double generationRate() {
+      return generationNanos == 0 ? 0 : generated * 1e9 / generationNanos;
+    }
+  }
+}
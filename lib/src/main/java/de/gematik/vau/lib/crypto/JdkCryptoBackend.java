@@ -0,0 +1,225 @@
+/*
+ * Copyright 2024 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.vau.lib.crypto;
+
+import de.gematik.vau.lib.data.EccKyberKeyPair;
+import de.gematik.vau.lib.data.VauEccPublicKey;
+import de.gematik.vau.lib.util.BoundedCache;
+import java.math.BigInteger;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.Provider;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.ECPublicKeySpec;
+import java.security.spec.PKCS8EncodedKeySpec;
+import javax.crypto.Cipher;
+import javax.crypto.KeyAgreement;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.bouncycastle.jcajce.SecretKeyWithEncapsulation;
+import org.bouncycastle.pqc.crypto.crystals.kyber.KyberPublicKeyParameters;
+import org.bouncycastle.util.BigIntegers;
+
+/**
+ * ECDH, HKDF and AES-GCM on the JCA providers of the JDK (SunEC, SunJCE), whose AES-GCM is
+ * intrinsified on current hardware. The JDK has no Kyber-768 (round 3), so Kyber is done by {@link
+ * KyberEngine}, which needs no registered provider either. The configured providers apply to ECDH
+ * and AES-GCM only; the HMAC of HKDF always comes from the JCA lookup, which every JDK serves with
+ * SunJCE.
+ */
+final class JdkCryptoBackend implements VauCryptoBackend {
+
+  private static final String CURVE = "secp256r1";
+  private static final String AES_GCM = "AES/GCM/NoPadding";
+  private static final String HMAC_SHA_256 = "HmacSHA256";
+  private static final int COORDINATE_LENGTH = 32;
+  private static final int HASH_LENGTH = 32;
+
+  private final Provider ecProvider;
+  private final Provider cipherProvider;
+  private final ECParameterSpec p256;
+  // own private keys are usually BouncyCastle keys; the long-lived keys of the VAU instance are
+  // translated once per key, a few to cover rotations, ephemeral keys on every use
+  private final BoundedCache<PrivateKey, PrivateKey> serverKeys = new BoundedCache<>(4);
+
+  JdkCryptoBackend(Provider ecProvider, Provider cipherProvider) {
+    this.ecProvider = ecProvider;
+    this.cipherProvider = cipherProvider;
+    try {
+      var parameters =
+          ecProvider != null
+              ? AlgorithmParameters.getInstance("EC", ecProvider)
+              : AlgorithmParameters.getInstance("EC");
+      parameters.init(new ECGenParameterSpec(CURVE));
+      this.p256 = parameters.getParameterSpec(ECParameterSpec.class);
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("P-256 not supported by the EC provider", e);
+    }
+  }
+
+  @Override
+  public EcdhResult ecdhEphemeral(VauEccPublicKey remotePublicKey) {
+    return ecdhEphemeral(toPoint(remotePublicKey));
+  }
+
+  @Override
+  public EcdhResult ecdhEphemeral(org.bouncycastle.math.ec.ECPoint remotePublicKey) {
+    var normalized = remotePublicKey.normalize();
+    return ecdhEphemeral(
+        new ECPoint(
+            normalized.getAffineXCoord().toBigInteger(),
+            normalized.getAffineYCoord().toBigInteger()));
+  }
+
+  private EcdhResult ecdhEphemeral(ECPoint remotePublicKey) {
+    try {
+      var generator =
+          ecProvider != null
+              ? KeyPairGenerator.getInstance("EC", ecProvider)
+              : KeyPairGenerator.getInstance("EC");
+      generator.initialize(p256, VauRandomSources.get().secureRandom());
+      var keyPair = generator.generateKeyPair();
+      var sharedSecret = agree(remotePublicKey, keyPair.getPrivate());
+      var w = ((ECPublicKey) keyPair.getPublic()).getW();
+      return new EcdhResult(
+          new VauEccPublicKey(
+              "P-256",
+              BigIntegers.asUnsignedByteArray(COORDINATE_LENGTH, w.getAffineX()),
+              BigIntegers.asUnsignedByteArray(COORDINATE_LENGTH, w.getAffineY())),
+          sharedSecret);
+    } catch (GeneralSecurityException e) {
+      throw new IllegalArgumentException("ECDH failed: " + e.getMessage(), e);
+    }
+  }
+
+  @Override
+  public byte[] ecdh(VauEccPublicKey remotePublicKey, EccKyberKeyPair localKeys) {
+    try {
+      return agree(toPoint(remotePublicKey), translate(localKeys.eccKeyPair().getPrivate()));
+    } catch (GeneralSecurityException e) {
+      throw new IllegalArgumentException("ECDH failed: " + e.getMessage(), e);
+    }
+  }
+
+  @Override
+  public byte[] ecdhStatic(VauEccPublicKey remotePublicKey, EccKyberKeyPair serverKeys) {
+    try {
+      return agree(
+          toPoint(remotePublicKey),
+          this.serverKeys.get(serverKeys.eccKeyPair().getPrivate(), this::translate));
+    } catch (GeneralSecurityException e) {
+      throw new IllegalArgumentException("ECDH failed: " + e.getMessage(), e);
+    }
+  }
+
+  private static ECPoint toPoint(VauEccPublicKey publicKey) {
+    var x = publicKey.getX();
+    var y = publicKey.getY();
+    return new ECPoint(new BigInteger(1, x, 0, x.length), new BigInteger(1, y, 0, y.length));
+  }
+
+  private byte[] agree(ECPoint remotePublicKey, PrivateKey privateKey)
+      throws GeneralSecurityException {
+    var remoteKey = keyFactory().generatePublic(new ECPublicKeySpec(remotePublicKey, p256));
+    var agreement =
+        ecProvider != null
+            ? KeyAgreement.getInstance("ECDH", ecProvider)
+            : KeyAgreement.getInstance("ECDH");
+    agreement.init(privateKey);
+    // validates that the remote point is on the curve
+    agreement.doPhase(remoteKey, true);
+    return agreement.generateSecret();
+  }
+
+  private PrivateKey translate(PrivateKey privateKey) {
+    try {
+      return keyFactory().generatePrivate(new PKCS8EncodedKeySpec(privateKey.getEncoded()));
+    } catch (GeneralSecurityException e) {
+      throw new IllegalArgumentException(
+          "Unsupported private key type " + privateKey.getClass().getName(), e);
+    }
+  }
+
+  private KeyFactory keyFactory() throws GeneralSecurityException {
+    return ecProvider != null
+        ? KeyFactory.getInstance("EC", ecProvider)
+        : KeyFactory.getInstance("EC");
+  }
+
+  @Override
+  public SecretKeyWithEncapsulation kyberEncapsulate(KyberPublicKeyParameters publicKey) {
+    return KyberEngine.encapsulate(publicKey);
+  }
+
+  @Override
+  public byte[] kyberDecapsulate(EccKyberKeyPair localKeys, byte[] ciphertext) {
+    return KyberEngine.decapsulate(localKeys.kyberPrivateKeyParameters(), ciphertext);
+  }
+
+  @Override
+  public byte[] hkdfSha256Extract(byte[] inputKeyMaterial) {
+    try {
+      // the default salt of HashLen zeros
+      var mac = Mac.getInstance(HMAC_SHA_256); // NOSONAR
+      mac.init(new SecretKeySpec(new byte[HASH_LENGTH], HMAC_SHA_256));
+      return mac.doFinal(inputKeyMaterial);
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("HKDF failed", e);
+    }
+  }
+
+  @Override
+  public byte[] hkdfSha256Expand(byte[] pseudoRandomKey, int length) {
+    try {
+      // without info
+      var mac = Mac.getInstance(HMAC_SHA_256); // NOSONAR
+      mac.init(new SecretKeySpec(pseudoRandomKey, HMAC_SHA_256));
+      var out = new byte[length];
+      var block = new byte[0];
+      for (int offset = 0, counter = 1; offset < length; offset += HASH_LENGTH, counter++) {
+        mac.update(block);
+        mac.update((byte) counter);
+        block = mac.doFinal();
+        System.arraycopy(block, 0, out, offset, Math.min(HASH_LENGTH, length - offset));
+      }
+      return out;
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("HKDF failed", e);
+    }
+  }
+
+  @Override
+  public Cipher aesGcm() throws GeneralSecurityException {
+    return cipherProvider != null
+        ? Cipher.getInstance(AES_GCM, cipherProvider)
+        : Cipher.getInstance(AES_GCM); // NOSONAR
+  }
+
+  @Override
+  public String toString() {
+    return "JDK (EC: %s, AES-GCM: %s)"
+        .formatted(
+            ecProvider != null ? ecProvider.getName() : "default",
+            cipherProvider != null ? cipherProvider.getName() : "default");
+  }
+}
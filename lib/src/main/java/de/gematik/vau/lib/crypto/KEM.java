@@ -17,29 +17,30 @@
 package de.gematik.vau.lib.crypto;
 
 import de.gematik.vau.lib.data.*;
+import de.gematik.vau.lib.metrics.VauMetrics;
+import de.gematik.vau.lib.metrics.VauMetricsListener.HandshakePhase;
 import de.gematik.vau.lib.util.ArrayUtils;
 import java.security.GeneralSecurityException;
-import java.security.KeyPair;
 import java.security.PublicKey;
-import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
-import org.bouncycastle.crypto.Digest;
-import org.bouncycastle.crypto.digests.SHA256Digest;
-import org.bouncycastle.crypto.generators.HKDFBytesGenerator;
-import org.bouncycastle.crypto.params.HKDFParameters;
 import org.bouncycastle.jcajce.SecretKeyWithEncapsulation;
-import org.bouncycastle.jce.interfaces.ECPrivateKey;
 import org.bouncycastle.jce.interfaces.ECPublicKey;
+import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.pqc.crypto.crystals.kyber.KyberPublicKeyParameters;
 
 public class KEM {
   private static final int GCM_IV_LENGTH = 12; // A_24628
   private static final int GCM_TAG_LENGTH = 16; // A_24628
-  private static final SecureRandom RANDOM = new SecureRandom();
 
   private KEM() {}
 
@@ -52,13 +53,27 @@ public class KEM {
    */
   public static KdfMessage decapsulateMessages(
       VauMessage2 ciphertext, EccKyberKeyPair privateKeys) {
-    ECPublicKey ecdhPublicKeySender = cborDecodeEcdhPublicKey(ciphertext.getEcdhCt());
-    byte[] ecdhSharedSecret =
-        EllipticCurve.getSharedSecret(ecdhPublicKeySender, privateKeys.eccKeyPair().getPrivate());
+    return decapsulateMessages(VauCryptoBackends.defaultBackend(), ciphertext, privateKeys);
+  }
 
-    byte[] sharedSecretClient =
-        KyberEncoding.pqcGenerateDecryptionKey(
-            privateKeys.kyberKeyPair().getPrivate(), ciphertext.getKyberCt());
+  /**
+   * Generates the Shared secrets using own Private and the remote ciphertexts of VauMessage2, see
+   * {@link #decapsulateMessages(VauMessage2, EccKyberKeyPair)}
+   *
+   * @param backend the primitives to use
+   * @param ciphertext a VauMessage2, containing the ciphertexts
+   * @param privateKeys own PrivateKey
+   * @return The ECDH and Kyber Shared Secrets
+   */
+  public static KdfMessage decapsulateMessages(
+      VauCryptoBackend backend, VauMessage2 ciphertext, EccKyberKeyPair privateKeys) {
+    long start = VauMetrics.start();
+    Supplier<byte[]> kyberSharedSecret =
+        fork(backend, () -> backend.kyberDecapsulate(privateKeys, ciphertext.getKyberCt()));
+    byte[] ecdhSharedSecret = backend.ecdh(ciphertext.getEcdhCt(), privateKeys);
+
+    byte[] sharedSecretClient = kyberSharedSecret.get();
+    VauMetrics.recordPhase(HandshakePhase.KEM_DECAPSULATE, start);
 
     return KdfMessage.fromPublicKey(null, ecdhSharedSecret, null, sharedSecretClient);
   }
@@ -74,18 +89,36 @@ public class KEM {
    */
   public static KdfMessage decapsulateMessages(
       VauMessage3InnerLayer ciphertext, EccKyberKeyPair privateKeys) {
-    ECPublicKey ecdhPublicKeySender = cborDecodeEcdhPublicKey(ciphertext.getEcdhCt());
-    byte[] ecdhSharedSecret =
-        EllipticCurve.getSharedSecret(ecdhPublicKeySender, privateKeys.eccKeyPair().getPrivate());
+    return decapsulateMessages(VauCryptoBackends.defaultBackend(), ciphertext, privateKeys);
+  }
 
-    byte[] sharedSecretClient =
-        KyberEncoding.pqcGenerateDecryptionKey(
-            privateKeys.kyberKeyPair().getPrivate(), ciphertext.getKyberCt());
+  /**
+   * Generates the Shared secrets using own Private, the remote Kyber ciphertext and the remote ECDH
+   * PublicKey of VauMessage3InnerLayer, see {@link #decapsulateMessages(VauMessage3InnerLayer,
+   * EccKyberKeyPair)}
+   *
+   * @param backend the primitives to use
+   * @param ciphertext a VauMessage3InnerLayer, containing the Kyber ciphertext and the remote ECDH
+   *     PublicKey
+   * @param privateKeys own PrivateKey
+   * @return The ECDH and Kyber Shared Secrets
+   */
+  public static KdfMessage decapsulateMessages(
+      VauCryptoBackend backend, VauMessage3InnerLayer ciphertext, EccKyberKeyPair privateKeys) {
+    long start = VauMetrics.start();
+    Supplier<byte[]> kyberSharedSecret =
+        fork(backend, () -> backend.kyberDecapsulate(privateKeys, ciphertext.getKyberCt()));
+    byte[] ecdhSharedSecret = backend.ecdhStatic(ciphertext.getEcdhCt(), privateKeys);
+
+    byte[] sharedSecretClient = kyberSharedSecret.get();
+    VauMetrics.recordPhase(HandshakePhase.KEM_DECAPSULATE, start);
     return KdfMessage.fromPublicKey(null, ecdhSharedSecret, null, sharedSecretClient);
   }
 
   /**
-   * Generates the ECDH and Kyber Shared Secrets and Ciphertexts
+   * Generates the ECDH and Kyber Shared Secrets and Ciphertexts with the {@link
+   * VauCryptoBackends#defaultBackend()}, see {@link #encapsulateMessage(VauEccPublicKey,
+   * KyberPublicKeyParameters)}; the returned message holds no ECDH private key.
    *
    * @param remoteEcdhPublicKey remote ECDH PublicKey
    * @param kyberPublicKey remote Kyber PublicKey
@@ -93,17 +126,89 @@ public class KEM {
    */
   public static KdfMessage encapsulateMessage(
       ECPublicKey remoteEcdhPublicKey, PublicKey kyberPublicKey) {
-    KeyPair temporaryEcdhKeyPair = EllipticCurve.generateKeyPair();
-    byte[] ecdhSharedSecret =
-        EllipticCurve.getSharedSecret(
-            remoteEcdhPublicKey, (ECPrivateKey) temporaryEcdhKeyPair.getPrivate());
-    SecretKeyWithEncapsulation kyberSecretWithEncapsulation =
-        KyberEncoding.pqcGenerateEncryptionKey(kyberPublicKey);
-
-    return new KdfMessage(
-        new VauEccPublicKey((ECPublicKey) temporaryEcdhKeyPair.getPublic()),
-        temporaryEcdhKeyPair.getPrivate(),
-        ecdhSharedSecret,
+    return encapsulateMessage(
+        new VauEccPublicKey(remoteEcdhPublicKey),
+        KyberEngine.toPublicKeyParameters(kyberPublicKey));
+  }
+
+  /**
+   * Generates the ECDH and Kyber Shared Secrets and Ciphertexts; the remote keys are used as
+   * transferred and the temporary ECDH key pair never becomes a JCA key, so the returned message
+   * holds no ECDH private key.
+   *
+   * @param remoteEcdhPublicKey remote ECDH PublicKey
+   * @param kyberPublicKey remote Kyber PublicKey
+   * @return KdfMessage containing both secrets and ciphertexts
+   */
+  public static KdfMessage encapsulateMessage(
+      VauEccPublicKey remoteEcdhPublicKey, KyberPublicKeyParameters kyberPublicKey) {
+    return encapsulateMessage(
+        VauCryptoBackends.defaultBackend(), remoteEcdhPublicKey, kyberPublicKey);
+  }
+
+  /**
+   * Generates the ECDH and Kyber Shared Secrets and Ciphertexts, see {@link
+   * #encapsulateMessage(VauEccPublicKey, KyberPublicKeyParameters)}
+   *
+   * @param backend the primitives to use
+   * @param remoteEcdhPublicKey remote ECDH PublicKey
+   * @param kyberPublicKey remote Kyber PublicKey
+   * @return KdfMessage containing both secrets and ciphertexts
+   */
+  public static KdfMessage encapsulateMessage(
+      VauCryptoBackend backend,
+      VauEccPublicKey remoteEcdhPublicKey,
+      KyberPublicKeyParameters kyberPublicKey) {
+    return encapsulateMessage(
+        backend, kyberPublicKey, () -> backend.ecdhEphemeral(remoteEcdhPublicKey));
+  }
+
+  /**
+   * Generates the ECDH and Kyber Shared Secrets and Ciphertexts, see {@link
+   * #encapsulateMessage(VauEccPublicKey, KyberPublicKeyParameters)}, for a remote ECDH PublicKey
+   * which has already been validated, e.g. by {@link PublicKeyCache#ecdhPublicKey(VauEccPublicKey)}
+   *
+   * @param remoteEcdhPublicKey remote ECDH PublicKey
+   * @param kyberPublicKey remote Kyber PublicKey
+   * @return KdfMessage containing both secrets and ciphertexts
+   */
+  public static KdfMessage encapsulateMessage(
+      ECPoint remoteEcdhPublicKey, KyberPublicKeyParameters kyberPublicKey) {
+    return encapsulateMessage(
+        VauCryptoBackends.defaultBackend(), remoteEcdhPublicKey, kyberPublicKey);
+  }
+
+  /**
+   * Generates the ECDH and Kyber Shared Secrets and Ciphertexts, see {@link
+   * #encapsulateMessage(ECPoint, KyberPublicKeyParameters)}
+   *
+   * @param backend the primitives to use
+   * @param remoteEcdhPublicKey validated remote ECDH PublicKey
+   * @param kyberPublicKey remote Kyber PublicKey
+   * @return KdfMessage containing both secrets and ciphertexts
+   */
+  public static KdfMessage encapsulateMessage(
+      VauCryptoBackend backend,
+      ECPoint remoteEcdhPublicKey,
+      KyberPublicKeyParameters kyberPublicKey) {
+    return encapsulateMessage(
+        backend, kyberPublicKey, () -> backend.ecdhEphemeral(remoteEcdhPublicKey));
+  }
+
+  private static KdfMessage encapsulateMessage(
+      VauCryptoBackend backend,
+      KyberPublicKeyParameters kyberPublicKey,
+      Supplier<VauCryptoBackend.EcdhResult> ecdhEphemeral) {
+    long start = VauMetrics.start();
+    Supplier<SecretKeyWithEncapsulation> kyberEncapsulation =
+        fork(backend, () -> backend.kyberEncapsulate(kyberPublicKey));
+    var ecdh = ecdhEphemeral.get();
+    SecretKeyWithEncapsulation kyberSecretWithEncapsulation = kyberEncapsulation.get();
+    VauMetrics.recordPhase(HandshakePhase.KEM_ENCAPSULATE, start);
+
+    return KdfMessage.fromPublicKey(
+        ecdh.publicKey(),
+        ecdh.sharedSecret(),
         kyberSecretWithEncapsulation.getEncapsulation(),
         kyberSecretWithEncapsulation.getEncoded());
   }
@@ -115,6 +220,17 @@ public class KEM {
    * @return KdfKey1
    */
   public static KdfKey1 kdf(KdfMessage message) {
+    return kdfKey1(VauCryptoBackends.defaultBackend(), message);
+  }
+
+  /**
+   * Generates the KdfKey1, see {@link #kdf(KdfMessage)}
+   *
+   * @param backend the primitives to use
+   * @param message the KdfMessage containing the ECDH and Kyber Shared secrets
+   * @return KdfKey1
+   */
+  public static KdfKey1 kdfKey1(VauCryptoBackend backend, KdfMessage message) {
     if (message == null) {
       throw new IllegalArgumentException("Kdf Message was null.");
     } else if (message.ecdhSharedSecret() == null) {
@@ -122,8 +238,13 @@ public class KEM {
     } else if (message.kyberSharedSecret() == null) {
       throw new IllegalArgumentException("Kyber Shared Secret was null.");
     } else {
+      long start = VauMetrics.start();
       List<byte[]> byteArrays =
-          kdf(ArrayUtils.addAll(message.ecdhSharedSecret(), message.kyberSharedSecret()), 2);
+          kdf(
+              backend,
+              ArrayUtils.addAll(message.ecdhSharedSecret(), message.kyberSharedSecret()),
+              2);
+      VauMetrics.recordPhase(HandshakePhase.KDF, start);
       return new KdfKey1(byteArrays.get(0), byteArrays.get(1));
     }
   }
@@ -136,6 +257,19 @@ public class KEM {
    * @return KdfKey2
    */
   public static KdfKey2 kdf(KdfMessage message1, KdfMessage message2) {
+    return kdfKey2(VauCryptoBackends.defaultBackend(), message1, message2);
+  }
+
+  /**
+   * Generates the KdfKey2, see {@link #kdf(KdfMessage, KdfMessage)}
+   *
+   * @param backend the primitives to use
+   * @param message1 KdfMessage 1 containing the ECDH and Kyber Shared secrets
+   * @param message2 KdfMessage 2 containing the ECDH and Kyber Shared secrets
+   * @return KdfKey2
+   */
+  public static KdfKey2 kdfKey2(
+      VauCryptoBackend backend, KdfMessage message1, KdfMessage message2) {
     if (message1 == null) {
       throw new IllegalArgumentException("Kdf Message 1 was null.");
     } else if (message1.ecdhSharedSecret() == null) {
@@ -153,12 +287,15 @@ public class KEM {
     } else if (message2.kyberSharedSecret() == null) {
       throw new IllegalArgumentException("Kyber Shared Secret of Message 2 was null.");
     }
+    long start = VauMetrics.start();
     List<byte[]> byteArrays =
         kdf(
+            backend,
             ArrayUtils.addAll(
                 ArrayUtils.addAll(message1.ecdhSharedSecret(), message1.kyberSharedSecret()),
                 ArrayUtils.addAll(message2.ecdhSharedSecret(), message2.kyberSharedSecret())),
             5);
+    VauMetrics.recordPhase(HandshakePhase.KDF, start);
     return new KdfKey2(
         byteArrays.get(0),
         byteArrays.get(1),
@@ -167,15 +304,10 @@ public class KEM {
         byteArrays.get(4));
   }
 
-  private static List<byte[]> kdf(byte[] sharedSecret, int numSegments) {
+  private static List<byte[]> kdf(VauCryptoBackend backend, byte[] sharedSecret, int numSegments) {
     List<byte[]> encodedKeys = new ArrayList<>();
     int sequenceLength = 32;
-    Digest digest = new SHA256Digest();
-    HKDFBytesGenerator hkdfBytesGenerator = new HKDFBytesGenerator(digest);
-    hkdfBytesGenerator.init(new HKDFParameters(sharedSecret, null, null));
-
-    byte[] out = new byte[numSegments * sequenceLength];
-    hkdfBytesGenerator.generateBytes(out, 0, out.length);
+    byte[] out = backend.hkdfSha256(sharedSecret, numSegments * sequenceLength);
     for (int i = 0; i < numSegments; i++) {
       byte[] newEntry = new byte[sequenceLength];
       System.arraycopy(out, i * sequenceLength, newEntry, 0, sequenceLength);
@@ -194,19 +326,33 @@ public class KEM {
    * @return resulting ciphertext
    */
   public static byte[] encryptAead(byte[] key, byte[] plaintext) {
+    return encryptAead(VauCryptoBackends.defaultBackend(), key, plaintext);
+  }
+
+  /**
+   * Generates an AEAD ciphertext of a plaintext, see {@link #encryptAead(byte[], byte[])}
+   *
+   * @param backend the primitives to use
+   * @param key the key
+   * @param plaintext text to be encrypted
+   * @return resulting ciphertext
+   */
+  public static byte[] encryptAead(VauCryptoBackend backend, byte[] key, byte[] plaintext) {
+    long start = VauMetrics.start();
     try {
       if (key.length != 32) {
         throw new IllegalArgumentException("Key length must be 32 bytes");
       }
       byte[] iv = new byte[GCM_IV_LENGTH];
-      RANDOM.nextBytes(iv);
+      VauRandomSources.get().nextNonce(iv);
       GCMParameterSpec ivParameterSpec = new GCMParameterSpec(GCM_TAG_LENGTH * Byte.SIZE, iv);
 
       SecretKey secretKey = new SecretKeySpec(key, "AES");
-      Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+      Cipher cipher = backend.aesGcm();
       cipher.init(Cipher.ENCRYPT_MODE, secretKey, ivParameterSpec);
 
       byte[] ciphertext = cipher.doFinal(plaintext);
+      VauMetrics.recordPhase(HandshakePhase.AEAD_ENCRYPT, start);
       return ArrayUtils.addAll(iv, ciphertext);
     } catch (GeneralSecurityException e) {
       throw new IllegalArgumentException("Error while encrypting plaintext: " + e.getMessage(), e);
@@ -222,6 +368,19 @@ public class KEM {
    * @return the resulting plaintext
    */
   public static byte[] decryptAead(byte[] key, byte[] cipherText) {
+    return decryptAead(VauCryptoBackends.defaultBackend(), key, cipherText);
+  }
+
+  /**
+   * Deciphers an AEAD ciphertext back to a plaintext, see {@link #decryptAead(byte[], byte[])}
+   *
+   * @param backend the primitives to use
+   * @param key the key
+   * @param cipherText ciphertext to be decrypted
+   * @return the resulting plaintext
+   */
+  public static byte[] decryptAead(VauCryptoBackend backend, byte[] key, byte[] cipherText) {
+    long start = VauMetrics.start();
     try {
       if (key.length != 32) {
         throw new AssertionError();
@@ -232,9 +391,11 @@ public class KEM {
       GCMParameterSpec ivParameterSpec = new GCMParameterSpec(GCM_TAG_LENGTH * Byte.SIZE, iv);
       SecretKey secretKey = new SecretKeySpec(key, "AES");
 
-      Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+      Cipher cipher = backend.aesGcm();
       cipher.init(Cipher.DECRYPT_MODE, secretKey, ivParameterSpec);
-      return cipher.doFinal(ct);
+      byte[] plaintext = cipher.doFinal(ct);
+      VauMetrics.recordPhase(HandshakePhase.AEAD_DECRYPT, start);
+      return plaintext;
     } catch (GeneralSecurityException e) {
       throw new IllegalArgumentException(
           "Error while decrypting AEAD ciphertext: " + e.getMessage(), e);
@@ -250,4 +411,47 @@ public class KEM {
   public static ECPublicKey cborDecodeEcdhPublicKey(VauEccPublicKey encodedPublicKeyParameters) {
     return encodedPublicKeyParameters.toEcPublicKey();
   }
+
+  // starts the task on the backend's parallel executor if there is one, the result is fetched
+  // with get(); a task the executor has not started by then runs on the caller, so a saturated
+  // executor which also runs the caller cannot deadlock
+  private static <T> Supplier<T> fork(VauCryptoBackend backend, Supplier<T> task) {
+    var executor = backend.parallelExecutor();
+    if (executor == null) {
+      return task;
+    }
+    var claimed = new AtomicBoolean();
+    var future = new CompletableFuture<T>();
+    try {
+      executor.execute(
+          () -> {
+            if (claimed.compareAndSet(false, true)) {
+              complete(future, task);
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      return task;
+    }
+    return () -> {
+      if (claimed.compareAndSet(false, true)) {
+        return task.get();
+      }
+      try {
+        return future.join();
+      } catch (CompletionException e) {
+        if (e.getCause() instanceof RuntimeException cause) {
+          throw cause;
+        }
+        throw e;
+      }
+    };
+  }
+
+  private static <T> void complete(CompletableFuture<T> future, Supplier<T> task) {
+    try {
+      future.complete(task.get());
+    } catch (Throwable e) {
+      future.completeExceptionally(e);
+    }
+  }
 }
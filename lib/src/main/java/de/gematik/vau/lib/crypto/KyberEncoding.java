@@ -30,7 +30,6 @@ import org.bouncycastle.pqc.jcajce.provider.BouncyCastlePQCProvider;
 import org.bouncycastle.pqc.jcajce.spec.KyberParameterSpec;
 
 public class KyberEncoding {
-  private static final SecureRandom SECURE_RANDOM = new SecureRandom();
   private static final String BC_PQC_PROVIDER = BouncyCastlePQCProvider.PROVIDER_NAME;
   private static final String ALGORITHM = "KYBER";
 
@@ -45,7 +44,7 @@ public class KyberEncoding {
     try {
       KyberParameterSpec kyberParameterSpec = KyberParameterSpec.kyber768;
       KeyPairGenerator kpg = KeyPairGenerator.getInstance(ALGORITHM, BC_PQC_PROVIDER);
-      kpg.initialize(kyberParameterSpec, SECURE_RANDOM);
+      kpg.initialize(kyberParameterSpec, VauRandomSources.get().secureRandom());
       return kpg.generateKeyPair();
     } catch (NoSuchAlgorithmException
         | NoSuchProviderException
@@ -63,7 +62,7 @@ public class KyberEncoding {
   public static SecretKeyWithEncapsulation pqcGenerateEncryptionKey(PublicKey publicKey) {
     try {
       var keyGen = KeyGenerator.getInstance(ALGORITHM, BC_PQC_PROVIDER);
-      keyGen.init(new KEMGenerateSpec(publicKey, "AES"), SECURE_RANDOM);
+      keyGen.init(new KEMGenerateSpec(publicKey, "AES"), VauRandomSources.get().secureRandom());
 
       final var bcResult = (SecretKeyWithEncapsulation) keyGen.generateKey();
       byte[] ct = bcResult.getEncapsulation();
@@ -95,7 +94,7 @@ public class KyberEncoding {
   public static byte[] pqcGenerateDecryptionKey(PrivateKey privateKey, byte[] ct) {
     try {
       var keyGen = KeyGenerator.getInstance(ALGORITHM, BC_PQC_PROVIDER);
-      keyGen.init(new KEMExtractSpec(privateKey, ct, "AES"), SECURE_RANDOM);
+      keyGen.init(new KEMExtractSpec(privateKey, ct, "AES"), VauRandomSources.get().secureRandom());
       SecretKeyWithEncapsulation secEnc2 = (SecretKeyWithEncapsulation) keyGen.generateKey();
 
       // This trick is necessary since BouncyCastle does not implement Kyber versio 3.0.2, but
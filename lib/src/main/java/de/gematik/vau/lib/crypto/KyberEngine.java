@@ -0,0 +1,150 @@
+/*
+ * Copyright 2024 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.vau.lib.crypto;
+
+import de.gematik.vau.lib.exceptions.VauKyberCryptoException;
+import java.io.IOException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import javax.crypto.spec.SecretKeySpec;
+import org.bouncycastle.crypto.digests.SHA3Digest;
+import org.bouncycastle.crypto.digests.SHAKEDigest;
+import org.bouncycastle.jcajce.SecretKeyWithEncapsulation;
+import org.bouncycastle.pqc.crypto.crystals.kyber.KyberKEMExtractor;
+import org.bouncycastle.pqc.crypto.crystals.kyber.KyberKEMGenerator;
+import org.bouncycastle.pqc.crypto.crystals.kyber.KyberParameters;
+import org.bouncycastle.pqc.crypto.crystals.kyber.KyberPrivateKeyParameters;
+import org.bouncycastle.pqc.crypto.crystals.kyber.KyberPublicKeyParameters;
+import org.bouncycastle.pqc.crypto.util.PrivateKeyFactory;
+import org.bouncycastle.pqc.crypto.util.PublicKeyFactory;
+
+/**
+ * Kyber-768 on the BouncyCastle lightweight API. Produces the same results as {@link
+ * KyberEncoding}, but without a JCA provider lookup per call, and works directly on the raw public
+ * keys as transferred in the handshake messages.
+ */
+public class KyberEngine {
+
+  public static final int PUBLIC_KEY_LENGTH = 1184;
+  public static final int CIPHERTEXT_LENGTH = 1088;
+  private static final int SHARED_SECRET_LENGTH = 32;
+  private static final String WELL_FORMED_MESSAGE = "Kyber Public Key Bytes are not well formed.";
+
+  private static final ThreadLocal<SHAKEDigest> SHAKE_256 =
+      ThreadLocal.withInitial(() -> new SHAKEDigest(256));
+  private static final ThreadLocal<SHA3Digest> SHA3_256 =
+      ThreadLocal.withInitial(() -> new SHA3Digest(256));
+
+  private KyberEngine() {}
+
+  /**
+   * Parses a raw Kyber-768 public key as transferred in the handshake
+   *
+   * @param keyBytes the raw public key
+   * @return the public key
+   * @throws VauKyberCryptoException if the key has the wrong length
+   */
+  public static KyberPublicKeyParameters parsePublicKey(byte[] keyBytes) {
+    if (keyBytes == null || keyBytes.length != PUBLIC_KEY_LENGTH) {
+      throw new VauKyberCryptoException(WELL_FORMED_MESSAGE);
+    }
+    return new KyberPublicKeyParameters(KyberParameters.kyber768, keyBytes);
+  }
+
+  /**
+   * Converts a JCA public key, meant to be done once per key
+   *
+   * @param publicKey a Kyber-768 public key
+   * @return the public key
+   */
+  public static KyberPublicKeyParameters toPublicKeyParameters(PublicKey publicKey) {
+    try {
+      if (PublicKeyFactory.createKey(publicKey.getEncoded())
+          instanceof KyberPublicKeyParameters parameters) {
+        return parameters;
+      }
+      throw new VauKyberCryptoException(WELL_FORMED_MESSAGE);
+    } catch (IOException | RuntimeException e) {
+      throw new VauKyberCryptoException(WELL_FORMED_MESSAGE, e);
+    }
+  }
+
+  /**
+   * Converts a JCA private key, meant to be done once per key
+   *
+   * @param privateKey a Kyber-768 private key
+   * @return the private key
+   */
+  public static KyberPrivateKeyParameters toPrivateKeyParameters(PrivateKey privateKey) {
+    try {
+      if (PrivateKeyFactory.createKey(privateKey.getEncoded())
+          instanceof KyberPrivateKeyParameters parameters) {
+        return parameters;
+      }
+      throw new VauKyberCryptoException("Unsupported Kyber private key");
+    } catch (IOException | RuntimeException e) {
+      throw new VauKyberCryptoException("Unsupported Kyber private key", e);
+    }
+  }
+
+  /**
+   * Creates a Kyber Secret with encapsulation for a Kyber PublicKey, see {@link
+   * KyberEncoding#pqcGenerateEncryptionKey(PublicKey)}
+   *
+   * @param publicKey the PublicKey
+   * @return the secret with encapsulation
+   */
+  public static SecretKeyWithEncapsulation encapsulate(KyberPublicKeyParameters publicKey) {
+    var generator = new KyberKEMGenerator(VauRandomSources.get().secureRandom());
+    var encapsulated = generator.generateEncapsulated(publicKey);
+    var ct = encapsulated.getEncapsulation();
+    var sharedSecret = toKyberV3(encapsulated.getSecret(), ct);
+    return new SecretKeyWithEncapsulation(new SecretKeySpec(sharedSecret, "AES"), ct);
+  }
+
+  /**
+   * Generates a shared secret using a Kyber PrivateKey and a binary encapsulated key, see {@link
+   * KyberEncoding#pqcGenerateDecryptionKey(PrivateKey, byte[])}
+   *
+   * @param privateKey the private key
+   * @param ct the encapsulated key
+   * @return the shared secret
+   */
+  public static byte[] decapsulate(KyberPrivateKeyParameters privateKey, byte[] ct) {
+    if (ct == null || ct.length != CIPHERTEXT_LENGTH) {
+      throw new VauKyberCryptoException(
+          "Kyber ciphertext must be %d bytes".formatted(CIPHERTEXT_LENGTH));
+    }
+    var sharedSecret = new KyberKEMExtractor(privateKey).extractSecret(ct);
+    return toKyberV3(sharedSecret, ct);
+  }
+
+  // BouncyCastle implements the draft standard, see KyberEncoding for the conversion to v3.0.2
+  private static byte[] toKyberV3(byte[] sharedSecret, byte[] ct) {
+    var sha3 = SHA3_256.get();
+    var ctHash = new byte[sha3.getDigestSize()];
+    sha3.update(ct, 0, ct.length);
+    sha3.doFinal(ctHash, 0);
+
+    var shake = SHAKE_256.get();
+    var result = new byte[SHARED_SECRET_LENGTH];
+    shake.update(sharedSecret, 0, SHARED_SECRET_LENGTH);
+    shake.update(ctHash, 0, ctHash.length);
+    shake.doFinal(result, 0, SHARED_SECRET_LENGTH);
+    return result;
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2024 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.vau.lib.crypto;
+
+import de.gematik.vau.lib.data.EccKyberKeyPair;
+import de.gematik.vau.lib.data.VauEccPublicKey;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.Executor;
+import javax.crypto.Cipher;
+import org.bouncycastle.jcajce.SecretKeyWithEncapsulation;
+import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.pqc.crypto.crystals.kyber.KyberPublicKeyParameters;
+
+/**
+ * Another backend with a {@link #parallelExecutor()}, see {@link
+ * VauCryptoBackends#parallel(VauCryptoBackend, Executor)}.
+ */
+final class ParallelCryptoBackend implements VauCryptoBackend {
+
+  private final VauCryptoBackend backend;
+  private final Executor executor;
+
+  ParallelCryptoBackend(VauCryptoBackend backend, Executor executor) {
+    this.backend = backend;
+    this.executor = executor;
+  }
+
+  @Override
+  public EcdhResult ecdhEphemeral(VauEccPublicKey remotePublicKey) {
+    return backend.ecdhEphemeral(remotePublicKey);
+  }
+
+  @Override
+  public EcdhResult ecdhEphemeral(ECPoint remotePublicKey) {
+    return backend.ecdhEphemeral(remotePublicKey);
+  }
+
+  @Override
+  public byte[] ecdh(VauEccPublicKey remotePublicKey, EccKyberKeyPair localKeys) {
+    return backend.ecdh(remotePublicKey, localKeys);
+  }
+
+  @Override
+  public byte[] ecdhStatic(VauEccPublicKey remotePublicKey, EccKyberKeyPair serverKeys) {
+    return backend.ecdhStatic(remotePublicKey, serverKeys);
+  }
+
+  @Override
+  public SecretKeyWithEncapsulation kyberEncapsulate(KyberPublicKeyParameters publicKey) {
+    return backend.kyberEncapsulate(publicKey);
+  }
+
+  @Override
+  public byte[] kyberDecapsulate(EccKyberKeyPair localKeys, byte[] ciphertext) {
+    return backend.kyberDecapsulate(localKeys, ciphertext);
+  }
+
+  @Override
+  public byte[] hkdfSha256Extract(byte[] inputKeyMaterial) {
+    return backend.hkdfSha256Extract(inputKeyMaterial);
+  }
+
+  @Override
+  public byte[] hkdfSha256Expand(byte[] pseudoRandomKey, int length) {
+    return backend.hkdfSha256Expand(pseudoRandomKey, length);
+  }
+
+  @Override
+  public Cipher aesGcm() throws GeneralSecurityException {
+    return backend.aesGcm();
+  }
+
+  @Override
+  public Executor parallelExecutor() {
+    return executor;
+  }
+
+  @Override
+  public String toString() {
+    return backend + " (parallel)";
+  }
+}
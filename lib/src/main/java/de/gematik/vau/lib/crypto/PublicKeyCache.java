@@ -0,0 +1,116 @@
+/*
+ * Copyright 2024 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.vau.lib.crypto;
+
+import de.gematik.vau.lib.data.VauEccPublicKey;
+import de.gematik.vau.lib.util.ArrayUtils;
+import de.gematik.vau.lib.util.BoundedCache;
+import java.nio.ByteBuffer;
+import java.security.KeyPair;
+import java.security.PublicKey;
+import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.pqc.crypto.crystals.kyber.KyberPublicKeyParameters;
+
+/**
+ * Caches decoded long-lived public keys, i.e. the keys of a VAU instance, keyed by their bytes as
+ * transferred in the handshake. They stay the same for every handshake until the keys rotate, so
+ * decoding and validating them once is enough. Ephemeral keys must not be put in here, they would
+ * only push out the long-lived ones.
+ */
+public class PublicKeyCache {
+
+  private static final int MAXIMUM_SIZE = 64;
+
+  private static final BoundedCache<ByteBuffer, ECPoint> ECDH_KEYS =
+      new BoundedCache<>(MAXIMUM_SIZE);
+  private static final BoundedCache<ByteBuffer, KyberPublicKeyParameters> KYBER_KEYS =
+      new BoundedCache<>(MAXIMUM_SIZE);
+  private static final BoundedCache<ByteBuffer, PublicKey> JCA_KYBER_KEYS =
+      new BoundedCache<>(MAXIMUM_SIZE);
+  private static final BoundedCache<IdentityKey, byte[]> COMPACT_KYBER_KEYS =
+      new BoundedCache<>(MAXIMUM_SIZE);
+
+  private PublicKeyCache() {}
+
+  /**
+   * @param publicKey an ECDH public key as transferred
+   * @return the validated point, see {@link EcdhEngine#toPoint(VauEccPublicKey)}
+   */
+  public static ECPoint ecdhPublicKey(VauEccPublicKey publicKey) {
+    var key = ByteBuffer.wrap(ArrayUtils.addAll(publicKey.getX(), publicKey.getY()));
+    return ECDH_KEYS.get(key, k -> EcdhEngine.toPoint(publicKey));
+  }
+
+  /**
+   * @param keyBytes a raw Kyber-768 public key as transferred
+   * @return the public key, see {@link KyberEngine#parsePublicKey(byte[])}
+   */
+  public static KyberPublicKeyParameters kyberPublicKeyParameters(byte[] keyBytes) {
+    return KYBER_KEYS.get(
+        ByteBuffer.wrap(keyBytes.clone()), k -> KyberEngine.parsePublicKey(keyBytes));
+  }
+
+  /**
+   * @param keyBytes a raw Kyber-768 public key as transferred
+   * @return the public key, see {@link KyberKeys#decodeKyberPublicKey(byte[])}
+   */
+  public static PublicKey kyberPublicKey(byte[] keyBytes) {
+    return JCA_KYBER_KEYS.get(
+        ByteBuffer.wrap(keyBytes.clone()), k -> KyberKeys.decodeKyberPublicKey(keyBytes));
+  }
+
+  /**
+   * Extracts the raw public key of a key pair, see {@link
+   * KyberKeys#extractCompactKyberPublicKey(KeyPair)}, and remembers the public key for its raw
+   * bytes, so decoding them again is a cache hit.
+   *
+   * @param kyberKeyPair a long-lived Kyber-768 key pair
+   * @return the raw public key
+   */
+  public static byte[] compactKyberPublicKey(KeyPair kyberKeyPair) {
+    var publicKey = kyberKeyPair.getPublic();
+    var compact =
+        COMPACT_KYBER_KEYS.get(
+            new IdentityKey(publicKey),
+            k -> {
+              var keyBytes = KyberKeys.extractCompactKyberPublicKey(kyberKeyPair);
+              JCA_KYBER_KEYS.putIfAbsent(ByteBuffer.wrap(keyBytes.clone()), publicKey);
+              return keyBytes;
+            });
+    return compact.clone();
+  }
+
+  /** Drops all cached keys, e.g. after the keys of a VAU instance have been rotated. */
+  public static void clear() {
+    ECDH_KEYS.clear();
+    KYBER_KEYS.clear();
+    JCA_KYBER_KEYS.clear();
+    COMPACT_KYBER_KEYS.clear();
+  }
+
+  private record IdentityKey(Object key) {
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof IdentityKey other && other.key == key;
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(key);
+    }
+  }
+}
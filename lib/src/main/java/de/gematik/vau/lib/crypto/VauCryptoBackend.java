@@ -0,0 +1,145 @@
+/*
+ * Copyright 2024 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.vau.lib.crypto;
+
+import de.gematik.vau.lib.data.EccKyberKeyPair;
+import de.gematik.vau.lib.data.VauEccPublicKey;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.Executor;
+import javax.crypto.Cipher;
+import org.bouncycastle.jcajce.SecretKeyWithEncapsulation;
+import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.pqc.crypto.crystals.kyber.KyberPublicKeyParameters;
+
+/**
+ * The cryptographic primitives of the handshake and the record layer. Implementations must be
+ * thread-safe, see {@link VauCryptoBackends} for the available ones. A backend is chosen per state
+ * machine, so different clients or servers in the same JVM may use different backends.
+ */
+public interface VauCryptoBackend {
+
+  /**
+   * ECDH with a new ephemeral P-256 key pair, the ECDH half of the encapsulation
+   *
+   * @param remotePublicKey remote public key as transferred in the handshake
+   * @return the ephemeral public key and the shared secret
+   * @throws IllegalArgumentException if the remote key is not a valid point on the curve
+   */
+  EcdhResult ecdhEphemeral(VauEccPublicKey remotePublicKey);
+
+  /**
+   * ECDH with a new ephemeral P-256 key pair, see {@link #ecdhEphemeral(VauEccPublicKey)}, for a
+   * remote key which has already been validated, e.g. the server key from {@link PublicKeyCache}
+   *
+   * @param remotePublicKey validated remote public key
+   * @return the ephemeral public key and the shared secret
+   */
+  EcdhResult ecdhEphemeral(ECPoint remotePublicKey);
+
+  /**
+   * ECDH with an own ephemeral P-256 key, the ECDH half of the decapsulation on the client. Nothing
+   * derived from the own key outlives the call.
+   *
+   * @param remotePublicKey remote public key as transferred in the handshake
+   * @param localKeys own keys
+   * @return the shared secret
+   * @throws IllegalArgumentException if the remote key is not a valid point on the curve
+   */
+  byte[] ecdh(VauEccPublicKey remotePublicKey, EccKyberKeyPair localKeys);
+
+  /**
+   * ECDH with the own long-lived P-256 key of a VAU instance, the ECDH half of the decapsulation on
+   * the server, see {@link #ecdh(VauEccPublicKey, EccKyberKeyPair)}. The backend may keep the key
+   * prepared between calls.
+   *
+   * @param remotePublicKey remote public key as transferred in the handshake
+   * @param serverKeys own keys of the VAU instance
+   * @return the shared secret
+   * @throws IllegalArgumentException if the remote key is not a valid point on the curve
+   */
+  default byte[] ecdhStatic(VauEccPublicKey remotePublicKey, EccKyberKeyPair serverKeys) {
+    return ecdh(remotePublicKey, serverKeys);
+  }
+
+  /**
+   * @param publicKey remote Kyber-768 public key
+   * @return the shared secret and its encapsulation, see {@link
+   *     KyberEngine#encapsulate(KyberPublicKeyParameters)}
+   */
+  SecretKeyWithEncapsulation kyberEncapsulate(KyberPublicKeyParameters publicKey);
+
+  /**
+   * @param localKeys own keys
+   * @param ciphertext the encapsulated key
+   * @return the shared secret, see {@link KyberEngine#decapsulate}
+   */
+  byte[] kyberDecapsulate(EccKyberKeyPair localKeys, byte[] ciphertext);
+
+  /**
+   * HKDF-SHA-256 (RFC 5869) without salt and info as used in A_24628
+   *
+   * @param inputKeyMaterial the shared secrets
+   * @param length number of bytes to derive
+   * @return the derived bytes
+   */
+  default byte[] hkdfSha256(byte[] inputKeyMaterial, int length) {
+    return hkdfSha256Expand(hkdfSha256Extract(inputKeyMaterial), length);
+  }
+
+  /**
+   * HKDF-Extract with SHA-256 and the default salt of 32 zero bytes, the first half of {@link
+   * #hkdfSha256(byte[], int)}
+   *
+   * @param inputKeyMaterial the shared secrets
+   * @return the 32 byte pseudorandom key
+   */
+  byte[] hkdfSha256Extract(byte[] inputKeyMaterial);
+
+  /**
+   * HKDF-Expand with SHA-256 and without info, the second half of {@link #hkdfSha256(byte[], int)}
+   *
+   * @param pseudoRandomKey the result of {@link #hkdfSha256Extract(byte[])}
+   * @param length number of bytes to derive
+   * @return the derived bytes
+   */
+  byte[] hkdfSha256Expand(byte[] pseudoRandomKey, int length);
+
+  /**
+   * @return a new, uninitialized AES/GCM/NoPadding cipher
+   */
+  Cipher aesGcm() throws GeneralSecurityException;
+
+  /**
+   * Executor to run the Kyber operation of a handshake on while the calling thread does the ECDH
+   * operation, see {@link VauCryptoBackends#parallel(VauCryptoBackend, Executor)}. A Kyber
+   * operation the executor has not started when the ECDH operation is done runs on the calling
+   * thread, so the executor may be the one running the handshakes.
+   *
+   * @return the executor, {@code null} to run both operations one after the other
+   */
+  default Executor parallelExecutor() {
+    return null;
+  }
+
+  /**
+   * Result of {@link #ecdhEphemeral(VauEccPublicKey)}
+   *
+   * @param publicKey the ephemeral public key to transfer to the remote side
+   * @param sharedSecret the shared secret
+   */
+  record EcdhResult(VauEccPublicKey publicKey, byte[] sharedSecret) {}
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2024 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.vau.lib.crypto;
+
+import java.security.Provider;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+import org.bouncycastle.crypto.AsymmetricCipherKeyPair;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+/**
+ * The available {@link VauCryptoBackend}s. None of them looks up a provider by name, so neither
+ * BouncyCastle provider has to be registered with {@link java.security.Security}.
+ */
+public class VauCryptoBackends {
+
+  private static final VauCryptoBackend DEFAULT = new BouncyCastleCryptoBackend(null);
+
+  private VauCryptoBackends() {}
+
+  /**
+   * @return the backend used unless another one is configured: the BouncyCastle lightweight API for
+   *     ECDH, Kyber and HKDF, and the JCA's AES-GCM, usually the intrinsified one of SunJCE
+   */
+  public static VauCryptoBackend defaultBackend() {
+    return DEFAULT;
+  }
+
+  /**
+   * The {@link #defaultBackend()} taking its ephemeral ECDH key pairs from the given source, e.g.
+   * an {@link EphemeralEcdhKeyPool}.
+   *
+   * @param ephemeralKeySource supplies the ephemeral key pairs, every key pair supplied must be new
+   * @return a backend like the default one drawing from the source
+   */
+  public static VauCryptoBackend defaultBackend(
+      Supplier<AsymmetricCipherKeyPair> ephemeralKeySource) {
+    return new BouncyCastleCryptoBackend(
+        null, Objects.requireNonNull(ephemeralKeySource, "ephemeralKeySource"));
+  }
+
+  /**
+   * Runs the Kyber and the ECDH operations of a handshake in parallel, the Kyber part on the given
+   * executor, e.g. {@link java.util.concurrent.ForkJoinPool#commonPool()}. Both results are joined
+   * before the KDF. Worthwhile when there are idle cores, a saturated machine is better off running
+   * them one after the other.
+   *
+   * @param backend the backend doing the operations
+   * @param executor the executor for the Kyber operations
+   * @return a backend like the given one running the Kyber operations on the executor
+   */
+  public static VauCryptoBackend parallel(VauCryptoBackend backend, Executor executor) {
+    return new ParallelCryptoBackend(
+        Objects.requireNonNull(backend, "backend"), Objects.requireNonNull(executor, "executor"));
+  }
+
+  /**
+   * @return a backend doing everything with BouncyCastle, AES-GCM included
+   */
+  public static VauCryptoBackend bouncyCastle() {
+    return new BouncyCastleCryptoBackend(new BouncyCastleProvider());
+  }
+
+  /**
+   * @return a backend on the JDK's providers for everything but Kyber, which the JDK lacks
+   */
+  public static VauCryptoBackend jdk() {
+    return jdk(null, null);
+  }
+
+  /**
+   * @param ecProvider provider for P-256 ECDH, the JCA lookup if {@code null}
+   * @param cipherProvider provider for AES-GCM, the JCA lookup if {@code null}
+   * @return a backend on the given providers for everything but Kyber
+   */
+  public static VauCryptoBackend jdk(Provider ecProvider, Provider cipherProvider) {
+    return new JdkCryptoBackend(ecProvider, cipherProvider);
+  }
+}
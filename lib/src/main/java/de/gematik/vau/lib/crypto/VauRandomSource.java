@@ -0,0 +1,43 @@
+/*
+ * Copyright 2024 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.vau.lib.crypto;
+
+import java.security.SecureRandom;
+
+/**
+ * Source of all randomness used by the library: AES-GCM nonces as well as ECDH and Kyber key
+ * generation. Implementations must be thread-safe, the instance in use is configured via {@link
+ * VauRandomSources#set(VauRandomSource)}.
+ */
+public interface VauRandomSource {
+
+  /**
+   * @return a SecureRandom to be used by the calling thread for the current operation only, it must
+   *     not be handed to other threads
+   */
+  SecureRandom secureRandom();
+
+  /**
+   * Fills the array with random bytes for a nonce. Nonces are public, so implementations may hand
+   * out pre-generated bytes.
+   *
+   * @param nonce the array to fill
+   */
+  default void nextNonce(byte[] nonce) {
+    secureRandom().nextBytes(nonce);
+  }
+}
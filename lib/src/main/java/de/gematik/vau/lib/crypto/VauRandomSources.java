@@ -0,0 +1,141 @@
+/*
+ * Copyright 2024 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.vau.lib.crypto;
+
+import java.nio.ByteBuffer;
+import java.security.DrbgParameters;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Objects;
+
+/**
+ * Holds the {@link VauRandomSource} used by the library and provides the available implementations.
+ * By default every thread uses its own DRBG, so neither is a SecureRandom created per message nor
+ * do threads contend on a shared instance.
+ */
+public class VauRandomSources {
+
+  private static final int DEFAULT_NONCE_BUFFER_SIZE = 4 * 1024;
+
+  private static volatile VauRandomSource current = threadLocal();
+
+  private VauRandomSources() {}
+
+  /**
+   * @return the source used by the library
+   */
+  public static VauRandomSource get() {
+    return current;
+  }
+
+  /**
+   * Replaces the source used by the library, affects all sessions of the JVM.
+   *
+   * @param source the new source
+   */
+  public static void set(VauRandomSource source) {
+    current = Objects.requireNonNull(source, "source");
+  }
+
+  /** Restores the default source, see {@link #threadLocal()}. */
+  public static void reset() {
+    current = threadLocal();
+  }
+
+  /**
+   * @return a source with a DRBG (NIST SP 800-90A) instance per thread
+   */
+  public static VauRandomSource threadLocal() {
+    var randoms = ThreadLocal.withInitial(VauRandomSources::newDrbg);
+    return randoms::get;
+  }
+
+  /**
+   * Nonces are generated in blocks into a buffer per thread, so an AES-GCM encryption usually does
+   * not need to call into the DRBG at all. Key generation is delegated unchanged.
+   *
+   * @param delegate the source for key generation and to fill the buffers from
+   * @param bufferSize size of the nonce buffer per thread
+   * @return the buffering source
+   */
+  public static VauRandomSource withNonceBuffer(VauRandomSource delegate, int bufferSize) {
+    if (bufferSize <= 0) {
+      throw new IllegalArgumentException("bufferSize must be positive, got " + bufferSize);
+    }
+    var buffers =
+        ThreadLocal.withInitial(() -> ByteBuffer.allocate(bufferSize).position(bufferSize));
+    return new VauRandomSource() {
+      @Override
+      public SecureRandom secureRandom() {
+        return delegate.secureRandom();
+      }
+
+      @Override
+      public void nextNonce(byte[] nonce) {
+        if (nonce.length > bufferSize) {
+          delegate.nextNonce(nonce);
+          return;
+        }
+        var buffer = buffers.get();
+        if (buffer.remaining() < nonce.length) {
+          delegate.secureRandom().nextBytes(buffer.array());
+          buffer.clear();
+        }
+        buffer.get(nonce);
+      }
+    };
+  }
+
+  /**
+   * @return a source with a nonce buffer of the default size around {@link #threadLocal()}
+   */
+  public static VauRandomSource withNonceBuffer() {
+    return withNonceBuffer(threadLocal(), DEFAULT_NONCE_BUFFER_SIZE);
+  }
+
+  /**
+   * Every thread gets its own generator seeded with the given seed, so a single threaded run
+   * produces the same nonces and keys every time. For reproducible tests and benchmarks only, never
+   * use this in production.
+   *
+   * @param seed the seed
+   * @return the deterministic source
+   */
+  public static VauRandomSource deterministic(long seed) {
+    var randoms =
+        ThreadLocal.withInitial(
+            () -> {
+              try {
+                var random = SecureRandom.getInstance("SHA1PRNG"); // NOSONAR
+                random.setSeed(ByteBuffer.allocate(Long.BYTES).putLong(seed).array());
+                return random;
+              } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA1PRNG not available", e);
+              }
+            });
+    return randoms::get;
+  }
+
+  private static SecureRandom newDrbg() {
+    try {
+      return SecureRandom.getInstance(
+          "DRBG", DrbgParameters.instantiation(256, DrbgParameters.Capability.RESEED_ONLY, null));
+    } catch (NoSuchAlgorithmException e) {
+      return new SecureRandom();
+    }
+  }
+}
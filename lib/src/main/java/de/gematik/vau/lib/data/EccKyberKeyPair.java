@@ -18,8 +18,10 @@ package de.gematik.vau.lib.data;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import de.gematik.vau.lib.crypto.EcdhEngine;
 import de.gematik.vau.lib.crypto.EllipticCurve;
 import de.gematik.vau.lib.crypto.KyberEncoding;
+import de.gematik.vau.lib.crypto.KyberEngine;
 import de.gematik.vau.lib.util.ArrayUtils;
 import java.io.IOException;
 import java.nio.file.Files;
@@ -30,9 +32,11 @@ import java.security.NoSuchAlgorithmException;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.X509EncodedKeySpec;
+import org.bouncycastle.crypto.params.ECPrivateKeyParameters;
 import org.bouncycastle.jcajce.provider.asymmetric.ec.BCECPrivateKey;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.jce.spec.ECPublicKeySpec;
+import org.bouncycastle.pqc.crypto.crystals.kyber.KyberPrivateKeyParameters;
 import org.bouncycastle.pqc.jcajce.provider.BouncyCastlePQCProvider;
 import org.bouncycastle.util.encoders.Hex;
 
@@ -47,6 +51,8 @@ public class EccKyberKeyPair {
 
   private final KeyPair eccKeyPair;
   private final KeyPair kyberKeyPair;
+  private ECPrivateKeyParameters eccPrivateKeyParameters;
+  private KyberPrivateKeyParameters kyberPrivateKeyParameters;
 
   public EccKyberKeyPair(KeyPair eccKeyPair, KeyPair kyberKeyPair) {
     this.eccKeyPair = eccKeyPair;
@@ -61,6 +67,32 @@ public class EccKyberKeyPair {
     return kyberKeyPair;
   }
 
+  /**
+   * @return the ECDH private key prepared for {@link EcdhEngine}, converted on first use only
+   */
+  public ECPrivateKeyParameters eccPrivateKeyParameters() {
+    // racy single check, the parameters are immutable
+    var parameters = eccPrivateKeyParameters;
+    if (parameters == null) {
+      parameters = EcdhEngine.toPrivateKeyParameters(eccKeyPair.getPrivate());
+      eccPrivateKeyParameters = parameters;
+    }
+    return parameters;
+  }
+
+  /**
+   * @return the Kyber private key prepared for {@link KyberEngine}, converted on first use only
+   */
+  public KyberPrivateKeyParameters kyberPrivateKeyParameters() {
+    // racy single check, the parameters are immutable
+    var parameters = kyberPrivateKeyParameters;
+    if (parameters == null) {
+      parameters = KyberEngine.toPrivateKeyParameters(kyberKeyPair.getPrivate());
+      kyberPrivateKeyParameters = parameters;
+    }
+    return parameters;
+  }
+
   /**
    * Generates a random ECDH key pair and a random Kyber-768 key pair
    *
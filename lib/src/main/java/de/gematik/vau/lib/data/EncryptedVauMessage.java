@@ -16,58 +16,150 @@
 
 package de.gematik.vau.lib.data;
 
+import static de.gematik.vau.lib.util.ArrayUtils.toArray;
 import static de.gematik.vau.lib.util.ArrayUtils.unionByteArrays;
 
-import de.gematik.vau.lib.util.ArrayUtils;
+import java.nio.ByteBuffer;
 import lombok.Getter;
 import org.bouncycastle.util.encoders.Hex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-@Getter
-// A_24628 - encrypted VAU messsage with user data
+/**
+ * A_24628 - encrypted VAU messsage with user data
+ *
+ * <p>Flyweight view on a received message: the header fields are read from their offsets in the
+ * original buffer on access and the ciphertext is never copied, so it can be decrypted in place.
+ */
 public class EncryptedVauMessage {
 
-  private final Logger log = LoggerFactory.getLogger(this.getClass());
+  private static final Logger log = LoggerFactory.getLogger(EncryptedVauMessage.class);
 
-  private final byte[] message;
-
-  private final byte[] header;
-  private final byte version;
-  private final byte pu;
-  private final byte request;
-  private final byte[] requestCounter;
-  private final byte[] keyId;
+  private static final int HEADER_LENGTH = 1 + 1 + 1 + 8 + 32; // A_24628
+  private static final int IV_LENGTH = 12; // A_24628
+  private static final int MINIMUM_CIPHERTEXT_LENGTH = 1 + 1 + 1 + 8 + 32 + 12 + 1 + 16; // A_24628
+  private static final int VERSION_OFFSET = 0;
+  private static final int PU_OFFSET = 1;
+  private static final int REQUEST_OFFSET = 2;
+  private static final int COUNTER_OFFSET = 3;
+  private static final int KEY_ID_OFFSET = 11;
+  private static final int KEY_ID_LENGTH = 32;
 
-  private final byte[] iv;
-  private final byte[] ct;
+  private final ByteBuffer message;
 
-  private final boolean isPu;
-  private static final int MINIMUM_CIPHERTEXT_LENGTH = 1 + 1 + 1 + 8 + 32 + 12 + 1 + 16; // A_24628
+  @Getter private final boolean isPu;
 
   public EncryptedVauMessage(byte[] message, boolean isPu) {
+    this(ByteBuffer.wrap(message), isPu);
+  }
+
+  /**
+   * Wraps the remaining bytes of the buffer, heap and direct buffers are supported. The buffer's
+   * position and limit are not modified and nothing is copied, so the buffer must not be changed
+   * while this message is in use.
+   *
+   * @param message the encrypted message
+   * @param isPu whether we are in the production environment
+   */
+  public EncryptedVauMessage(ByteBuffer message, boolean isPu) {
     this.isPu = isPu;
-    if (message.length < MINIMUM_CIPHERTEXT_LENGTH) {
+    if (message.remaining() < MINIMUM_CIPHERTEXT_LENGTH) {
       throw new IllegalArgumentException(
           "Invalid ciphertext length. Needs to be at least "
               + MINIMUM_CIPHERTEXT_LENGTH
               + " bytes, but we received "
-              + message.length
+              + message.remaining()
               + " bytes!");
     }
+    // a slice is always big endian, as is the counter
+    this.message = message.slice();
+  }
+
+  public byte getVersion() {
+    return message.get(VERSION_OFFSET);
+  }
+
+  public byte getPu() {
+    return message.get(PU_OFFSET);
+  }
+
+  public byte getRequest() {
+    return message.get(REQUEST_OFFSET);
+  }
+
+  public long getRequestCounter() {
+    return message.getLong(COUNTER_OFFSET);
+  }
 
-    this.message = message;
-    this.header = ArrayUtils.subarray(message, 0, 43);
-    this.version = header[0];
-    this.pu = header[1];
-    this.request = header[2];
-    this.requestCounter = ArrayUtils.subarray(header, 3, 3 + 8);
-    this.keyId = ArrayUtils.subarray(header, 11, header.length);
-    this.iv = ArrayUtils.subarray(message, 43, 43 + 12);
-    this.ct = ArrayUtils.subarray(message, 55, message.length);
+  /**
+   * @return a view on the KeyID in the header
+   */
+  public ByteBuffer keyId() {
+    return message.slice(KEY_ID_OFFSET, KEY_ID_LENGTH);
+  }
+
+  /**
+   * @return a copy of the KeyID
+   */
+  public byte[] getKeyId() {
+    return toArray(keyId());
+  }
+
+  /**
+   * @return a view on the complete header, the AAD of the message
+   */
+  public ByteBuffer header() {
+    return message.slice(0, HEADER_LENGTH);
+  }
+
+  /**
+   * @return a copy of the complete header
+   */
+  public byte[] getHeader() {
+    return toArray(header());
+  }
+
+  /**
+   * @return a view on the IV
+   */
+  public ByteBuffer iv() {
+    return message.slice(HEADER_LENGTH, IV_LENGTH);
+  }
+
+  /**
+   * @return a copy of the IV
+   */
+  public byte[] getIv() {
+    return toArray(iv());
+  }
+
+  /**
+   * @return a new view on the ciphertext including the authentication tag
+   */
+  public ByteBuffer ciphertext() {
+    return message.slice(
+        HEADER_LENGTH + IV_LENGTH, message.remaining() - HEADER_LENGTH - IV_LENGTH);
+  }
+
+  /**
+   * @return a copy of the ciphertext including the authentication tag
+   */
+  public byte[] getCt() {
+    return toArray(ciphertext());
   }
 
   public void checkCommonMessageParameters() {
+    checkCommonMessageParameters(getVersion(), getPu(), isPu);
+  }
+
+  /**
+   * Checks version and PU byte of a header, for callers which only have the header at hand.
+   *
+   * @param version the version byte of the header
+   * @param pu the PU byte of the header
+   * @param isPu whether we are in the production environment
+   */
+  public static void checkCommonMessageParameters(byte version, byte pu, boolean isPu) {
     if (version != 0x02) {
       throw new IllegalArgumentException(
           "Invalid version byte. Expected 2, got %s".formatted(version));
@@ -96,16 +188,16 @@ public class EncryptedVauMessage {
                               IV      (12 Byte): {}
                               CT + GMAC        : {}
                         """,
-        Hex.toHexString(message),
-        message.length,
-        Hex.toHexString(header),
+        Hex.toHexString(toArray(message)),
+        message.remaining(),
+        Hex.toHexString(getHeader()),
         Hex.toHexString(serverSecretKey),
-        Hex.toHexString(unionByteArrays(version)),
-        Hex.toHexString(unionByteArrays(pu)),
-        Hex.toHexString(unionByteArrays(request)),
-        Hex.toHexString(requestCounter),
-        Hex.toHexString(keyId),
-        Hex.toHexString(iv),
-        Hex.toHexString(ct));
+        Hex.toHexString(unionByteArrays(getVersion())),
+        Hex.toHexString(unionByteArrays(getPu())),
+        Hex.toHexString(unionByteArrays(getRequest())),
+        "%016x".formatted(getRequestCounter()),
+        Hex.toHexString(getKeyId()),
+        Hex.toHexString(getIv()),
+        Hex.toHexString(getCt()));
   }
 }
@@ -17,8 +17,6 @@
 package de.gematik.vau.lib.data;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
 import de.gematik.vau.lib.exceptions.VauEncryptionException;
 import de.gematik.vau.lib.exceptions.VauProtocolException;
 import de.gematik.vau.lib.util.DigestUtils;
@@ -32,8 +30,6 @@ public record SignedPublicVauKeys(
     @JsonProperty("cdv") int cdv,
     @JsonProperty("ocsp_response") byte[] ocspResponse) {
 
-  private static final CBORMapper CBOR_MAPPER = new CBORMapper();
-
   /**
    * Builds the SignedPublicVauKeys using the input
    *
@@ -52,18 +48,14 @@ public record SignedPublicVauKeys(
       int cdv,
       VauPublicKeys vauServerKeys) {
 
-    try {
-      final byte[] keyBytes = CBOR_MAPPER.writeValueAsBytes(vauServerKeys);
-      return SignedPublicVauKeys.builder()
-          .signedPubKeys(keyBytes)
-          .certHash(DigestUtils.sha256(serverAutCertificate))
-          .cdv(cdv)
-          .ocspResponse(ocspResponseAutCertificate)
-          .signatureEs256(generateEccSignature(keyBytes, privateKey))
-          .build();
-    } catch (JsonProcessingException e) {
-      throw new VauEncryptionException("failed to encode and sign VAU keys", e);
-    }
+    final byte[] keyBytes = VauCborCodec.encode(vauServerKeys);
+    return SignedPublicVauKeys.builder()
+        .signedPubKeys(keyBytes)
+        .certHash(DigestUtils.sha256(serverAutCertificate))
+        .cdv(cdv)
+        .ocspResponse(ocspResponseAutCertificate)
+        .signatureEs256(generateEccSignature(keyBytes, privateKey))
+        .build();
   }
 
   private static byte[] generateEccSignature(byte[] tbsData, PrivateKey privateKey) {
@@ -82,7 +74,7 @@ public record SignedPublicVauKeys(
 
   public VauPublicKeys extractVauKeys() {
     try {
-      return CBOR_MAPPER.readValue(signedPubKeys, VauPublicKeys.class);
+      return VauCborCodec.decode(signedPubKeys, VauPublicKeys.class);
     } catch (IllegalArgumentException | IOException e) {
       throw new VauProtocolException("Error while extracting VauKeys", e);
     }
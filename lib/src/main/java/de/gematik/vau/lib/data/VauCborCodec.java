@@ -0,0 +1,373 @@
+/*
+ * Copyright 2024 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.vau.lib.data;
+
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.cbor.CBORGenerator;
+import com.fasterxml.jackson.dataformat.cbor.CBORParser;
+import de.gematik.vau.lib.exceptions.VauEncryptionException;
+import de.gematik.vau.lib.exceptions.VauProtocolException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Streaming CBOR codec for the handshake messages. Decodes a message in a single pass without
+ * building a tree or looking up an ObjectReader, and reads binary fields straight into arrays. The
+ * encoding is the same as the one of a Jackson {@code CBORMapper}, but binary fields must be CBOR
+ * byte strings, text is rejected. Unknown fields are skipped.
+ */
+public class VauCborCodec {
+
+  private static final CBORFactory FACTORY = new CBORFactory();
+  private static final int INITIAL_BUFFER_SIZE = 2048;
+
+  private static final String MESSAGE_TYPE = "MessageType";
+  private static final String ECDH_PK = "ECDH_PK";
+  private static final String KYBER_PK = "Kyber768_PK";
+  private static final String ECDH_CT = "ECDH_ct";
+  private static final String KYBER_CT = "Kyber768_ct";
+  private static final String AEAD_CT = "AEAD_ct";
+  private static final String AEAD_CT_KEY_CONFIRMATION = "AEAD_ct_key_confirmation";
+
+  private VauCborCodec() {}
+
+  /**
+   * Encodes a handshake message or one of its inner payloads
+   *
+   * @param value a {@link VauMessage1} to {@link VauMessage4}, {@link VauMessage3InnerLayer},
+   *     {@link VauPublicKeys} or {@link SignedPublicVauKeys}
+   * @return the CBOR encoded value
+   * @throws IllegalArgumentException if the type is not supported
+   */
+  public static byte[] encode(Object value) {
+    var out = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+    try (var gen = (CBORGenerator) FACTORY.createGenerator(out)) {
+      if (value instanceof VauMessage1 m) {
+        gen.writeStartObject();
+        writeEccPublicKey(gen, ECDH_PK, m.ecdhPublicKey());
+        writeBinary(gen, KYBER_PK, m.kyberPublicKeyBytes());
+        writeString(gen, MESSAGE_TYPE, m.messageType());
+      } else if (value instanceof VauMessage2 m) {
+        gen.writeStartObject();
+        writeString(gen, MESSAGE_TYPE, m.getMessageType());
+        writeEccPublicKey(gen, ECDH_CT, m.getEcdhCt());
+        writeBinary(gen, KYBER_CT, m.getKyberCt());
+        writeBinary(gen, AEAD_CT, m.getAeadCt());
+      } else if (value instanceof VauMessage3 m) {
+        gen.writeStartObject();
+        writeString(gen, MESSAGE_TYPE, m.getMessageType());
+        writeBinary(gen, AEAD_CT, m.getAeadCt());
+        writeBinary(gen, AEAD_CT_KEY_CONFIRMATION, m.getAeadCtKeyKonfirmation());
+      } else if (value instanceof VauMessage4 m) {
+        gen.writeStartObject();
+        writeString(gen, MESSAGE_TYPE, m.getMessageType());
+        writeBinary(gen, AEAD_CT_KEY_CONFIRMATION, m.getAeadCtKeyKonfirmation());
+      } else if (value instanceof VauMessage3InnerLayer m) {
+        gen.writeStartObject();
+        writeEccPublicKey(gen, ECDH_CT, m.getEcdhCt());
+        writeBinary(gen, KYBER_CT, m.getKyberCt());
+        gen.writeBooleanField("ERP", m.isErp());
+        gen.writeBooleanField("ESO", m.isEso());
+      } else if (value instanceof VauPublicKeys k) {
+        gen.writeStartObject();
+        gen.writeNumberField("iat", k.iat());
+        gen.writeNumberField("exp", k.exp());
+        writeString(gen, "comment", k.comment());
+        writeEccPublicKey(gen, ECDH_PK, k.ecdhPublicKey());
+        writeBinary(gen, KYBER_PK, k.kyberPublicKeyBytes());
+      } else if (value instanceof SignedPublicVauKeys k) {
+        gen.writeStartObject();
+        writeBinary(gen, "signed_pub_keys", k.signedPubKeys());
+        writeBinary(gen, "signature-ES256", k.signatureEs256());
+        writeBinary(gen, "cert_hash", k.certHash());
+        gen.writeNumberField("cdv", k.cdv());
+        writeBinary(gen, "ocsp_response", k.ocspResponse());
+      } else {
+        throw new IllegalArgumentException(
+            "Unsupported type " + (value == null ? null : value.getClass().getName()));
+      }
+      gen.writeEndObject();
+    } catch (IOException e) {
+      throw new VauEncryptionException("failed to encode message", e);
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Decodes one of the handshake messages 1 to 4, dispatching on its {@code MessageType}
+   *
+   * @param encoded the CBOR encoded message
+   * @return a {@link VauMessage1}, {@link VauMessage2}, {@link VauMessage3} or {@link VauMessage4}
+   * @throws IOException if the message is not well-formed
+   * @throws VauProtocolException if the message type is missing or unknown
+   */
+  public static Object decodeHandshakeMessage(byte[] encoded) throws IOException {
+    var fields = readMessageFields(encoded);
+    if (fields.messageType() == null) {
+      throw new VauProtocolException("Message type not recognized");
+    }
+    return switch (fields.messageType()) {
+      case "M1" -> fields.toMessage(VauMessage1.class);
+      case "M2" -> fields.toMessage(VauMessage2.class);
+      case "M3" -> fields.toMessage(VauMessage3.class);
+      case "M4" -> fields.toMessage(VauMessage4.class);
+      default ->
+          throw new VauProtocolException("Message type " + fields.messageType() + "not supported");
+    };
+  }
+
+  /**
+   * Decodes a value of a given type, see {@link #encode(Object)} for the supported types
+   *
+   * @param encoded the CBOR encoded value
+   * @param type the expected type
+   * @return the decoded value
+   * @throws IOException if the value is not well-formed
+   * @throws IllegalArgumentException if the type is not supported
+   */
+  public static <T> T decode(byte[] encoded, Class<T> type) throws IOException {
+    Object value;
+    if (type == VauMessage1.class
+        || type == VauMessage2.class
+        || type == VauMessage3.class
+        || type == VauMessage4.class) {
+      value = readMessageFields(encoded).toMessage(type);
+    } else if (type == VauMessage3InnerLayer.class) {
+      value = decodeMessage3InnerLayer(encoded);
+    } else if (type == VauPublicKeys.class) {
+      value = decodeVauPublicKeys(encoded);
+    } else if (type == SignedPublicVauKeys.class) {
+      value = decodeSignedPublicVauKeys(encoded);
+    } else {
+      throw new IllegalArgumentException("Unsupported type " + type.getName());
+    }
+    return type.cast(value);
+  }
+
+  private static MessageFields readMessageFields(byte[] encoded) throws IOException {
+    String messageType = null;
+    VauEccPublicKey ecdhPublicKey = null;
+    VauEccPublicKey ecdhCt = null;
+    byte[] kyberPublicKey = null;
+    byte[] kyberCt = null;
+    byte[] aeadCt = null;
+    byte[] aeadCtKeyConfirmation = null;
+    try (var p = startObject(encoded)) {
+      while (p.nextToken() == JsonToken.FIELD_NAME) {
+        var name = p.currentName();
+        p.nextToken();
+        switch (name) {
+          case MESSAGE_TYPE ->
+              messageType = p.currentToken() == JsonToken.VALUE_STRING ? p.getText() : null;
+          case ECDH_PK -> ecdhPublicKey = readEccPublicKey(p);
+          case KYBER_PK -> kyberPublicKey = readBinary(p);
+          case ECDH_CT -> ecdhCt = readEccPublicKey(p);
+          case KYBER_CT -> kyberCt = readBinary(p);
+          case AEAD_CT -> aeadCt = readBinary(p);
+          case AEAD_CT_KEY_CONFIRMATION -> aeadCtKeyConfirmation = readBinary(p);
+          default -> p.skipChildren();
+        }
+      }
+    }
+    return new MessageFields(
+        messageType, ecdhPublicKey, kyberPublicKey, ecdhCt, kyberCt, aeadCt, aeadCtKeyConfirmation);
+  }
+
+  private static VauMessage3InnerLayer decodeMessage3InnerLayer(byte[] encoded) throws IOException {
+    VauEccPublicKey ecdhCt = null;
+    byte[] kyberCt = null;
+    boolean erp = false;
+    boolean eso = false;
+    try (var p = startObject(encoded)) {
+      while (p.nextToken() == JsonToken.FIELD_NAME) {
+        var name = p.currentName();
+        p.nextToken();
+        switch (name) {
+          case ECDH_CT -> ecdhCt = readEccPublicKey(p);
+          case KYBER_CT -> kyberCt = readBinary(p);
+          case "ERP" -> erp = readBoolean(p);
+          case "ESO" -> eso = readBoolean(p);
+          default -> p.skipChildren();
+        }
+      }
+    }
+    return new VauMessage3InnerLayer(ecdhCt, kyberCt, erp, eso);
+  }
+
+  private static VauPublicKeys decodeVauPublicKeys(byte[] encoded) throws IOException {
+    int iat = 0;
+    int exp = 0;
+    String comment = null;
+    VauEccPublicKey ecdhPublicKey = null;
+    byte[] kyberPublicKey = null;
+    try (var p = startObject(encoded)) {
+      while (p.nextToken() == JsonToken.FIELD_NAME) {
+        var name = p.currentName();
+        p.nextToken();
+        switch (name) {
+          case "iat" -> iat = readInt(p);
+          case "exp" -> exp = readInt(p);
+          case "comment" -> comment = readString(p);
+          case ECDH_PK -> ecdhPublicKey = readEccPublicKey(p);
+          case KYBER_PK -> kyberPublicKey = readBinary(p);
+          default -> p.skipChildren();
+        }
+      }
+    }
+    return new VauPublicKeys(iat, exp, comment, ecdhPublicKey, kyberPublicKey);
+  }
+
+  private static SignedPublicVauKeys decodeSignedPublicVauKeys(byte[] encoded) throws IOException {
+    var builder = SignedPublicVauKeys.builder();
+    try (var p = startObject(encoded)) {
+      while (p.nextToken() == JsonToken.FIELD_NAME) {
+        var name = p.currentName();
+        p.nextToken();
+        switch (name) {
+          case "signed_pub_keys" -> builder.signedPubKeys(readBinary(p));
+          case "signature-ES256" -> builder.signatureEs256(readBinary(p));
+          case "cert_hash" -> builder.certHash(readBinary(p));
+          case "cdv" -> builder.cdv(readInt(p));
+          case "ocsp_response" -> builder.ocspResponse(readBinary(p));
+          default -> p.skipChildren();
+        }
+      }
+    }
+    return builder.build();
+  }
+
+  private static CBORParser startObject(byte[] encoded) throws IOException {
+    if (encoded == null) {
+      throw new IOException("No content to decode");
+    }
+    var p = FACTORY.createParser(encoded);
+    if (p.nextToken() != JsonToken.START_OBJECT) {
+      var token = p.currentToken();
+      p.close();
+      throw new IOException("Expected a map but found " + token);
+    }
+    return p;
+  }
+
+  private static VauEccPublicKey readEccPublicKey(CBORParser p) throws IOException {
+    if (p.currentToken() == JsonToken.VALUE_NULL) {
+      return null;
+    }
+    if (p.currentToken() != JsonToken.START_OBJECT) {
+      throw new IOException("Expected a map but found " + p.currentToken());
+    }
+    String crv = null;
+    byte[] x = null;
+    byte[] y = null;
+    while (p.nextToken() == JsonToken.FIELD_NAME) {
+      var name = p.currentName();
+      p.nextToken();
+      switch (name) {
+        case "crv" -> crv = readString(p);
+        case "x" -> x = readBinary(p);
+        case "y" -> y = readBinary(p);
+        default -> p.skipChildren();
+      }
+    }
+    return new VauEccPublicKey(crv, x, y);
+  }
+
+  private static byte[] readBinary(CBORParser p) throws IOException {
+    return switch (p.currentToken()) {
+      case VALUE_NULL -> null;
+      case VALUE_EMBEDDED_OBJECT -> p.getBinaryValue();
+      default -> throw new IOException("Expected byte array but found " + p.currentToken());
+    };
+  }
+
+  private static String readString(CBORParser p) throws IOException {
+    return switch (p.currentToken()) {
+      case VALUE_NULL -> null;
+      case VALUE_STRING -> p.getText();
+      default -> throw new IOException("Expected text but found " + p.currentToken());
+    };
+  }
+
+  private static int readInt(CBORParser p) throws IOException {
+    if (p.currentToken() != JsonToken.VALUE_NUMBER_INT) {
+      throw new IOException("Expected integer but found " + p.currentToken());
+    }
+    return p.getIntValue();
+  }
+
+  private static boolean readBoolean(CBORParser p) throws IOException {
+    return switch (p.currentToken()) {
+      case VALUE_TRUE -> true;
+      case VALUE_FALSE -> false;
+      default -> throw new IOException("Expected boolean but found " + p.currentToken());
+    };
+  }
+
+  private static void writeEccPublicKey(CBORGenerator gen, String name, VauEccPublicKey key)
+      throws IOException {
+    gen.writeFieldName(name);
+    if (key == null) {
+      gen.writeNull();
+      return;
+    }
+    gen.writeStartObject();
+    writeString(gen, "crv", key.getCrv());
+    writeBinary(gen, "x", key.getX());
+    writeBinary(gen, "y", key.getY());
+    gen.writeEndObject();
+  }
+
+  private static void writeBinary(CBORGenerator gen, String name, byte[] value) throws IOException {
+    gen.writeFieldName(name);
+    if (value == null) {
+      gen.writeNull();
+    } else {
+      gen.writeBinary(value);
+    }
+  }
+
+  private static void writeString(CBORGenerator gen, String name, String value) throws IOException {
+    gen.writeFieldName(name);
+    if (value == null) {
+      gen.writeNull();
+    } else {
+      gen.writeString(value);
+    }
+  }
+
+  private record MessageFields(
+      String messageType,
+      VauEccPublicKey ecdhPublicKey,
+      byte[] kyberPublicKey,
+      VauEccPublicKey ecdhCt,
+      byte[] kyberCt,
+      byte[] aeadCt,
+      byte[] aeadCtKeyConfirmation) {
+
+    Object toMessage(Class<?> type) {
+      if (type == VauMessage1.class) {
+        return new VauMessage1(ecdhPublicKey, kyberPublicKey, messageType);
+      } else if (type == VauMessage2.class) {
+        return new VauMessage2(messageType, ecdhCt, kyberCt, aeadCt);
+      } else if (type == VauMessage3.class) {
+        return new VauMessage3(messageType, aeadCt, aeadCtKeyConfirmation);
+      }
+      return new VauMessage4(messageType, aeadCtKeyConfirmation);
+    }
+  }
+}
@@ -17,9 +17,11 @@
 package de.gematik.vau.lib.data;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import de.gematik.vau.lib.crypto.KyberEngine;
 import de.gematik.vau.lib.crypto.KyberKeys;
 import java.security.PublicKey;
 import org.bouncycastle.jce.interfaces.ECPublicKey;
+import org.bouncycastle.pqc.crypto.crystals.kyber.KyberPublicKeyParameters;
 
 public record VauMessage1(
     @JsonProperty("ECDH_PK") VauEccPublicKey ecdhPublicKey,
@@ -35,4 +37,8 @@ public record VauMessage1(
   public PublicKey kyberPublicKey() {
     return KyberKeys.decodeKyberPublicKey(kyberPublicKeyBytes);
   }
+
+  public KyberPublicKeyParameters kyberPublicKeyParameters() {
+    return KyberEngine.parsePublicKey(kyberPublicKeyBytes);
+  }
 }
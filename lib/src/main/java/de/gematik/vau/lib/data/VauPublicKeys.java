@@ -17,11 +17,13 @@
 package de.gematik.vau.lib.data;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
-import de.gematik.vau.lib.crypto.KyberKeys;
+import de.gematik.vau.lib.crypto.PublicKeyCache;
 import java.security.PublicKey;
 import java.time.Duration;
 import java.time.Instant;
 import org.bouncycastle.jce.interfaces.ECPublicKey;
+import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.pqc.crypto.crystals.kyber.KyberPublicKeyParameters;
 
 public record VauPublicKeys(
     @JsonProperty("iat") int iat,
@@ -36,12 +38,19 @@ public record VauPublicKeys(
     var exp = (int) (iat + validity.toSeconds());
 
     var ecdhPublicKey = new VauEccPublicKey((ECPublicKey) eccKyberKeyPair.eccKeyPair().getPublic());
-    var kyberPublicKeyBytes =
-        KyberKeys.extractCompactKyberPublicKey(eccKyberKeyPair.kyberKeyPair());
+    var kyberPublicKeyBytes = PublicKeyCache.compactKyberPublicKey(eccKyberKeyPair.kyberKeyPair());
     return new VauPublicKeys(iat, exp, comment, ecdhPublicKey, kyberPublicKeyBytes);
   }
 
   public PublicKey kyberPublicKey() {
-    return KyberKeys.decodeKyberPublicKey(kyberPublicKeyBytes);
+    return PublicKeyCache.kyberPublicKey(kyberPublicKeyBytes);
+  }
+
+  public KyberPublicKeyParameters kyberPublicKeyParameters() {
+    return PublicKeyCache.kyberPublicKeyParameters(kyberPublicKeyBytes);
+  }
+
+  public ECPoint ecdhPublicPoint() {
+    return PublicKeyCache.ecdhPublicKey(ecdhPublicKey);
   }
 }
@@ -21,4 +21,8 @@ public class VauKyberCryptoException extends VauException {
   public VauKyberCryptoException(String message, Exception e) {
     super(message, e);
   }
+
+  public VauKyberCryptoException(String message) {
+    super(message, null);
+  }
 }
@@ -21,4 +21,8 @@ public class VauServerException extends VauException {
   public VauServerException(String message, Throwable cause) {
     super(message, cause);
   }
+
+  public VauServerException(String message) {
+    this(message, null);
+  }
 }
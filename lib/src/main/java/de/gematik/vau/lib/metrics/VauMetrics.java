@@ -0,0 +1,79 @@
+/*
+ * Copyright 2024 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.gematik.vau.lib.metrics;
+
+import de.gematik.vau.lib.metrics.VauMetricsListener.DecryptFailure;
+import de.gematik.vau.lib.metrics.VauMetricsListener.HandshakePhase;
+import de.gematik.vau.lib.metrics.VauMetricsListener.HandshakeStep;
+
+/**
+ * Holds the {@link VauMetricsListener} of the library. As long as none is installed, recording
+ * costs a volatile read and no clock is read.
+ */
+public class VauMetrics {
+
+  private static volatile VauMetricsListener listener = VauMetricsListener.NO_OP;
+
+  private VauMetrics() {}
+
+  /**
+   * @param metricsListener the listener, {@code null} to stop recording
+   */
+  public static void setListener(VauMetricsListener metricsListener) {
+    listener = metricsListener != null ? metricsListener : VauMetricsListener.NO_OP;
+  }
+
+  public static VauMetricsListener getListener() {
+    return listener;
+  }
+
+  /**
+   * @return the start time to pass to the record methods, 0 if nothing is recorded
+   */
+  public static long start() {
+    return listener == VauMetricsListener.NO_OP ? 0 : System.nanoTime();
+  }
+
+  public static void recordPhase(HandshakePhase phase, long start) {
+    if (start != 0) {
+      listener.handshakePhase(phase, System.nanoTime() - start);
+    }
+  }
+
+  public static void recordStep(HandshakeStep step, long start) {
+    if (start != 0) {
+      listener.handshakeStep(step, System.nanoTime() - start);
+    }
+  }
+
+  public static void recordEncrypted(long cleartextLength) {
+    var current = listener;
+    if (current != VauMetricsListener.NO_OP) {
+      current.messageEncrypted(cleartextLength);
+    }
+  }
+
+  public static void recordDecrypted(long cleartextLength) {
+    var current = listener;
+    if (current != VauMetricsListener.NO_OP) {
+      current.messageDecrypted(cleartextLength);
+    }
+  }
+
+  public static void recordDecryptFailure(DecryptFailure cause) {
+    listener.decryptFailed(cause);
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2024 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.gematik.vau.lib.metrics;
+
+/**
+ * Receives timings of the handshake and sizes of the messages encrypted afterward, install it with
+ * {@link VauMetrics#setListener(VauMetricsListener)}. All methods are called on the thread doing
+ * the work, so implementations must be thread-safe and fast; every method does nothing by default.
+ */
+public interface VauMetricsListener {
+
+  /** The listener installed by default, it is not called at all. */
+  VauMetricsListener NO_OP = new VauMetricsListener() {};
+
+  /**
+   * A single cryptographic or encoding operation of the handshake has completed.
+   *
+   * @param phase the operation
+   * @param nanos time it took
+   */
+  default void handshakePhase(HandshakePhase phase, long nanos) {}
+
+  /**
+   * A state machine has processed a handshake message, including all its phases.
+   *
+   * @param step the message processed
+   * @param nanos time it took
+   */
+  default void handshakeStep(HandshakeStep step, long nanos) {}
+
+  /**
+   * @param cleartextLength length of the cleartext of an encrypted message
+   */
+  default void messageEncrypted(long cleartextLength) {}
+
+  /**
+   * @param cleartextLength length of the cleartext of a decrypted message
+   */
+  default void messageDecrypted(long cleartextLength) {}
+
+  /**
+   * A received message has been rejected.
+   *
+   * @param cause why it has been rejected
+   */
+  default void decryptFailed(DecryptFailure cause) {}
+
+  enum HandshakePhase {
+    /** generation of the client's ECDH and Kyber key pairs for message 1 */
+    KEY_GENERATION,
+    /** ECDH agreement with an ephemeral key and Kyber encapsulation */
+    KEM_ENCAPSULATE,
+    /** ECDH agreement with an own key and Kyber decapsulation */
+    KEM_DECAPSULATE,
+    KDF,
+    AEAD_ENCRYPT,
+    AEAD_DECRYPT,
+    CBOR_ENCODE,
+    CBOR_DECODE
+  }
+
+  enum HandshakeStep {
+    GENERATE_MESSAGE_1,
+    RECEIVE_MESSAGE_1,
+    RECEIVE_MESSAGE_2,
+    RECEIVE_MESSAGE_3,
+    RECEIVE_MESSAGE_4
+  }
+
+  enum DecryptFailure {
+    /** length, version or PU byte of the header are invalid */
+    MALFORMED,
+    /** the request byte does not match the direction */
+    REQUEST_BYTE,
+    /** the request counter is not the expected one */
+    REQUEST_COUNTER,
+    /** the KeyID does not belong to this session */
+    KEY_ID,
+    /** the authentication tag does not match */
+    AUTHENTICATION
+  }
+}
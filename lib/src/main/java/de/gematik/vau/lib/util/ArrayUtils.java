@@ -16,6 +16,7 @@
 
 package de.gematik.vau.lib.util;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.stream.Stream;
 
@@ -66,6 +67,16 @@ public class ArrayUtils {
     return array != null ? array.clone() : null;
   }
 
+  /**
+   * @param buffer a buffer, its position is not modified
+   * @return a copy of the remaining bytes of the buffer
+   */
+  public static byte[] toArray(ByteBuffer buffer) {
+    var dst = new byte[buffer.remaining()];
+    buffer.get(buffer.position(), dst);
+    return dst;
+  }
+
   public static byte[] subarray(
       final byte[] array, int startIndexInclusive, int endIndexExclusive) {
     if (array == null) {
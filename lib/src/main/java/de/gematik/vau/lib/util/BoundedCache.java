@@ -0,0 +1,85 @@
+/*
+ * Copyright 2024 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.vau.lib.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Small thread-safe cache with an upper bound on its size. Meant for values which are expensive to
+ * compute and rarely change, like decoded keys; once the bound is reached an arbitrary entry is
+ * evicted.
+ */
+public class BoundedCache<K, V> {
+
+  private final int maximumSize;
+  private final ConcurrentHashMap<K, V> entries = new ConcurrentHashMap<>();
+
+  public BoundedCache(int maximumSize) {
+    if (maximumSize <= 0) {
+      throw new IllegalArgumentException("maximumSize must be positive, got " + maximumSize);
+    }
+    this.maximumSize = maximumSize;
+  }
+
+  /**
+   * Returns the cached value or computes and caches it. The value is computed outside of any lock,
+   * so concurrent callers may compute it more than once, but all of them get the cached instance.
+   * Exceptions of the loader are passed on and nothing is cached.
+   *
+   * @param key the key
+   * @param loader computes the value for the key, must not return {@code null}
+   * @return the value
+   */
+  public V get(K key, Function<? super K, ? extends V> loader) {
+    var value = entries.get(key);
+    if (value != null) {
+      return value;
+    }
+    value = loader.apply(key);
+    var previous = putIfAbsent(key, value);
+    return previous != null ? previous : value;
+  }
+
+  /**
+   * @param key the key
+   * @param value the value
+   * @return the value already cached for the key, or {@code null} if the new value was cached
+   */
+  public V putIfAbsent(K key, V value) {
+    if (entries.size() >= maximumSize && !entries.containsKey(key)) {
+      evictOne();
+    }
+    return entries.putIfAbsent(key, value);
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  public void clear() {
+    entries.clear();
+  }
+
+  private void evictOne() {
+    var iterator = entries.keySet().iterator();
+    if (iterator.hasNext()) {
+      iterator.next();
+      iterator.remove();
+    }
+  }
+}
@@ -19,6 +19,7 @@ package de.gematik.vau.lib.util;
 
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import org.bouncycastle.crypto.digests.SHA256Digest;
 
 // borrowed from apache-commons
 public class DigestUtils {
@@ -38,4 +39,33 @@ public class DigestUtils {
       throw new IllegalStateException(e);
     }
   }
+
+  /**
+   * Calculates the SHA-256 digest of everything hashed so far followed by {@code data}, without
+   * changing the running digest, so it can go on hashing e.g. a handshake transcript.
+   *
+   * @param running the running digest
+   * @param data Data to digest after the running digest's input
+   * @return SHA-256 digest
+   */
+  public static byte[] sha256(final SHA256Digest running, final byte[] data) {
+    var digest = new SHA256Digest(running);
+    digest.update(data, 0, data.length);
+    var result = new byte[digest.getDigestSize()];
+    digest.doFinal(result, 0);
+    return result;
+  }
+
+  /**
+   * Completes the running digest and returns the SHA-256 digest of everything hashed so far. The
+   * running digest is reset afterwards, so callers use this for the last hash of a transcript.
+   *
+   * @param running the running digest
+   * @return SHA-256 digest
+   */
+  public static byte[] finish(final SHA256Digest running) {
+    var result = new byte[running.getDigestSize()];
+    running.doFinal(result, 0);
+    return result;
+  }
 }
@@ -17,24 +17,30 @@
 package de.gematik.vau;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.Logger;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import de.gematik.vau.lib.AbstractVauStateMachine;
 import de.gematik.vau.lib.VauClientStateMachine;
 import de.gematik.vau.lib.VauServerStateMachine;
 import de.gematik.vau.lib.data.EccKyberKeyPair;
 import de.gematik.vau.lib.data.SignedPublicVauKeys;
 import de.gematik.vau.lib.data.VauPublicKeys;
+import de.gematik.vau.lib.exceptions.VauDecryptionException;
 import de.gematik.vau.lib.exceptions.VauProtocolException;
 import de.gematik.vau.lib.util.ArrayUtils;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
@@ -42,6 +48,7 @@ import java.security.*;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.time.Duration;
+import java.util.Arrays;
 import java.util.UUID;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -218,6 +225,120 @@ class VauHandshakeTest {
     assertThat(decryptedServerVauMessage).isEqualTo(plaintextResponse.getBytes());
   }
 
+  @Test
+  void testHandshake_buffers() throws Exception {
+
+    var server = setupServer();
+    var client = new VauClientStateMachine();
+
+    var message2Encoded = server.receiveMessage(client.generateMessage1());
+    var message4Encoded = server.receiveMessage(client.receiveMessage2(message2Encoded));
+    client.receiveMessage4(message4Encoded);
+
+    // when: client -> server, direct buffers
+    var plaintextRequest = "Ping?".getBytes();
+    var src = ByteBuffer.allocateDirect(plaintextRequest.length).put(plaintextRequest).flip();
+    var encrypted =
+        ByteBuffer.allocateDirect(AbstractVauStateMachine.encryptedLength(src.remaining()));
+    client.encryptVauMessage(src, encrypted);
+    encrypted.flip();
+
+    var decrypted =
+        ByteBuffer.allocateDirect(AbstractVauStateMachine.decryptedLength(encrypted.remaining()));
+    var written = server.decryptVauMessage(encrypted, decrypted);
+
+    // then
+    assertThat(written).isEqualTo(plaintextRequest.length);
+    assertThat(encrypted.hasRemaining()).isFalse();
+    assertThat(decrypted.flip()).isEqualTo(ByteBuffer.wrap(plaintextRequest));
+
+    // when: server -> client, array slices
+    var framedResponse = "__Pong!__".getBytes();
+    var encryptedResponse = server.encryptVauMessage(framedResponse, 2, 5);
+    var framedEncryptedResponse = ArrayUtils.addAll(new byte[3], encryptedResponse);
+
+    var decryptedResponse =
+        client.decryptVauMessage(framedEncryptedResponse, 3, encryptedResponse.length);
+
+    // then
+    assertThat(decryptedResponse).isEqualTo("Pong!".getBytes());
+  }
+
+  @Test
+  void testHandshake_streams() throws Exception {
+
+    var server = setupServer();
+    var client = new VauClientStateMachine();
+
+    var message2Encoded = server.receiveMessage(client.generateMessage1());
+    var message4Encoded = server.receiveMessage(client.receiveMessage2(message2Encoded));
+    client.receiveMessage4(message4Encoded);
+
+    var document = new byte[3 * 1024 * 1024 + 17];
+    new SecureRandom().nextBytes(document);
+
+    // when: client -> server, streamed in odd sized pieces
+    var encryptedRequest = new ByteArrayOutputStream();
+    try (var out = client.encryptingStream(encryptedRequest)) {
+      for (int offset = 0; offset < document.length; offset += 5000) {
+        out.write(document, offset, Math.min(5000, document.length - offset));
+      }
+    }
+
+    // then: it's a regular VAU message
+    assertThat(encryptedRequest.size())
+        .isEqualTo(AbstractVauStateMachine.encryptedLength(document.length));
+    assertThat(server.decryptVauMessage(encryptedRequest.toByteArray())).isEqualTo(document);
+
+    // when: server -> client, regular message read as stream
+    var encryptedResponse = server.encryptVauMessage(document);
+    byte[] decryptedResponse;
+    try (var in = client.decryptingStream(new ByteArrayInputStream(encryptedResponse))) {
+      decryptedResponse = in.readAllBytes();
+    }
+
+    // then
+    assertThat(decryptedResponse).isEqualTo(document);
+
+    // when: a manipulated message is read
+    var manipulated = server.encryptVauMessage(document);
+    manipulated[manipulated.length - 1000] ^= 1;
+    var in = client.decryptingStream(new ByteArrayInputStream(manipulated));
+
+    // then: the tag check fails at the end
+    assertThatThrownBy(in::readAllBytes).isInstanceOf(VauDecryptionException.class);
+  }
+
+  @Test
+  void testHandshake_streamsReleaseCleartextPerChunk() throws Exception {
+
+    // default backend, whose JCA AES/GCM would hold back the complete message
+    var server = setupServer();
+    var client = new VauClientStateMachine();
+
+    var message2Encoded = server.receiveMessage(client.generateMessage1());
+    var message4Encoded = server.receiveMessage(client.receiveMessage2(message2Encoded));
+    client.receiveMessage4(message4Encoded);
+
+    var document = new byte[3 * 1024 * 1024];
+    new SecureRandom().nextBytes(document);
+    var encryptedResponse = server.encryptVauMessage(document);
+
+    // when: the first bytes are read
+    var source = new ByteArrayInputStream(encryptedResponse);
+    var in = client.decryptingStream(source);
+    var first = in.readNBytes(100);
+
+    // then: only the header and a single chunk were read from the source
+    assertThat(first).isEqualTo(Arrays.copyOf(document, 100));
+    assertThat(encryptedResponse.length - source.available()).isLessThanOrEqualTo(55 + 8 * 1024);
+    assertThat(in.available()).isLessThanOrEqualTo(8 * 1024);
+
+    // and the rest follows, authenticated at the end
+    var rest = in.readAllBytes();
+    assertThat(rest).isEqualTo(Arrays.copyOfRange(document, 100, document.length));
+  }
+
   private VauServerStateMachine setupServer()
       throws NoSuchAlgorithmException, IOException, InvalidKeySpecException {
 
@@ -40,6 +40,7 @@ import java.security.*;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.time.Duration;
 import java.util.Arrays;
+import org.bouncycastle.crypto.digests.SHA256Digest;
 import org.bouncycastle.jce.interfaces.ECPrivateKey;
 import org.bouncycastle.jce.interfaces.ECPublicKey;
 import org.bouncycastle.pqc.jcajce.provider.BouncyCastlePQCProvider;
@@ -243,7 +244,9 @@ class ExceptionTest {
     byte[] incorrectHash = new byte[10];
 
     try (MockedStatic<DigestUtils> utilities = mockStatic(DigestUtils.class)) {
-      utilities.when(() -> DigestUtils.sha256(any(byte[].class))).thenReturn(incorrectHash);
+      utilities
+          .when(() -> DigestUtils.sha256(any(SHA256Digest.class), any(byte[].class)))
+          .thenReturn(incorrectHash);
       assertThatThrownBy(() -> server.receiveMessage(message3Encoded))
           .isInstanceOf(VauProtocolException.class)
           .hasMessageContaining("Client transcript hash and vau calculation do not equal.");
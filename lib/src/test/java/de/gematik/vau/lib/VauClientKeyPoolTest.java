@@ -0,0 +1,73 @@
+/*
+ * Copyright 2024 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.vau.lib;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class VauClientKeyPoolTest {
+
+  @BeforeEach
+  void setUp() {
+    TestVauKeys.registerProviders();
+  }
+
+  @Test
+  void keysAreHandedOutOnceAndRefilled() {
+    try (var pool = new VauClientKeyPool(2, Runnable::run)) {
+      assertThat(pool.size()).isEqualTo(2);
+
+      var first = pool.take();
+      var second = pool.take();
+
+      assertThat(second.keyPair()).isNotSameAs(first.keyPair());
+      assertThat(second.message1Encoded()).isNotEqualTo(first.message1Encoded());
+      assertThat(pool.size()).isEqualTo(2);
+    }
+  }
+
+  @Test
+  void emptyPoolGeneratesSynchronously() {
+    try (var pool = new VauClientKeyPool(1, task -> {})) {
+      assertThat(pool.size()).isZero();
+
+      var key = pool.take();
+
+      assertThat(key.keyPair()).isNotNull();
+      assertThat(key.message1Encoded()).isNotEmpty();
+    }
+  }
+
+  @Test
+  void handshakeWithPooledKey() {
+    var server = TestVauKeys.server();
+
+    try (var pool = new VauClientKeyPool(1, Runnable::run)) {
+      var client = new VauClientStateMachine(false, pool);
+
+      var message1 = client.generateMessage1();
+      var message2 = server.receiveMessage(message1);
+      var message4 = server.receiveMessage(client.receiveMessage2(message2));
+      client.receiveMessage4(message4);
+
+      assertThat(server.decryptVauMessage(client.encryptVauMessage("Ping?".getBytes())))
+          .isEqualTo("Ping?".getBytes());
+    }
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2024 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.vau.lib;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class VauReplayWindowTest {
+
+  @Test
+  void acceptsEveryCounterOnce() {
+    var window = new VauReplayWindow(64);
+
+    assertThat(window.accept(1)).isTrue();
+    assertThat(window.accept(2)).isTrue();
+    assertThat(window.isFresh(2)).isFalse();
+    assertThat(window.accept(2)).isFalse();
+    assertThat(window.highest()).isEqualTo(2);
+  }
+
+  @Test
+  void acceptsOutOfOrderCountersInsideTheWindow() {
+    var window = new VauReplayWindow(64);
+
+    assertThat(window.accept(100)).isTrue();
+    assertThat(window.accept(40)).isTrue();
+    assertThat(window.accept(99)).isTrue();
+    assertThat(window.accept(37)).isTrue();
+
+    assertThat(window.accept(40)).isFalse();
+    assertThat(window.accept(36)).isFalse();
+    assertThat(window.isFresh(36)).isFalse();
+    assertThat(window.highest()).isEqualTo(100);
+  }
+
+  @Test
+  void rejectsCountersEvictedByLaterBlocks() {
+    var window = new VauReplayWindow(32);
+    assertThat(window.accept(5)).isTrue();
+
+    assertThat(window.accept(5 + 32 * 64)).isTrue();
+
+    assertThat(window.isFresh(6)).isFalse();
+    assertThat(window.accept(6)).isFalse();
+    assertThat(window.accept(5 + 32 * 64 - 31)).isTrue();
+  }
+
+  @Test
+  void rejectsCountersOutsideTheRange() {
+    var window = new VauReplayWindow();
+
+    assertThat(window.accept(-1)).isFalse();
+    assertThat(window.accept(VauReplayWindow.MAX_REQUEST_COUNTER + 1)).isFalse();
+    assertThat(window.accept(VauReplayWindow.MAX_REQUEST_COUNTER)).isTrue();
+    assertThatThrownBy(() -> new VauReplayWindow(0)).isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  void concurrentDuplicatesAreAcceptedOnce() throws Exception {
+    var window = new VauReplayWindow(4096);
+    var accepted = new AtomicInteger();
+    var executor = Executors.newFixedThreadPool(4);
+    try {
+      var tasks = new ArrayList<Callable<Void>>();
+      for (int t = 0; t < 4; t++) {
+        tasks.add(
+            () -> {
+              for (long counter = 1; counter <= 4000; counter++) {
+                if (window.accept(counter)) {
+                  accepted.incrementAndGet();
+                }
+              }
+              return null;
+            });
+      }
+      for (Future<Void> future : executor.invokeAll(tasks)) {
+        future.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertThat(accepted).hasValue(4000);
+    assertThat(window.highest()).isEqualTo(4000);
+  }
+}
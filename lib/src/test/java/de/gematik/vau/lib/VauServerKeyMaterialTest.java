@@ -0,0 +1,61 @@
+/*
+ * Copyright 2024 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.vau.lib;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import de.gematik.vau.lib.data.EccKyberKeyPair;
+import de.gematik.vau.lib.data.SignedPublicVauKeys;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class VauServerKeyMaterialTest {
+
+  private SignedPublicVauKeys signedPublicVauKeys;
+  private EccKyberKeyPair serverVauKeyPair;
+
+  @BeforeEach
+  void setUp() {
+    serverVauKeyPair = TestVauKeys.serverVauKeyPair();
+    signedPublicVauKeys = TestVauKeys.signedPublicVauKeys(serverVauKeyPair);
+  }
+
+  @Test
+  void snapshotHoldsParsedAndEncodedKeys() {
+    var keyMaterial = VauServerKeyMaterial.of(signedPublicVauKeys, serverVauKeyPair);
+
+    var vauKeys = signedPublicVauKeys.extractVauKeys();
+    assertThat(keyMaterial.getIat()).isEqualTo(vauKeys.iat());
+    assertThat(keyMaterial.getExp()).isEqualTo(vauKeys.exp());
+    assertThat(keyMaterial.getSignedPublicVauKeysEncoded())
+        .isEqualTo(AbstractVauStateMachine.writeCbor(signedPublicVauKeys));
+  }
+
+  @Test
+  void snapshotIsSharedBetweenHandshakes() {
+    var keyMaterial = VauServerKeyMaterial.of(signedPublicVauKeys, serverVauKeyPair);
+
+    for (int i = 0; i < 2; i++) {
+      var server = new VauServerStateMachine(keyMaterial);
+      var client = TestVauKeys.handshake(new VauClientStateMachine(), server);
+
+      assertThat(server.getSignedPublicVauKeys()).isSameAs(signedPublicVauKeys);
+      assertThat(server.decryptVauMessage(client.encryptVauMessage("Ping?".getBytes())))
+          .isEqualTo("Ping?".getBytes());
+    }
+  }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2024 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.vau.lib;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import de.gematik.vau.lib.exceptions.VauProtocolException;
+import de.gematik.vau.lib.exceptions.VauServerException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+class VauServerTest {
+
+  private static VauServerKeyMaterial keyMaterial;
+
+  private final MutableClock clock = new MutableClock(Instant.parse("2024-06-01T12:00:00Z"));
+  private VauServer server;
+
+  @BeforeAll
+  static void setUpKeys() {
+    keyMaterial = TestVauKeys.keyMaterial();
+  }
+
+  @AfterEach
+  void tearDown() {
+    if (server != null) {
+      server.close();
+    }
+  }
+
+  @Test
+  void concurrentHandshakesAndRequests() {
+    server = builder().build();
+
+    var handshakes = new ArrayList<CompletableFuture<VauSession>>();
+    for (int i = 0; i < 8; i++) {
+      handshakes.add(CompletableFuture.supplyAsync(this::handshake));
+    }
+    var clients = handshakes.stream().map(CompletableFuture::join).toList();
+
+    assertThat(server.sessions()).isEqualTo(8);
+    assertThat(server.pendingHandshakes()).isZero();
+    for (var client : clients) {
+      var request = client.encryptRequest(new byte[] {1, 2});
+      var received = server.decrypt(request.body());
+
+      assertThat(received.body()).containsExactly(1, 2);
+      var response = received.session().encrypt(received.requestCounter(), new byte[] {3});
+      assertThat(client.decrypt(response, request.requestCounter())).containsExactly(3);
+    }
+  }
+
+  @Test
+  void allocatesDistinctSpecCompliantCids() {
+    server = builder().cidPrefix("/tunnel/").build();
+
+    var cids = new HashSet<String>();
+    for (int i = 0; i < 4; i++) {
+      var message2 =
+          server.receiveMessage1(new VauClientStateMachine(false).generateMessage1()).join();
+      assertThat(message2.cid()).matches("/tunnel/[A-Za-z0-9-/]+").hasSizeLessThanOrEqualTo(200);
+      cids.add(message2.cid());
+    }
+    assertThat(cids).hasSize(4);
+  }
+
+  @Test
+  void rejectsInvalidCidPrefix() {
+    assertThatThrownBy(() -> builder().cidPrefix("VAU").build())
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> builder().cidPrefix("/VAU?x=1").build())
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> builder().cidPrefix("/" + "a".repeat(180)).build())
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  void message3IsBoundToItsCid() {
+    server = builder().build();
+    var client = new VauClientStateMachine(false);
+    var message2 = server.receiveMessage1(client.generateMessage1()).join();
+    var message3 = client.receiveMessage2(message2.message2());
+
+    assertThatThrownBy(() -> server.receiveMessage3("/VAU/UNKNOWN", message3).join())
+        .hasCauseInstanceOf(VauProtocolException.class);
+
+    client.receiveMessage4(server.receiveMessage3(message2.cid(), message3).join());
+    assertThatThrownBy(() -> server.receiveMessage3(message2.cid(), message3).join())
+        .hasCauseInstanceOf(VauProtocolException.class);
+  }
+
+  @Test
+  void boundsPendingHandshakes() {
+    server = builder().maxPendingHandshakes(2).build();
+    server.receiveMessage1(new VauClientStateMachine(false).generateMessage1()).join();
+    server.receiveMessage1(new VauClientStateMachine(false).generateMessage1()).join();
+
+    var rejected = server.receiveMessage1(new VauClientStateMachine(false).generateMessage1());
+    assertThatThrownBy(rejected::join)
+        .isInstanceOf(CompletionException.class)
+        .hasCauseInstanceOf(VauServerException.class);
+    assertThat(server.pendingHandshakes()).isEqualTo(2);
+  }
+
+  @Test
+  void failedMessage1ReleasesItsSlot() {
+    server = builder().maxPendingHandshakes(1).build();
+
+    assertThatThrownBy(() -> server.receiveMessage1(new byte[] {1, 2, 3}).join())
+        .isInstanceOf(CompletionException.class);
+    assertThat(server.pendingHandshakes()).isZero();
+  }
+
+  @Test
+  void rejectedMessage3KeepsItsHandshake() {
+    var accepting = new AtomicBoolean(true);
+    server =
+        builder()
+            .executor(
+                task -> {
+                  if (!accepting.get()) {
+                    throw new RejectedExecutionException("saturated");
+                  }
+                  task.run();
+                })
+            .build();
+    var client = new VauClientStateMachine(false);
+    var message2 = server.receiveMessage1(client.generateMessage1()).join();
+    var message3 = client.receiveMessage2(message2.message2());
+
+    accepting.set(false);
+    assertThatThrownBy(() -> server.receiveMessage3(message2.cid(), message3).join())
+        .hasCauseInstanceOf(VauServerException.class);
+    assertThat(server.pendingHandshakes()).isEqualTo(1);
+
+    accepting.set(true);
+    client.receiveMessage4(server.receiveMessage3(message2.cid(), message3).join());
+    assertThat(server.pendingHandshakes()).isZero();
+    assertThat(server.sessions()).isEqualTo(1);
+  }
+
+  @Test
+  void timedOutHandshakesAreEvicted() {
+    server = builder().handshakeTimeout(Duration.ofSeconds(10)).build();
+    var client = new VauClientStateMachine(false);
+    var message2 = server.receiveMessage1(client.generateMessage1()).join();
+    server.receiveMessage1(new VauClientStateMachine(false).generateMessage1()).join();
+
+    clock.advance(Duration.ofSeconds(11));
+    var message3 = client.receiveMessage2(message2.message2());
+    assertThatThrownBy(() -> server.receiveMessage3(message2.cid(), message3).join())
+        .hasCauseInstanceOf(VauProtocolException.class)
+        .hasMessageContaining("timed out");
+
+    assertThat(server.evictExpired()).isEqualTo(1);
+    assertThat(server.pendingHandshakes()).isZero();
+  }
+
+  @Test
+  void boundsSessionsAndEvictsIdleOnes() {
+    server = builder().maxSessions(2).idleTimeout(Duration.ofMinutes(5)).build();
+    handshake();
+    handshake();
+
+    assertThatThrownBy(this::handshake)
+        .isInstanceOf(CompletionException.class)
+        .hasCauseInstanceOf(VauServerException.class);
+
+    clock.advance(Duration.ofMinutes(6));
+    var client = handshake();
+    assertThat(server.sessions()).isEqualTo(1);
+    assertThat(server.decrypt(client.encryptRequest(new byte[] {1}).body()).body())
+        .containsExactly(1);
+  }
+
+  private VauServer.Builder builder() {
+    return VauServer.builder().keyMaterial(keyMaterial).clock(clock).evictionInterval(null);
+  }
+
+  /**
+   * @return the client side of a new session established through the server
+   */
+  private VauSession handshake() {
+    var client = new VauClientStateMachine(false);
+    var message2 = server.receiveMessage1(client.generateMessage1()).join();
+    var message3 = client.receiveMessage2(message2.message2());
+    client.receiveMessage4(server.receiveMessage3(message2.cid(), message3).join());
+    return client.compact();
+  }
+
+  private static final class MutableClock extends Clock {
+
+    private volatile Instant now;
+
+    MutableClock(Instant now) {
+      this.now = now;
+    }
+
+    void advance(Duration duration) {
+      now = now.plus(duration);
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      return this;
+    }
+
+    @Override
+    public Instant instant() {
+      return now;
+    }
+  }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2024 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.vau.lib;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import de.gematik.vau.lib.crypto.VauCryptoBackends;
+import de.gematik.vau.lib.exceptions.VauDecryptionException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Random;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class VauSessionStoreTest {
+
+  private static VauServerKeyMaterial keyMaterial;
+
+  private final MutableClock clock = new MutableClock(Instant.parse("2024-06-01T12:00:00Z"));
+  private VauSessionStore store;
+
+  @BeforeAll
+  static void setUpKeys() {
+    keyMaterial = TestVauKeys.keyMaterial();
+  }
+
+  @BeforeEach
+  void setUp() {
+    store = new VauSessionStore(16, Duration.ofMinutes(5), false, clock, null);
+  }
+
+  @Test
+  void findsSessionsByKeyId() {
+    var clients = new ArrayList<VauSession>();
+    for (int i = 0; i < 3; i++) {
+      clients.add(handshake());
+    }
+    assertThat(store.size()).isEqualTo(3);
+
+    for (var client : clients) {
+      var request = client.encryptRequest(new byte[] {1, 2});
+      var received = store.decrypt(request.body());
+
+      assertThat(received.body()).containsExactly(1, 2);
+      assertThat(received.requestCounter()).isEqualTo(request.requestCounter());
+      assertThat(received.session().getKeyId()).isEqualTo(client.getKeyId());
+      var response = received.session().encrypt(received.requestCounter(), new byte[] {3});
+      assertThat(client.decrypt(response, request.requestCounter())).containsExactly(3);
+    }
+  }
+
+  @Test
+  void rejectsReplayedAndStaleRequests() {
+    var store = new VauSessionStore(16, Duration.ofMinutes(5), false, clock, null, 64);
+    var client = handshakeInto(store);
+    var first = client.encryptRequest(new byte[] {1});
+    var second = client.encryptRequest(new byte[] {2});
+
+    store.decrypt(second.body());
+    store.decrypt(first.body());
+    assertThatThrownBy(() -> store.decrypt(first.body()))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessageContaining("replayed");
+
+    for (int i = 0; i < 64; i++) {
+      store.decrypt(client.encryptRequest(new byte[] {0}).body());
+    }
+    var stale = client.encryptRequest(new byte[] {3});
+    for (int i = 0; i < 64; i++) {
+      store.decrypt(client.encryptRequest(new byte[] {0}).body());
+    }
+    assertThatThrownBy(() -> store.decrypt(stale.body()))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessageContaining("replayed");
+  }
+
+  @Test
+  void replayWindowHasTheConfiguredSize() {
+    var client = handshake();
+    var first = client.encryptRequest(new byte[] {1});
+    var oldest = client.encryptRequest(new byte[] {2});
+    for (int i = 0; i < VauReplayWindow.DEFAULT_SIZE - 1; i++) {
+      store.decrypt(client.encryptRequest(new byte[] {0}).body());
+    }
+
+    // the default window reaches back as far as a VauReplayWindow
+    assertThat(store.decrypt(oldest.body()).body()).containsExactly(2);
+    assertThatThrownBy(() -> store.decrypt(first.body()))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessageContaining("replayed");
+  }
+
+  @Test
+  void replayWindowCoversOutOfOrderRequestsAcrossBlocks() {
+    var small = new VauSessionStore(16, Duration.ofMinutes(5), false, clock, null, 100);
+    var client = handshakeInto(small);
+    var requests = new ArrayList<VauSession.Message>();
+    for (int i = 0; i < 300; i++) {
+      requests.add(client.encryptRequest(new byte[] {(byte) i}));
+    }
+
+    // every other request first, then the rest while still within 100 counters
+    for (int i = 0; i < 300; i += 2) {
+      small.decrypt(requests.get(i).body());
+      if (i >= 50) {
+        small.decrypt(requests.get(i - 49).body());
+      }
+    }
+    for (int i = 251; i < 300; i += 2) {
+      small.decrypt(requests.get(i).body());
+    }
+    for (int i = 0; i < 300; i++) {
+      var replay = requests.get(i).body();
+      assertThatThrownBy(() -> small.decrypt(replay))
+          .isInstanceOf(IllegalArgumentException.class)
+          .hasMessageContaining("replayed");
+    }
+  }
+
+  @Test
+  void forgedMessageDoesNotMoveTheWindow() {
+    var client = handshake();
+    var request = client.encryptRequest(new byte[] {1});
+    var forged = request.body().clone();
+    forged[forged.length - 1] ^= 1;
+
+    assertThatThrownBy(() -> store.decrypt(forged)).isInstanceOf(VauDecryptionException.class);
+    assertThat(store.decrypt(request.body()).body()).containsExactly(1);
+  }
+
+  @Test
+  void idleSessionsExpire() {
+    var active = handshake();
+    var idle = handshake();
+
+    clock.advance(Duration.ofMinutes(4));
+    store.decrypt(active.encryptRequest(new byte[] {1}).body());
+    clock.advance(Duration.ofMinutes(2));
+
+    assertThat(store.decrypt(active.encryptRequest(new byte[] {2}).body()).body())
+        .containsExactly(2);
+    assertThatThrownBy(() -> store.decrypt(idle.encryptRequest(new byte[] {3}).body()))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessageContaining("no session");
+
+    clock.advance(Duration.ofMinutes(10));
+    assertThat(store.evictExpired()).isEqualTo(1);
+    assertThat(store.size()).isZero();
+  }
+
+  @Test
+  void removedAndExpiredSlotsAreReused() {
+    var small = new VauSessionStore(1, Duration.ofMinutes(5), false, clock, null);
+    var sessions = new ArrayList<VauSession>();
+    for (int i = 0; i < 8; i++) {
+      sessions.add(handshakeInto(small));
+    }
+    assertThatThrownBy(() -> handshakeInto(small)).isInstanceOf(IllegalStateException.class);
+
+    assertThat(small.remove(sessions.get(0).getKeyId())).isTrue();
+    assertThat(small.remove(sessions.get(0).getKeyId())).isFalse();
+    var added = handshakeInto(small);
+    assertThat(small.decrypt(added.encryptRequest(new byte[] {1}).body()).body())
+        .containsExactly(1);
+
+    clock.advance(Duration.ofMinutes(6));
+    handshakeInto(small);
+    assertThat(small.size()).isLessThanOrEqualTo(8);
+  }
+
+  @Test
+  void churnKeepsProbeSequencesShort() {
+    var random = new Random(1);
+    var live = new ArrayDeque<VauSession>();
+    for (int i = 0; i < 10_000; i++) {
+      if (live.size() == 16) {
+        var oldest = live.removeFirst();
+        if (i % 2 == 0) {
+          assertThat(store.remove(oldest.getKeyId())).isTrue();
+        } else {
+          // let all sessions but the newest one expire
+          clock.advance(Duration.ofMinutes(5));
+          var newest = live.removeLast();
+          store.put(newest);
+          // put may already have taken over the slot of an expired session
+          assertThat(store.evictExpired()).isBetween(live.size(), live.size() + 1);
+          assertThat(store.size()).isEqualTo(1);
+          live.clear();
+          live.add(newest);
+        }
+      }
+      var session = randomSession(random);
+      store.put(session);
+      live.addLast(session);
+    }
+
+    assertThat(store.size()).isEqualTo(live.size());
+    // only live sessions occupy slots, a miss never probes more than them
+    assertThat(store.longestProbeSequence()).isLessThanOrEqualTo(live.size());
+    for (var session : live) {
+      assertThat(store.remove(session.getKeyId())).isTrue();
+    }
+    assertThat(store.size()).isZero();
+    assertThat(store.longestProbeSequence()).isZero();
+  }
+
+  @Test
+  void rejectsClientSessions() {
+    var server = new VauServerStateMachine(keyMaterial, false);
+    var client = TestVauKeys.handshake(new VauClientStateMachine(false), server);
+
+    assertThatThrownBy(() -> store.put(client.compact()))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  /**
+   * @return a server session with random keys, enough to exercise the index of the store
+   */
+  private static VauSession randomSession(Random random) {
+    var keys = new byte[VauSession.KEYS_LENGTH];
+    random.nextBytes(keys);
+    return new VauSession(VauCryptoBackends.defaultBackend(), false, (byte) 2, keys, 0, null);
+  }
+
+  private VauSession handshake() {
+    return handshakeInto(store);
+  }
+
+  /**
+   * @return the client side of a new session whose server side is in the store
+   */
+  private static VauSession handshakeInto(VauSessionStore store) {
+    var server = new VauServerStateMachine(keyMaterial, false);
+    var client = TestVauKeys.handshake(new VauClientStateMachine(false), server);
+    store.put(server.compact());
+    return client.compact();
+  }
+
+  private static final class MutableClock extends Clock {
+
+    private Instant now;
+
+    MutableClock(Instant now) {
+      this.now = now;
+    }
+
+    void advance(Duration duration) {
+      now = now.plus(duration);
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      return this;
+    }
+
+    @Override
+    public Instant instant() {
+      return now;
+    }
+  }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2024 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.vau.lib;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import de.gematik.vau.lib.crypto.KEM;
+import de.gematik.vau.lib.data.VauMessage4;
+import de.gematik.vau.lib.exceptions.VauDecryptionException;
+import de.gematik.vau.lib.exceptions.VauProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class VauSessionTest {
+
+  private VauClientStateMachine client;
+  private VauServerStateMachine server;
+
+  @BeforeEach
+  void setUp() {
+    server = TestVauKeys.server();
+    client = new VauClientStateMachine(false);
+  }
+
+  @Test
+  void sessionRequiresCompletedHandshake() {
+    assertThatThrownBy(client::session).isInstanceOf(IllegalStateException.class);
+
+    var message3 = client.receiveMessage2(server.receiveMessage(client.generateMessage1()));
+    assertThatThrownBy(client::session).isInstanceOf(IllegalStateException.class);
+
+    client.receiveMessage4(server.receiveMessage(message3));
+    assertThat(client.session().getKeyId()).isEqualTo(client.getKeyId());
+  }
+
+  @Test
+  void sessionRequiresConfirmedTranscript() {
+    client.receiveMessage2(server.receiveMessage(client.generateMessage1()));
+    // a correctly encrypted key confirmation over the wrong transcript
+    var message4 =
+        new VauMessage4(
+            "M4",
+            KEM.encryptAead(client.getClientKey2().serverToClientKeyConfirmation(), new byte[32]));
+
+    assertThatThrownBy(() -> client.receiveMessage4(client.encodeUsingCbor(message4)))
+        .isInstanceOf(VauProtocolException.class);
+    assertThatThrownBy(client::session).isInstanceOf(IllegalStateException.class);
+    assertThatThrownBy(client::compact).isInstanceOf(IllegalStateException.class);
+  }
+
+  @Test
+  void concurrentRequestsAreMatchedToTheirResponses() throws Exception {
+    handshake();
+    var clientSession = client.session();
+    var serverSession = server.session();
+
+    var threads = 8;
+    var requestsPerThread = 50;
+    var executor = Executors.newFixedThreadPool(threads);
+    try {
+      var tasks = new ArrayList<Callable<Long>>();
+      for (int t = 0; t < threads; t++) {
+        var thread = t;
+        tasks.add(
+            () -> {
+              long last = 0;
+              for (int i = 0; i < requestsPerThread; i++) {
+                var body = "request %d-%d".formatted(thread, i).getBytes(StandardCharsets.UTF_8);
+                var request = clientSession.encryptRequest(body);
+
+                var received = serverSession.decrypt(request.body());
+                assertThat(received.requestCounter()).isEqualTo(request.requestCounter());
+                assertThat(received.body()).isEqualTo(body);
+                var response =
+                    serverSession.encrypt(received.requestCounter(), echo(received.body()));
+
+                assertThat(clientSession.decrypt(response, request.requestCounter()))
+                    .isEqualTo(echo(body));
+                assertThat(request.requestCounter()).isGreaterThan(last);
+                last = request.requestCounter();
+              }
+              return last;
+            });
+      }
+      for (Future<Long> future : executor.invokeAll(tasks)) {
+        future.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertThat(clientSession.getRequestCounter()).isEqualTo((long) threads * requestsPerThread);
+  }
+
+  @Test
+  void requestCountersAreUnique() throws Exception {
+    handshake();
+    var session = client.session();
+
+    var executor = Executors.newFixedThreadPool(4);
+    try {
+      var tasks = new ArrayList<Callable<Long>>();
+      for (int i = 0; i < 1000; i++) {
+        tasks.add(session::nextRequestCounter);
+      }
+      var counters = new HashSet<Long>();
+      for (Future<Long> future : executor.invokeAll(tasks)) {
+        counters.add(future.get());
+      }
+      assertThat(counters).hasSize(1000);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void responseToAnotherRequestIsRejected() {
+    handshake();
+    var clientSession = client.session();
+    var serverSession = server.session();
+
+    var first = clientSession.encryptRequest("first".getBytes(StandardCharsets.UTF_8));
+    var second = clientSession.encryptRequest("second".getBytes(StandardCharsets.UTF_8));
+    var responseToFirst =
+        serverSession.encrypt(serverSession.decrypt(first.body()).requestCounter(), new byte[] {1});
+    serverSession.decrypt(second.body());
+
+    assertThatThrownBy(() -> clientSession.decrypt(responseToFirst, second.requestCounter()))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessageContaining("Invalid request counter");
+    assertThat(clientSession.decrypt(responseToFirst, first.requestCounter())).containsExactly(1);
+  }
+
+  @Test
+  void ownMessagesAndTamperedMessagesAreRejected() {
+    handshake();
+    var clientSession = client.session();
+    var request = clientSession.encryptRequest(new byte[] {1, 2, 3});
+
+    assertThatThrownBy(() -> clientSession.decrypt(request.body()))
+        .isInstanceOf(UnsupportedOperationException.class);
+
+    var tampered = request.body().clone();
+    tampered[tampered.length - 1] ^= 1;
+    var serverSession = server.session();
+    assertThatThrownBy(() -> serverSession.decrypt(tampered))
+        .isInstanceOf(VauDecryptionException.class);
+  }
+
+  @Test
+  void serverRejectsReplayedRequests() {
+    handshake();
+    var clientSession = client.session();
+    var serverSession = server.session();
+
+    var first = clientSession.encryptRequest(new byte[] {1});
+    var second = clientSession.encryptRequest(new byte[] {2});
+
+    assertThat(serverSession.decrypt(second.body()).requestCounter()).isEqualTo(2);
+    assertThat(serverSession.decrypt(first.body()).requestCounter()).isEqualTo(1);
+    assertThatThrownBy(() -> serverSession.decrypt(first.body()))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessageContaining("replayed");
+  }
+
+  @Test
+  void serverStateMachineRejectsReplayedRequests() {
+    handshake();
+    var first = client.encryptVauMessage(new byte[] {1});
+    var second = client.encryptVauMessage(new byte[] {2});
+
+    assertThat(server.decryptVauMessage(second)).containsExactly(2);
+    assertThat(server.decryptVauMessage(first)).containsExactly(1);
+    assertThat(server.getClientRequestCounter()).isEqualTo(1);
+    assertThatThrownBy(() -> server.decryptVauMessage(second))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessageContaining("replayed");
+  }
+
+  @Test
+  void sessionContinuesWithStateMachineCounter() {
+    handshake();
+    var request = client.encryptVauMessage(new byte[] {1});
+    server.decryptVauMessage(request);
+    client.decryptVauMessage(server.encryptVauMessage(new byte[] {2}));
+
+    var session = client.session();
+
+    assertThat(session.getRequestCounter()).isEqualTo(1);
+    assertThat(session.encryptRequest(new byte[] {3}).requestCounter()).isEqualTo(2);
+  }
+
+  @Test
+  void compactReleasesHandshakeState() {
+    handshake();
+    var keyId = client.getKeyId();
+    assertThat(client.getClientKey1()).isNull();
+    assertThat(client.getKdfClientKey1()).isNull();
+
+    var clientSession = client.compact();
+    var serverSession = server.compact();
+
+    assertThat(client.getClientKey2()).isNull();
+    assertThat(client.getEncryptionVauKey()).isNull();
+    assertThat(server.getKemResult1()).isNull();
+    assertThat(server.getKemResult2()).isNull();
+    assertThat(server.getServerKey2()).isNull();
+    assertThat(server.getS2c()).isNull();
+    assertThatThrownBy(() -> client.encryptVauMessage(new byte[] {1}))
+        .isInstanceOf(IllegalStateException.class);
+    assertThatThrownBy(client::session).isInstanceOf(IllegalStateException.class);
+
+    assertThat(clientSession.getKeyId()).isEqualTo(keyId);
+    var request = clientSession.encryptRequest(new byte[] {1});
+    var received = serverSession.decrypt(request.body());
+    assertThat(received.body()).containsExactly(1);
+    assertThat(
+            clientSession.decrypt(
+                serverSession.encrypt(received.requestCounter(), new byte[] {2}),
+                request.requestCounter()))
+        .containsExactly(2);
+  }
+
+  private void handshake() {
+    TestVauKeys.handshake(client, server);
+  }
+
+  private static byte[] echo(byte[] body) {
+    var response = new byte[body.length + 1];
+    System.arraycopy(body, 0, response, 1, body.length);
+    response[0] = 'R';
+    return response;
+  }
+}
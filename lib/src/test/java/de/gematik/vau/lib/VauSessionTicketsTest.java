@@ -0,0 +1,164 @@
+/*
+ * Copyright 2024 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.vau.lib;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import de.gematik.vau.lib.VauSessionTickets.TicketKey;
+import de.gematik.vau.lib.exceptions.VauProtocolException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class VauSessionTicketsTest {
+
+  private static final Instant NOW = Instant.parse("2024-06-01T12:00:00Z");
+
+  private VauClientStateMachine client;
+  private VauServerStateMachine server;
+
+  @BeforeEach
+  void setUp() {
+    server = TestVauKeys.server();
+    client = new VauClientStateMachine(false);
+  }
+
+  @Test
+  void ticketRebuildsServerSession() {
+    var tickets = tickets(NOW);
+    handshake();
+
+    var cid = tickets.issue(server);
+
+    assertThat(cid).matches("/[A-Za-z0-9-/]+").hasSizeLessThanOrEqualTo(200);
+
+    // another node, only holding the ticket key
+    var serverSession = tickets(NOW).open("/VAU" + cid);
+    var clientSession = client.session();
+
+    assertThat(serverSession.getKeyId()).isEqualTo(server.getKeyId());
+    var request = clientSession.encryptRequest(new byte[] {1, 2, 3});
+    var received = serverSession.decrypt(request.body());
+    assertThat(received.body()).containsExactly(1, 2, 3);
+    var response = serverSession.encrypt(received.requestCounter(), new byte[] {4});
+    assertThat(clientSession.decrypt(response, request.requestCounter())).containsExactly(4);
+  }
+
+  @Test
+  void replayToTheSameNodeIsRejected() {
+    handshake();
+    var cid = tickets(NOW).issue(server);
+    var node = tickets(NOW);
+    var request = client.session().encryptRequest(new byte[] {1, 2, 3});
+
+    assertThat(node.open(cid).decrypt(request.body()).body()).containsExactly(1, 2, 3);
+
+    // the next request with the same ticket gets the session including its replay window
+    assertThat(node.open(cid)).isSameAs(node.open(cid));
+    assertThatThrownBy(() -> node.open(cid).decrypt(request.body()))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessageContaining("replayed");
+  }
+
+  @Test
+  void expiredTicketIsRejected() {
+    handshake();
+    var cid = tickets(NOW).issue(server);
+
+    var later = tickets(NOW.plus(Duration.ofHours(1)).plusSeconds(1));
+
+    assertThatThrownBy(() -> later.open(cid))
+        .isInstanceOf(VauProtocolException.class)
+        .hasMessageContaining("expired");
+  }
+
+  @Test
+  void tamperedTicketIsRejected() {
+    handshake();
+    var tickets = tickets(NOW);
+    var cid = tickets.issue(server);
+    // inside the sealed payload
+    var position = cid.length() / 2;
+    var tampered =
+        cid.substring(0, position)
+            + (cid.charAt(position) == 'A' ? 'B' : 'A')
+            + cid.substring(position + 1);
+
+    assertThatThrownBy(() -> tickets.open(tampered))
+        .isInstanceOf(VauProtocolException.class)
+        .hasMessageContaining("invalid session ticket");
+    assertThatThrownBy(() -> tickets.open("/not-a-ticket"))
+        .isInstanceOf(VauProtocolException.class)
+        .hasMessageContaining("malformed");
+  }
+
+  @Test
+  void ticketsOfThePreviousKeyAreAccepted() {
+    handshake();
+    var tickets = tickets(NOW);
+    var cid = tickets.issue(server);
+
+    tickets.rotate(TicketKey.generate(2));
+    assertThat(tickets.open(cid).getKeyId()).isEqualTo(server.getKeyId());
+    var rotatedCid = tickets.issue(server);
+
+    tickets.rotate(TicketKey.generate(3));
+    assertThatThrownBy(() -> tickets.open(cid))
+        .isInstanceOf(VauProtocolException.class)
+        .hasMessageContaining("unknown session ticket key");
+    assertThat(tickets.open(rotatedCid).getKeyId()).isEqualTo(server.getKeyId());
+  }
+
+  @Test
+  void ticketRequiresCompletedHandshake() {
+    var tickets = tickets(NOW);
+    server.receiveMessage(client.generateMessage1());
+
+    assertThatThrownBy(() -> tickets.issue(server)).isInstanceOf(IllegalStateException.class);
+  }
+
+  @Test
+  void base32RoundTrip() {
+    for (int length = 0; length < 12; length++) {
+      var data = new byte[length];
+      for (int i = 0; i < length; i++) {
+        data[i] = (byte) (i * 37 - 5);
+      }
+      var encoded = VauSessionTickets.Base32.encode(data);
+      assertThat(VauSessionTickets.Base32.decode(encoded)).isEqualTo(data);
+    }
+    assertThat(VauSessionTickets.Base32.encode("foobar".getBytes())).isEqualTo("MZXW6YTBOI");
+  }
+
+  private static final byte[] TICKET_SECRET = new byte[32];
+
+  private static VauSessionTickets tickets(Instant now) {
+    return new VauSessionTickets(
+        new TicketKey(1, TICKET_SECRET),
+        Duration.ofHours(1),
+        Clock.fixed(now, ZoneOffset.UTC),
+        null);
+  }
+
+  private void handshake() {
+    TestVauKeys.handshake(client, server);
+  }
+}
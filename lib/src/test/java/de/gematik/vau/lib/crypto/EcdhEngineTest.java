@@ -0,0 +1,71 @@
+/*
+ * Copyright 2024 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.vau.lib.crypto;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import de.gematik.vau.lib.data.VauEccPublicKey;
+import java.security.Security;
+import org.bouncycastle.crypto.params.ECPrivateKeyParameters;
+import org.bouncycastle.crypto.params.ECPublicKeyParameters;
+import org.bouncycastle.jce.interfaces.ECPrivateKey;
+import org.bouncycastle.jce.interfaces.ECPublicKey;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class EcdhEngineTest {
+
+  @BeforeEach
+  void setUp() {
+    Security.addProvider(new BouncyCastleProvider());
+  }
+
+  @Test
+  void sharedSecretMatchesJcaKeys() {
+    var jcaKeyPair = EllipticCurve.generateKeyPair();
+    var engineKeyPair = EcdhEngine.generateKeyPair();
+    var enginePublicKey =
+        EcdhEngine.toVauEccPublicKey((ECPublicKeyParameters) engineKeyPair.getPublic());
+
+    var fromEngineSide =
+        EcdhEngine.sharedSecret(
+            new VauEccPublicKey((ECPublicKey) jcaKeyPair.getPublic()),
+            (ECPrivateKeyParameters) engineKeyPair.getPrivate());
+    var fromJcaSide =
+        EllipticCurve.getSharedSecret(
+            enginePublicKey.toEcPublicKey(), (ECPrivateKey) jcaKeyPair.getPrivate());
+
+    assertThat(enginePublicKey.getX()).hasSize(32);
+    assertThat(enginePublicKey.getY()).hasSize(32);
+    assertThat(fromEngineSide).hasSize(32).isEqualTo(fromJcaSide);
+  }
+
+  @Test
+  void pointNotOnCurveIsRejected() {
+    var keyPair = EcdhEngine.generateKeyPair();
+    var publicKey = EcdhEngine.toVauEccPublicKey((ECPublicKeyParameters) keyPair.getPublic());
+    var y = publicKey.getY().clone();
+    y[31] ^= 1;
+    var invalid = new VauEccPublicKey("P-256", publicKey.getX(), y);
+    var privateKey = (ECPrivateKeyParameters) keyPair.getPrivate();
+
+    assertThatThrownBy(() -> EcdhEngine.sharedSecret(invalid, privateKey))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+}
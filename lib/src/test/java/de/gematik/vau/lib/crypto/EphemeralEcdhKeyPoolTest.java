@@ -0,0 +1,97 @@
+/*
+ * Copyright 2024 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.vau.lib.crypto;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import de.gematik.vau.lib.data.VauEccPublicKey;
+import java.security.Security;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.bouncycastle.crypto.params.ECPublicKeyParameters;
+import org.bouncycastle.pqc.jcajce.provider.BouncyCastlePQCProvider;
+import org.junit.jupiter.api.Test;
+
+class EphemeralEcdhKeyPoolTest {
+
+  @Test
+  void keyPairsAreHandedOutOnceAndCounted() {
+    try (var pool = new EphemeralEcdhKeyPool(4, Runnable::run)) {
+      assertThat(pool.metrics().depth()).isEqualTo(4);
+
+      var first = pool.get();
+      var second = pool.get();
+      var third = pool.get();
+
+      assertThat(first).isNotSameAs(second).isNotSameAs(third);
+      var metrics = pool.metrics();
+      assertThat(metrics.hits()).isEqualTo(3);
+      assertThat(metrics.misses()).isZero();
+      // refilled once the pool dropped below half
+      assertThat(metrics.depth()).isEqualTo(4);
+      assertThat(metrics.generated()).isEqualTo(7);
+      assertThat(metrics.generationRate()).isPositive();
+    }
+  }
+
+  @Test
+  void emptyPoolGeneratesSynchronously() {
+    try (var pool = new EphemeralEcdhKeyPool(2, task -> {})) {
+      assertThat(pool.get()).isNotNull();
+      assertThat(pool.metrics().misses()).isEqualTo(1);
+      assertThat(pool.metrics().generated()).isZero();
+    }
+  }
+
+  @Test
+  void backendDrawsFromSource() {
+    Security.addProvider(new BouncyCastlePQCProvider());
+    var calls = new AtomicInteger();
+    var backend =
+        VauCryptoBackends.defaultBackend(
+            () -> {
+              calls.incrementAndGet();
+              return EcdhEngine.generateKeyPair();
+            });
+    var remote = EcdhEngine.generateKeyPair();
+
+    var result =
+        KEM.encapsulateMessage(
+            backend,
+            EcdhEngine.toVauEccPublicKey((ECPublicKeyParameters) remote.getPublic()),
+            KyberEngine.toPublicKeyParameters(KyberEncoding.generateKeyPair().getPublic()));
+
+    assertThat(calls).hasValue(1);
+    assertThat(result.ecdhCt()).isInstanceOf(VauEccPublicKey.class);
+    assertThat(result.ecdhSharedSecret()).hasSize(32);
+  }
+
+  @Test
+  void otherBackendsDoNotDrawFromSource() {
+    var calls = new AtomicInteger();
+    VauCryptoBackends.defaultBackend(
+        () -> {
+          calls.incrementAndGet();
+          return EcdhEngine.generateKeyPair();
+        });
+    var remote = EcdhEngine.generateKeyPair();
+
+    VauCryptoBackends.defaultBackend()
+        .ecdhEphemeral(EcdhEngine.toVauEccPublicKey((ECPublicKeyParameters) remote.getPublic()));
+
+    assertThat(calls).hasValue(0);
+  }
+}
@@ -16,12 +16,26 @@
 
 package de.gematik.vau.lib.crypto;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.mockStatic;
 
+import de.gematik.vau.lib.data.EccKyberKeyPair;
+import de.gematik.vau.lib.data.VauEccPublicKey;
+import de.gematik.vau.lib.data.VauMessage3InnerLayer;
+import de.gematik.vau.lib.exceptions.VauKyberCryptoException;
 import java.security.NoSuchAlgorithmException;
+import java.security.Security;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.crypto.Cipher;
+import org.bouncycastle.crypto.params.ECPublicKeyParameters;
+import org.bouncycastle.jce.interfaces.ECPublicKey;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.pqc.jcajce.provider.BouncyCastlePQCProvider;
 import org.junit.jupiter.api.Test;
 
 class KEMTest {
@@ -51,4 +65,96 @@ class KEMTest {
         .hasMessageContaining("Error while decrypting AEAD ciphertext")
         .hasMessageContaining("IV is empty");
   }
+
+  @Test
+  void parallelExecutorYieldsSameSecrets() {
+    Security.addProvider(new BouncyCastleProvider());
+    Security.addProvider(new BouncyCastlePQCProvider());
+    var forked = new AtomicInteger();
+    var backend =
+        VauCryptoBackends.parallel(
+            VauCryptoBackends.defaultBackend(),
+            task -> {
+              forked.incrementAndGet();
+              ForkJoinPool.commonPool().execute(task);
+            });
+    var serverKeys = EccKyberKeyPair.generateRandom();
+
+    var encapsulated =
+        KEM.encapsulateMessage(
+            backend,
+            EcdhEngine.toPoint(
+                new VauEccPublicKey((ECPublicKey) serverKeys.eccKeyPair().getPublic())),
+            KyberEngine.toPublicKeyParameters(serverKeys.kyberKeyPair().getPublic()));
+    var decapsulated =
+        KEM.decapsulateMessages(
+            backend,
+            new VauMessage3InnerLayer(encapsulated.ecdhCt(), encapsulated.kyberCt(), false, false),
+            serverKeys);
+
+    assertThat(forked).hasValue(2);
+    assertThat(decapsulated.ecdhSharedSecret()).isEqualTo(encapsulated.ecdhSharedSecret());
+    assertThat(decapsulated.kyberSharedSecret()).isEqualTo(encapsulated.kyberSharedSecret());
+  }
+
+  @Test
+  void parallelExecutorPassesOnFailures() {
+    var backend =
+        VauCryptoBackends.parallel(VauCryptoBackends.defaultBackend(), ForkJoinPool.commonPool());
+    var serverKeys = EccKyberKeyPair.generateRandom();
+    var badCiphertext =
+        new VauMessage3InnerLayer(
+            EcdhEngine.toVauEccPublicKey(
+                (ECPublicKeyParameters) EcdhEngine.generateKeyPair().getPublic()),
+            new byte[10],
+            false,
+            false);
+
+    assertThatThrownBy(() -> KEM.decapsulateMessages(backend, badCiphertext, serverKeys))
+        .isInstanceOf(VauKyberCryptoException.class);
+  }
+
+  @Test
+  void parallelExecutorRunningTheHandshakeDoesNotDeadlock() throws Exception {
+    var executor = Executors.newSingleThreadExecutor();
+    try {
+      var backend = VauCryptoBackends.parallel(VauCryptoBackends.defaultBackend(), executor);
+      var serverKeys = EccKyberKeyPair.generateRandom();
+
+      // the only thread of the executor runs the handshake, the forked Kyber part cannot start
+      var encapsulated =
+          executor
+              .submit(
+                  () ->
+                      KEM.encapsulateMessage(
+                          backend,
+                          EcdhEngine.toPoint(
+                              new VauEccPublicKey(
+                                  (ECPublicKey) serverKeys.eccKeyPair().getPublic())),
+                          KyberEngine.toPublicKeyParameters(serverKeys.kyberKeyPair().getPublic())))
+              .get(10, TimeUnit.SECONDS);
+
+      assertThat(encapsulated.kyberSharedSecret()).hasSize(32);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void otherBackendsRunSequentially() {
+    var forked = new AtomicInteger();
+    VauCryptoBackends.parallel(
+        VauCryptoBackends.defaultBackend(),
+        task -> {
+          forked.incrementAndGet();
+          task.run();
+        });
+    var serverKeys = EccKyberKeyPair.generateRandom();
+
+    KEM.encapsulateMessage(
+        EcdhEngine.toPoint(new VauEccPublicKey((ECPublicKey) serverKeys.eccKeyPair().getPublic())),
+        KyberEngine.toPublicKeyParameters(serverKeys.kyberKeyPair().getPublic()));
+
+    assertThat(forked).hasValue(0);
+  }
 }
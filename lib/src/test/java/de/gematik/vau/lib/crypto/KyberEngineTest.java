@@ -0,0 +1,73 @@
+/*
+ * Copyright 2024 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.vau.lib.crypto;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import de.gematik.vau.lib.exceptions.VauKyberCryptoException;
+import java.security.Security;
+import org.bouncycastle.pqc.jcajce.provider.BouncyCastlePQCProvider;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.Test;
+
+class KyberEngineTest {
+
+  @BeforeEach
+  void setUp() {
+    Security.addProvider(new BouncyCastlePQCProvider());
+  }
+
+  @RepeatedTest(5)
+  void engineIsCompatibleWithKyberEncoding() {
+    var keyPair = KyberEncoding.generateKeyPair();
+    var publicKey = KyberEngine.parsePublicKey(KyberKeys.extractCompactKyberPublicKey(keyPair));
+    var privateKey = KyberEngine.toPrivateKeyParameters(keyPair.getPrivate());
+
+    // engine encapsulates, JCA decapsulates
+    var fromEngine = KyberEngine.encapsulate(publicKey);
+    assertThat(fromEngine.getEncapsulation()).hasSize(KyberEngine.CIPHERTEXT_LENGTH);
+    assertThat(
+            KyberEncoding.pqcGenerateDecryptionKey(
+                keyPair.getPrivate(), fromEngine.getEncapsulation()))
+        .isEqualTo(fromEngine.getEncoded());
+
+    // JCA encapsulates, engine decapsulates
+    var fromJca = KyberEncoding.pqcGenerateEncryptionKey(keyPair.getPublic());
+    assertThat(KyberEngine.decapsulate(privateKey, fromJca.getEncapsulation()))
+        .isEqualTo(fromJca.getEncoded());
+  }
+
+  @Test
+  void rawPublicKeyMatchesJcaKey() {
+    var keyPair = KyberEncoding.generateKeyPair();
+    var raw = KyberKeys.extractCompactKyberPublicKey(keyPair);
+
+    assertThat(KyberEngine.parsePublicKey(raw).getEncoded())
+        .isEqualTo(KyberEngine.toPublicKeyParameters(keyPair.getPublic()).getEncoded())
+        .isEqualTo(raw);
+  }
+
+  @Test
+  void malformedPublicKeyIsRejected() {
+    var keyBytes = new byte[10];
+    assertThatThrownBy(() -> KyberEngine.parsePublicKey(keyBytes))
+        .isInstanceOf(VauKyberCryptoException.class)
+        .hasMessage("Kyber Public Key Bytes are not well formed.");
+  }
+}
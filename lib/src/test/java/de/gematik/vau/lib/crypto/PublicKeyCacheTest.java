@@ -0,0 +1,79 @@
+/*
+ * Copyright 2024 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.vau.lib.crypto;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import de.gematik.vau.lib.data.VauEccPublicKey;
+import de.gematik.vau.lib.exceptions.VauKyberCryptoException;
+import java.security.Security;
+import org.bouncycastle.crypto.params.ECPublicKeyParameters;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.pqc.jcajce.provider.BouncyCastlePQCProvider;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class PublicKeyCacheTest {
+
+  @BeforeEach
+  void setUp() {
+    Security.addProvider(new BouncyCastleProvider());
+    Security.addProvider(new BouncyCastlePQCProvider());
+  }
+
+  @AfterEach
+  void tearDown() {
+    PublicKeyCache.clear();
+  }
+
+  @Test
+  void ecdhKeyIsDecodedOnce() {
+    var publicKey =
+        EcdhEngine.toVauEccPublicKey(
+            (ECPublicKeyParameters) EcdhEngine.generateKeyPair().getPublic());
+    var copy =
+        new VauEccPublicKey(publicKey.getCrv(), publicKey.getX().clone(), publicKey.getY().clone());
+
+    var point = PublicKeyCache.ecdhPublicKey(publicKey);
+
+    assertThat(PublicKeyCache.ecdhPublicKey(copy)).isSameAs(point);
+    assertThat(point).isEqualTo(EcdhEngine.toPoint(publicKey));
+  }
+
+  @Test
+  void kyberKeyIsDecodedOnceAndEncodedKeyIsRegistered() {
+    var keyPair = KyberEncoding.generateKeyPair();
+
+    var compact = PublicKeyCache.compactKyberPublicKey(keyPair);
+
+    assertThat(compact).isEqualTo(KyberKeys.extractCompactKyberPublicKey(keyPair));
+    assertThat(PublicKeyCache.kyberPublicKey(compact.clone())).isSameAs(keyPair.getPublic());
+    var parameters = PublicKeyCache.kyberPublicKeyParameters(compact);
+    assertThat(PublicKeyCache.kyberPublicKeyParameters(compact.clone())).isSameAs(parameters);
+  }
+
+  @Test
+  void malformedKeyIsNotCached() {
+    var keyBytes = new byte[10];
+    assertThatThrownBy(() -> PublicKeyCache.kyberPublicKeyParameters(keyBytes))
+        .isInstanceOf(VauKyberCryptoException.class);
+    assertThatThrownBy(() -> PublicKeyCache.kyberPublicKeyParameters(keyBytes))
+        .isInstanceOf(VauKyberCryptoException.class);
+  }
+}
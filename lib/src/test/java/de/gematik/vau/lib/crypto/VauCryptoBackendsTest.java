@@ -0,0 +1,138 @@
+/*
+ * Copyright 2024 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.vau.lib.crypto;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import de.gematik.vau.lib.TestVauKeys;
+import de.gematik.vau.lib.VauClientStateMachine;
+import de.gematik.vau.lib.VauServerKeyMaterial;
+import de.gematik.vau.lib.VauServerStateMachine;
+import de.gematik.vau.lib.data.VauEccPublicKey;
+import de.gematik.vau.lib.util.DigestUtils;
+import java.util.List;
+import java.util.stream.Stream;
+import org.bouncycastle.crypto.params.ECPublicKeyParameters;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+class VauCryptoBackendsTest {
+
+  private static final List<VauCryptoBackend> BACKENDS =
+      List.of(
+          VauCryptoBackends.defaultBackend(),
+          VauCryptoBackends.bouncyCastle(),
+          VauCryptoBackends.jdk());
+
+  private static VauServerKeyMaterial keyMaterial;
+
+  @BeforeAll
+  static void setUp() {
+    keyMaterial = TestVauKeys.keyMaterial();
+  }
+
+  static Stream<Arguments> backendPairs() {
+    return BACKENDS.stream()
+        .flatMap(client -> BACKENDS.stream().map(server -> Arguments.of(client, server)));
+  }
+
+  @ParameterizedTest
+  @MethodSource("backendPairs")
+  void backendsInteroperate(VauCryptoBackend clientBackend, VauCryptoBackend serverBackend) {
+    var client = new VauClientStateMachine(false, null, clientBackend);
+    var server = new VauServerStateMachine(keyMaterial, false, serverBackend);
+
+    TestVauKeys.handshake(client, server);
+
+    var request = "request".getBytes();
+    var response = "response".getBytes();
+    assertThat(server.decryptVauMessage(client.encryptVauMessage(request))).isEqualTo(request);
+    assertThat(client.decryptVauMessage(server.encryptVauMessage(response))).isEqualTo(response);
+  }
+
+  @Test
+  void jdkHkdfMatchesBouncyCastle() {
+    var jdk = VauCryptoBackends.jdk();
+    var bouncyCastle = VauCryptoBackends.bouncyCastle();
+    var inputKeyMaterial = DigestUtils.sha256("shared secrets".getBytes());
+
+    for (var length : new int[] {1, 32, 64, 65, 160}) {
+      assertThat(jdk.hkdfSha256(inputKeyMaterial, length))
+          .isEqualTo(bouncyCastle.hkdfSha256(inputKeyMaterial, length));
+    }
+  }
+
+  @Test
+  void hkdfIsExtractThenExpand() {
+    var inputKeyMaterial = DigestUtils.sha256("shared secrets".getBytes());
+
+    for (var backend : BACKENDS) {
+      var pseudoRandomKey = backend.hkdfSha256Extract(inputKeyMaterial);
+      assertThat(pseudoRandomKey).hasSize(32);
+      assertThat(backend.hkdfSha256Expand(pseudoRandomKey, 160))
+          .isEqualTo(backend.hkdfSha256(inputKeyMaterial, 160));
+    }
+  }
+
+  @Test
+  void ecdhAgreesAcrossBackends() {
+    var jdk = VauCryptoBackends.jdk();
+    var bouncyCastle = VauCryptoBackends.bouncyCastle();
+    var serverKeys = keyMaterial.getServerVauKeys();
+    var serverPublicKey = keyMaterial.getVauPublicKeys().ecdhPublicKey();
+
+    var fromJdk = jdk.ecdhEphemeral(serverPublicKey);
+    var fromBouncyCastle = bouncyCastle.ecdhEphemeral(serverPublicKey);
+
+    assertThat(bouncyCastle.ecdh(fromJdk.publicKey(), serverKeys))
+        .isEqualTo(fromJdk.sharedSecret());
+    assertThat(jdk.ecdh(fromBouncyCastle.publicKey(), serverKeys))
+        .isEqualTo(fromBouncyCastle.sharedSecret());
+  }
+
+  @Test
+  void validatedServerPointAgreesWithStaticServerKey() {
+    var serverKeys = keyMaterial.getServerVauKeys();
+    var serverPoint = keyMaterial.getVauPublicKeys().ecdhPublicPoint();
+
+    for (var client : BACKENDS) {
+      var ecdh = client.ecdhEphemeral(serverPoint);
+      for (var server : BACKENDS) {
+        assertThat(server.ecdhStatic(ecdh.publicKey(), serverKeys))
+            .isEqualTo(ecdh.sharedSecret())
+            .isEqualTo(server.ecdh(ecdh.publicKey(), serverKeys));
+      }
+    }
+  }
+
+  @Test
+  void jdkRejectsPointsNotOnTheCurve() {
+    var valid =
+        EcdhEngine.toVauEccPublicKey(
+            (ECPublicKeyParameters) EcdhEngine.generateKeyPair().getPublic());
+    var y = valid.getY().clone();
+    y[31] ^= 1;
+    var invalid = new VauEccPublicKey("P-256", valid.getX(), y);
+
+    assertThatThrownBy(() -> VauCryptoBackends.jdk().ecdhEphemeral(invalid))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+}
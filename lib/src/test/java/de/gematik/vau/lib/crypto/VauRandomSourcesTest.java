@@ -0,0 +1,68 @@
+/*
+ * Copyright 2024 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.vau.lib.crypto;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.security.Security;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class VauRandomSourcesTest {
+
+  @AfterEach
+  void tearDown() {
+    VauRandomSources.reset();
+  }
+
+  @Test
+  void deterministicSourceRepeatsNoncesAndKeys() {
+    Security.addProvider(new BouncyCastleProvider());
+
+    VauRandomSources.set(VauRandomSources.deterministic(42));
+    var nonce1 = new byte[12];
+    VauRandomSources.get().nextNonce(nonce1);
+    var key1 = EllipticCurve.generateKeyPair().getPublic().getEncoded();
+
+    VauRandomSources.set(VauRandomSources.deterministic(42));
+    var nonce2 = new byte[12];
+    VauRandomSources.get().nextNonce(nonce2);
+    var key2 = EllipticCurve.generateKeyPair().getPublic().getEncoded();
+
+    assertThat(nonce2).isEqualTo(nonce1);
+    assertThat(key2).isEqualTo(key1);
+  }
+
+  @Test
+  void nonceBufferIsRefilled() {
+    var source = VauRandomSources.withNonceBuffer(VauRandomSources.deterministic(1), 32);
+    var reference = VauRandomSources.deterministic(1).secureRandom();
+    var expected = new byte[64];
+    reference.nextBytes(expected);
+
+    var nonces = new byte[64];
+    for (int i = 0; i < 4; i++) {
+      var nonce = new byte[16];
+      source.nextNonce(nonce);
+      System.arraycopy(nonce, 0, nonces, i * 16, 16);
+    }
+
+    // two blocks of 32 bytes
+    assertThat(nonces).isEqualTo(expected);
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2024 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.vau.lib.data;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.ByteBuffer;
+import org.junit.jupiter.api.Test;
+
+class EncryptedVauMessageTest {
+
+  private static final int HEADER_LENGTH = 43;
+  private static final int IV_LENGTH = 12;
+  private static final int MINIMUM_LENGTH = HEADER_LENGTH + IV_LENGTH + 1 + 16;
+
+  @Test
+  void readsHeaderFields() {
+    var bytes = message(20);
+
+    var message = new EncryptedVauMessage(bytes, true);
+
+    assertMessage(message, bytes);
+    message.checkCommonMessageParameters();
+  }
+
+  @Test
+  void readsDirectBuffer() {
+    var bytes = message(20);
+    var buffer = ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+
+    var message = new EncryptedVauMessage(buffer, false);
+
+    assertMessage(message, bytes);
+    assertThat(message.keyId().isDirect()).isTrue();
+  }
+
+  @Test
+  void readsRemainingBytesOfBuffer() {
+    var bytes = message(20);
+    var buffer = ByteBuffer.allocate(bytes.length + 10);
+    buffer.position(7);
+    buffer.put(bytes);
+    buffer.position(7).limit(7 + bytes.length);
+
+    var message = new EncryptedVauMessage(buffer, false);
+
+    assertMessage(message, bytes);
+    // the view is taken at construction, the caller's buffer is left as it was
+    assertThat(buffer.position()).isEqualTo(7);
+    assertThat(buffer.limit()).isEqualTo(7 + bytes.length);
+    buffer.position(0);
+    assertThat(message.getVersion()).isEqualTo((byte) 2);
+  }
+
+  @Test
+  void viewsDoNotCopy() {
+    var bytes = message(20);
+    var message = new EncryptedVauMessage(bytes, false);
+
+    bytes[HEADER_LENGTH + IV_LENGTH] ^= 1;
+
+    assertThat(message.ciphertext().get(0)).isEqualTo(bytes[HEADER_LENGTH + IV_LENGTH]);
+  }
+
+  @Test
+  void acceptsMinimumLength() {
+    var bytes = message(MINIMUM_LENGTH - HEADER_LENGTH - IV_LENGTH);
+
+    var message = new EncryptedVauMessage(bytes, false);
+
+    assertThat(message.getCt()).hasSize(17);
+  }
+
+  @Test
+  void rejectsShortMessage() {
+    var bytes = new byte[MINIMUM_LENGTH - 1];
+
+    assertThatThrownBy(() -> new EncryptedVauMessage(bytes, false))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessageContaining("at least " + MINIMUM_LENGTH);
+  }
+
+  @Test
+  void rejectsShortRemainder() {
+    var buffer = ByteBuffer.allocate(MINIMUM_LENGTH + 5).position(6);
+
+    assertThatThrownBy(() -> new EncryptedVauMessage(buffer, false))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  private static void assertMessage(EncryptedVauMessage message, byte[] bytes) {
+    assertThat(message.getVersion()).isEqualTo((byte) 2);
+    assertThat(message.getPu()).isEqualTo((byte) 1);
+    assertThat(message.getRequest()).isEqualTo((byte) 0);
+    assertThat(message.getRequestCounter()).isEqualTo(0x0102030405060708L);
+    assertThat(message.getKeyId()).isEqualTo(range(bytes, 11, 32));
+    assertThat(message.getHeader()).isEqualTo(range(bytes, 0, HEADER_LENGTH));
+    assertThat(message.getIv()).isEqualTo(range(bytes, HEADER_LENGTH, IV_LENGTH));
+    assertThat(message.getCt())
+        .isEqualTo(
+            range(bytes, HEADER_LENGTH + IV_LENGTH, bytes.length - HEADER_LENGTH - IV_LENGTH));
+    assertThat(message.ciphertext().remaining())
+        .isEqualTo(bytes.length - HEADER_LENGTH - IV_LENGTH);
+  }
+
+  private static byte[] message(int ciphertextLength) {
+    var bytes = new byte[HEADER_LENGTH + IV_LENGTH + ciphertextLength];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) (i * 7 + 3);
+    }
+    bytes[0] = 2;
+    bytes[1] = 1;
+    bytes[2] = 0;
+    ByteBuffer.wrap(bytes).putLong(3, 0x0102030405060708L);
+    return bytes;
+  }
+
+  private static byte[] range(byte[] bytes, int offset, int length) {
+    var result = new byte[length];
+    System.arraycopy(bytes, offset, result, 0, length);
+    return result;
+  }
+}
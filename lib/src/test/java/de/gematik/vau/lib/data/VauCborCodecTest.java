@@ -0,0 +1,139 @@
+/*
+ * Copyright 2024 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.vau.lib.data;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import de.gematik.vau.lib.exceptions.VauProtocolException;
+import java.io.IOException;
+import java.security.Security;
+import java.util.List;
+import java.util.Random;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.pqc.jcajce.provider.BouncyCastlePQCProvider;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+class VauCborCodecTest {
+
+  // the reference implementation
+  private static final CBORMapper JACKSON = new CBORMapper();
+  private static final Random RANDOM = new Random(42);
+
+  @BeforeAll
+  static void setUp() {
+    Security.addProvider(new BouncyCastleProvider());
+    Security.addProvider(new BouncyCastlePQCProvider());
+  }
+
+  @Test
+  void encodesLikeJackson() throws IOException {
+    for (var value : samples()) {
+      assertThat(VauCborCodec.encode(value))
+          .as(value.getClass().getSimpleName())
+          .isEqualTo(JACKSON.writeValueAsBytes(value));
+    }
+  }
+
+  @Test
+  void decodesLikeJackson() throws IOException {
+    for (var value : samples()) {
+      var encoded = JACKSON.writeValueAsBytes(value);
+
+      var decoded = VauCborCodec.decode(encoded, value.getClass());
+
+      assertThat(JACKSON.writeValueAsBytes(decoded))
+          .as(value.getClass().getSimpleName())
+          .isEqualTo(JACKSON.writeValueAsBytes(JACKSON.readValue(encoded, value.getClass())));
+    }
+  }
+
+  @Test
+  void dispatchesOnMessageType() throws IOException {
+    for (var value : samples().subList(0, 4)) {
+      var decoded = VauCborCodec.decodeHandshakeMessage(JACKSON.writeValueAsBytes(value));
+
+      assertThat(decoded).isInstanceOf(value.getClass());
+      assertThat(VauCborCodec.encode(decoded)).isEqualTo(VauCborCodec.encode(value));
+    }
+  }
+
+  @Test
+  void skipsUnknownFields() throws IOException {
+    var tree = (ObjectNode) JACKSON.valueToTree(new VauMessage4("M4", bytes(32)));
+    tree.putObject("unknown").put("nested", 1);
+
+    var decoded =
+        (VauMessage4) VauCborCodec.decodeHandshakeMessage(JACKSON.writeValueAsBytes(tree));
+
+    assertThat(decoded.getAeadCtKeyKonfirmation())
+        .isEqualTo(tree.get("AEAD_ct_key_confirmation").binaryValue());
+  }
+
+  @Test
+  void rejectsTextForBinaryFields() throws IOException {
+    var tree = (ObjectNode) JACKSON.valueToTree(new VauMessage4("M4", bytes(32)));
+    tree.put("AEAD_ct_key_confirmation", "AAAA");
+    var encoded = JACKSON.writeValueAsBytes(tree);
+
+    assertThatThrownBy(() -> VauCborCodec.decodeHandshakeMessage(encoded))
+        .isInstanceOf(IOException.class)
+        .hasMessageContaining("Expected byte array");
+  }
+
+  @Test
+  void rejectsMissingOrUnknownMessageType() throws IOException {
+    var tree = (ObjectNode) JACKSON.valueToTree(new VauMessage4("M4", bytes(32)));
+    tree.put("MessageType", 4);
+    var withoutType = JACKSON.writeValueAsBytes(tree);
+    tree.put("MessageType", "M5");
+    var unknownType = JACKSON.writeValueAsBytes(tree);
+
+    assertThatThrownBy(() -> VauCborCodec.decodeHandshakeMessage(withoutType))
+        .isInstanceOf(VauProtocolException.class)
+        .hasMessage("Message type not recognized");
+    assertThatThrownBy(() -> VauCborCodec.decodeHandshakeMessage(unknownType))
+        .isInstanceOf(VauProtocolException.class)
+        .hasMessageContaining("M5");
+  }
+
+  private static List<Object> samples() {
+    var clientKey = EccKyberKeyPair.generateRandom();
+    var message1 = VauMessage1.fromClientKey(clientKey);
+    var ecdhCt = new VauEccPublicKey("P-256", bytes(32), bytes(32));
+    var vauPublicKeys =
+        new VauPublicKeys(
+            1700000000, 1700086400, "VAU Server Keys", ecdhCt, message1.kyberPublicKeyBytes());
+    return List.of(
+        message1,
+        new VauMessage2(ecdhCt, bytes(1088), bytes(2000)),
+        new VauMessage3("M3", bytes(1200), bytes(48)),
+        new VauMessage4("M4", bytes(48)),
+        new VauMessage3InnerLayer(ecdhCt, bytes(1088), false, true),
+        vauPublicKeys,
+        new SignedPublicVauKeys(bytes(1300), bytes(64), bytes(32), 1, bytes(2500)));
+  }
+
+  private static byte[] bytes(int length) {
+    var bytes = new byte[length];
+    RANDOM.nextBytes(bytes);
+    return bytes;
+  }
+}
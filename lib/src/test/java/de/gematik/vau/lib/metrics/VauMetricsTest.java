@@ -0,0 +1,133 @@
+/*
+ * Copyright 2024 gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.gematik.vau.lib.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import de.gematik.vau.lib.TestVauKeys;
+import de.gematik.vau.lib.VauClientStateMachine;
+import de.gematik.vau.lib.VauServerStateMachine;
+import de.gematik.vau.lib.metrics.VauMetricsListener.DecryptFailure;
+import de.gematik.vau.lib.metrics.VauMetricsListener.HandshakePhase;
+import de.gematik.vau.lib.metrics.VauMetricsListener.HandshakeStep;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class VauMetricsTest {
+
+  private final RecordingListener listener = new RecordingListener();
+  private VauServerStateMachine server;
+  private VauClientStateMachine client;
+
+  @BeforeEach
+  void setUp() {
+    server = TestVauKeys.server();
+    client = new VauClientStateMachine();
+  }
+
+  @AfterEach
+  void tearDown() {
+    VauMetrics.setListener(null);
+  }
+
+  @Test
+  void handshakeReportsEveryStepAndPhase() {
+    VauMetrics.setListener(listener);
+
+    handshake();
+
+    assertThat(listener.steps).containsExactlyInAnyOrder(HandshakeStep.values());
+    assertThat(listener.phases).contains(HandshakePhase.values());
+    assertThat(listener.nanos).allMatch(nanos -> nanos >= 0);
+  }
+
+  @Test
+  void messagesReportCleartextLengths() {
+    handshake();
+    VauMetrics.setListener(listener);
+
+    server.decryptVauMessage(client.encryptVauMessage(new byte[42]));
+
+    assertThat(listener.encrypted).containsExactly(42L);
+    assertThat(listener.decrypted).containsExactly(42L);
+  }
+
+  @Test
+  void rejectedMessagesReportCause() {
+    handshake();
+    VauMetrics.setListener(listener);
+
+    var manipulated = client.encryptVauMessage(new byte[1]);
+    manipulated[manipulated.length - 1] ^= 1;
+
+    assertThatThrownBy(() -> server.decryptVauMessage(new byte[10]));
+    assertThatThrownBy(() -> server.decryptVauMessage(manipulated));
+    assertThat(listener.failures)
+        .containsExactly(DecryptFailure.MALFORMED, DecryptFailure.AUTHENTICATION);
+  }
+
+  @Test
+  void noListenerRecordsNothing() {
+    assertThat(VauMetrics.getListener()).isSameAs(VauMetricsListener.NO_OP);
+    assertThat(VauMetrics.start()).isZero();
+  }
+
+  private void handshake() {
+    TestVauKeys.handshake(client, server);
+  }
+
+  private static class RecordingListener implements VauMetricsListener {
+
+    final List<HandshakePhase> phases = new CopyOnWriteArrayList<>();
+    final List<HandshakeStep> steps = new CopyOnWriteArrayList<>();
+    final List<Long> nanos = new CopyOnWriteArrayList<>();
+    final List<Long> encrypted = new CopyOnWriteArrayList<>();
+    final List<Long> decrypted = new CopyOnWriteArrayList<>();
+    final List<DecryptFailure> failures = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void handshakePhase(HandshakePhase phase, long nanos) {
+      phases.add(phase);
+      this.nanos.add(nanos);
+    }
+
+    @Override
+    public void handshakeStep(HandshakeStep step, long nanos) {
+      steps.add(step);
+      this.nanos.add(nanos);
+    }
+
+    @Override
+    public void messageEncrypted(long cleartextLength) {
+      encrypted.add(cleartextLength);
+    }
+
+    @Override
+    public void messageDecrypted(long cleartextLength) {
+      decrypted.add(cleartextLength);
+    }
+
+    @Override
+    public void decryptFailed(DecryptFailure cause) {
+      failures.add(cause);
+    }
+  }
+}
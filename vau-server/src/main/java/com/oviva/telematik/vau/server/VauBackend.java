@@ -0,0 +1,18 @@
+package com.oviva.telematik.vau.server;
+
+/**
+ * Handles the requests sent through the VAU tunnel, e.g. by forwarding them to the actual
+ * application.
+ */
+@FunctionalInterface
+public interface VauBackend {
+
+  /**
+   * Called on a worker thread, blocking is fine.
+   *
+   * @param request the decrypted inner HTTP request, see <a
+   *     href="https://gemspec.gematik.de/docs/gemSpec/gemSpec_Krypt/latest/#A_24628-01">A_24628-01</a>
+   * @return the inner HTTP response, it is encrypted and returned to the client
+   */
+  byte[] handle(byte[] request);
+}
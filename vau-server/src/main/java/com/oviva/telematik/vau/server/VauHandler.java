@@ -0,0 +1,189 @@
+package com.oviva.telematik.vau.server;
+
+import de.gematik.vau.lib.VauServer;
+import de.gematik.vau.lib.data.VauCborCodec;
+import de.gematik.vau.lib.data.VauMessage1;
+import de.gematik.vau.lib.data.VauMessage3;
+import de.gematik.vau.lib.exceptions.VauDecryptionException;
+import de.gematik.vau.lib.exceptions.VauProtocolException;
+import de.gematik.vau.lib.exceptions.VauServerException;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import io.undertow.util.Methods;
+import io.undertow.util.SameThreadExecutor;
+import io.undertow.util.StatusCodes;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serves the VAU protocol: {@code POST /VAU} starts a handshake, {@code POST {VAU-CID}} with
+ * content type {@code application/cbor} completes it and with {@code application/octet-stream}
+ * carries the encrypted application data.
+ *
+ * <p>Nothing blocks the IO threads: handshakes run on the worker pool of the {@link VauServer} and
+ * are answered once their future completes, application data is decrypted, handled by the {@link
+ * VauBackend} and encrypted on the Undertow worker threads.
+ */
+final class VauHandler implements HttpHandler {
+
+  private static final Logger log = LoggerFactory.getLogger(VauHandler.class);
+
+  private static final HttpString VAU_CID = new HttpString("VAU-CID");
+  private static final String CONTENT_TYPE_CBOR = "application/cbor";
+  private static final String CONTENT_TYPE_OCTET_STREAM = "application/octet-stream";
+
+  private final VauServer vauServer;
+  private final VauBackend backend;
+  private final String basePath;
+  private final String cidPrefix;
+
+  VauHandler(VauServer vauServer, VauBackend backend, String basePath) {
+    this.vauServer = vauServer;
+    this.backend = backend;
+    this.basePath = basePath;
+    this.cidPrefix = basePath + "/";
+  }
+
+  @Override
+  public void handleRequest(HttpServerExchange exchange) {
+    if (!Methods.POST.equals(exchange.getRequestMethod())) {
+      exchange.setStatusCode(StatusCodes.METHOD_NOT_ALLOWED);
+      exchange.endExchange();
+      return;
+    }
+
+    var path = exchange.getRequestPath();
+    if (path.equals(basePath)) {
+      exchange
+          .getRequestReceiver()
+          .receiveFullBytes(
+              (ex, body) -> {
+                if (isHandshakeMessage(ex, body, VauMessage1.class)) {
+                  respond(ex, vauServer.receiveMessage1(body));
+                }
+              },
+              this::fail);
+    } else if (path.startsWith(cidPrefix) && isCbor(exchange)) {
+      exchange
+          .getRequestReceiver()
+          .receiveFullBytes(
+              (ex, body) -> {
+                if (isHandshakeMessage(ex, body, VauMessage3.class)) {
+                  respond(ex, path, vauServer.receiveMessage3(path, body));
+                }
+              },
+              this::fail);
+    } else if (path.startsWith(cidPrefix)) {
+      exchange
+          .getRequestReceiver()
+          .receiveFullBytes((ex, body) -> ex.dispatch(() -> application(ex, body)), this::fail);
+    } else {
+      exchange.setStatusCode(StatusCodes.NOT_FOUND);
+      exchange.endExchange();
+    }
+  }
+
+  private void respond(HttpServerExchange exchange, CompletableFuture<VauServer.Message2> future) {
+    exchange.dispatch(
+        SameThreadExecutor.INSTANCE,
+        () ->
+            future.whenComplete(
+                (message2, e) -> {
+                  if (e != null) {
+                    fail(exchange, e);
+                    return;
+                  }
+                  exchange.getResponseHeaders().put(VAU_CID, message2.cid());
+                  send(exchange, CONTENT_TYPE_CBOR, message2.message2());
+                }));
+  }
+
+  private void respond(HttpServerExchange exchange, String cid, CompletableFuture<byte[]> future) {
+    exchange.dispatch(
+        SameThreadExecutor.INSTANCE,
+        () ->
+            future.whenComplete(
+                (message4, e) -> {
+                  if (e != null) {
+                    fail(exchange, e);
+                    return;
+                  }
+                  log.debug("established VAU session {}", cid);
+                  send(exchange, CONTENT_TYPE_CBOR, message4);
+                }));
+  }
+
+  private void application(HttpServerExchange exchange, byte[] body) {
+    try {
+      // the session is found by the KeyID in the header, the CID only routes to this endpoint
+      var request = vauServer.decrypt(body);
+      var response = backend.handle(request.body());
+      send(
+          exchange,
+          CONTENT_TYPE_OCTET_STREAM,
+          request.session().encrypt(request.requestCounter(), response));
+    } catch (RuntimeException e) {
+      fail(exchange, e);
+    }
+  }
+
+  /**
+   * Checks the type of a handshake message before it is passed on, the state machines only expect
+   * the message of their step; answers anything else with 400.
+   */
+  private static boolean isHandshakeMessage(
+      HttpServerExchange exchange, byte[] body, Class<?> expected) {
+    try {
+      if (expected.isInstance(VauCborCodec.decodeHandshakeMessage(body))) {
+        return true;
+      }
+      log.debug("rejected unexpected handshake message to {}", exchange.getRequestPath());
+    } catch (IOException | VauProtocolException e) {
+      log.debug("rejected malformed handshake message to {}", exchange.getRequestPath(), e);
+    }
+    exchange.setStatusCode(StatusCodes.BAD_REQUEST);
+    exchange.endExchange();
+    return false;
+  }
+
+  private static boolean isCbor(HttpServerExchange exchange) {
+    var contentType = exchange.getRequestHeaders().getFirst(Headers.CONTENT_TYPE);
+    return contentType != null && contentType.startsWith(CONTENT_TYPE_CBOR);
+  }
+
+  private static void send(HttpServerExchange exchange, String contentType, byte[] body) {
+    exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, contentType);
+    exchange.getResponseSender().send(ByteBuffer.wrap(body));
+  }
+
+  private void fail(HttpServerExchange exchange, Throwable e) {
+    if (e instanceof CompletionException && e.getCause() != null) {
+      e = e.getCause();
+    }
+
+    int status;
+    if (e instanceof VauServerException) {
+      status = StatusCodes.SERVICE_UNAVAILABLE;
+      log.debug("VAU server busy", e);
+    } else if (e instanceof VauProtocolException
+        || e instanceof VauDecryptionException
+        || e instanceof IllegalArgumentException) {
+      status = StatusCodes.BAD_REQUEST;
+      log.debug("rejected VAU request to {}", exchange.getRequestPath(), e);
+    } else {
+      status = StatusCodes.INTERNAL_SERVER_ERROR;
+      log.warn("failed to handle VAU request to {}", exchange.getRequestPath(), e);
+    }
+
+    if (!exchange.isResponseStarted()) {
+      exchange.setStatusCode(status);
+    }
+    exchange.endExchange();
+  }
+}
@@ -0,0 +1,234 @@
+package com.oviva.telematik.vau.server;
+
+import de.gematik.vau.lib.VauServer;
+import de.gematik.vau.lib.VauServerKeyMaterial;
+import de.gematik.vau.lib.crypto.VauCryptoBackend;
+import io.undertow.Undertow;
+import io.undertow.UndertowOptions;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * Serves the VAU protocol over HTTP with Undertow, see <a
+ * href="https://gemspec.gematik.de/docs/gemSpec/gemSpec_Krypt/latest/#7">gemSpec_Krypt</a>. The
+ * handshake crypto runs on a bounded pool of its own, when the pool and its queue are full,
+ * handshakes are rejected with 503 instead of piling up. Application data is handed to a {@link
+ * VauBackend} on the Undertow worker threads.
+ *
+ * <pre>{@code
+ * try (var server =
+ *     VauHttpServer.builder().keyMaterial(keyMaterial).backend(backend).port(8081).build()) {
+ *   server.start();
+ *   ...
+ * }
+ * }</pre>
+ */
+public class VauHttpServer implements AutoCloseable {
+
+  private final Undertow undertow;
+  private final VauServer vauServer;
+  private final ThreadPoolExecutor handshakeExecutor;
+
+  private VauHttpServer(Builder builder) {
+    var threadNumber = new AtomicInteger();
+    this.handshakeExecutor =
+        new ThreadPoolExecutor(
+            builder.handshakeThreads,
+            builder.handshakeThreads,
+            0,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(builder.handshakeQueueSize),
+            r -> {
+              var thread = new Thread(r, "vau-handshake-" + threadNumber.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            });
+
+    this.vauServer =
+        VauServer.builder()
+            .keyMaterial(builder.keyMaterial)
+            .pu(builder.isPu)
+            .cryptoBackend(builder.cryptoBackend)
+            .cidPrefix(builder.basePath + "/")
+            .maxSessions(builder.maxSessions)
+            .maxPendingHandshakes(builder.maxPendingHandshakes)
+            .idleTimeout(builder.idleTimeout)
+            .executor(handshakeExecutor)
+            .build();
+
+    var undertowBuilder =
+        Undertow.builder()
+            .addHttpListener(builder.port, builder.host)
+            .setServerOption(UndertowOptions.MAX_ENTITY_SIZE, builder.maxRequestSize)
+            .setHandler(new VauHandler(vauServer, builder.backend, builder.basePath));
+    if (builder.ioThreads > 0) {
+      undertowBuilder.setIoThreads(builder.ioThreads);
+    }
+    if (builder.workerThreads > 0) {
+      undertowBuilder.setWorkerThreads(builder.workerThreads);
+    }
+    this.undertow = undertowBuilder.build();
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  public void start() {
+    undertow.start();
+  }
+
+  /**
+   * @return the address the server listens on, e.g. to find the port if it was started on port 0
+   */
+  public InetSocketAddress address() {
+    return (InetSocketAddress) undertow.getListenerInfo().get(0).getAddress();
+  }
+
+  /**
+   * @return the handshakes and sessions of this server
+   */
+  public VauServer vauServer() {
+    return vauServer;
+  }
+
+  @Override
+  public void close() {
+    undertow.stop();
+    vauServer.close();
+    handshakeExecutor.shutdownNow();
+  }
+
+  public static class Builder {
+
+    private static final Pattern BASE_PATH_PATTERN = Pattern.compile("/[A-Za-z0-9-/]*[A-Za-z0-9-]");
+
+    private VauServerKeyMaterial keyMaterial;
+    private boolean isPu;
+    private VauCryptoBackend cryptoBackend;
+    private VauBackend backend;
+    private String host = "localhost";
+    private int port = 8081;
+    private String basePath = "/VAU";
+    private int ioThreads;
+    private int workerThreads;
+    private int handshakeThreads = Runtime.getRuntime().availableProcessors();
+    private int handshakeQueueSize = 256;
+    private int maxSessions = 10_000;
+    private int maxPendingHandshakes = 1_000;
+    private Duration idleTimeout = Duration.ofMinutes(30);
+    private long maxRequestSize = 10L * 1024 * 1024;
+
+    private Builder() {}
+
+    public Builder keyMaterial(VauServerKeyMaterial keyMaterial) {
+      this.keyMaterial = keyMaterial;
+      return this;
+    }
+
+    public Builder pu(boolean isPu) {
+      this.isPu = isPu;
+      return this;
+    }
+
+    public Builder cryptoBackend(VauCryptoBackend cryptoBackend) {
+      this.cryptoBackend = cryptoBackend;
+      return this;
+    }
+
+    public Builder backend(VauBackend backend) {
+      this.backend = backend;
+      return this;
+    }
+
+    public Builder host(String host) {
+      this.host = host;
+      return this;
+    }
+
+    /** Defaults to 8081, 0 picks a free port. */
+    public Builder port(int port) {
+      this.port = port;
+      return this;
+    }
+
+    /**
+     * Path of the handshake endpoint, VAU-CIDs are allocated below it. Defaults to {@code /VAU}.
+     */
+    public Builder basePath(String basePath) {
+      this.basePath = basePath;
+      return this;
+    }
+
+    /** Defaults to Undertow's default, one per processor. */
+    public Builder ioThreads(int ioThreads) {
+      this.ioThreads = ioThreads;
+      return this;
+    }
+
+    /** Threads calling the {@link VauBackend}, defaults to Undertow's default. */
+    public Builder workerThreads(int workerThreads) {
+      this.workerThreads = workerThreads;
+      return this;
+    }
+
+    /** Threads running the handshake crypto, defaults to one per processor. */
+    public Builder handshakeThreads(int handshakeThreads) {
+      this.handshakeThreads = handshakeThreads;
+      return this;
+    }
+
+    /** Handshake messages waiting for a handshake thread, defaults to 256. */
+    public Builder handshakeQueueSize(int handshakeQueueSize) {
+      this.handshakeQueueSize = handshakeQueueSize;
+      return this;
+    }
+
+    public Builder maxSessions(int maxSessions) {
+      this.maxSessions = maxSessions;
+      return this;
+    }
+
+    public Builder maxPendingHandshakes(int maxPendingHandshakes) {
+      this.maxPendingHandshakes = maxPendingHandshakes;
+      return this;
+    }
+
+    public Builder idleTimeout(Duration idleTimeout) {
+      this.idleTimeout = idleTimeout;
+      return this;
+    }
+
+    /** Maximum size of an encrypted request in bytes, defaults to 10 MiB. */
+    public Builder maxRequestSize(long maxRequestSize) {
+      this.maxRequestSize = maxRequestSize;
+      return this;
+    }
+
+    public VauHttpServer build() {
+
+      if (keyMaterial == null) {
+        throw new IllegalArgumentException("key material missing");
+      }
+
+      if (backend == null) {
+        throw new IllegalArgumentException("backend missing");
+      }
+
+      if (basePath == null || !BASE_PATH_PATTERN.matcher(basePath).matches()) {
+        throw new IllegalArgumentException("invalid base path " + basePath);
+      }
+
+      if (handshakeThreads <= 0 || handshakeQueueSize <= 0) {
+        throw new IllegalArgumentException("handshake threads and queue size must be positive");
+      }
+
+      return new VauHttpServer(this);
+    }
+  }
+}
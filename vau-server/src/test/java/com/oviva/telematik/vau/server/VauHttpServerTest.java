@@ -0,0 +1,161 @@
+package com.oviva.telematik.vau.server;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.oviva.telematik.vau.httpclient.HttpClient;
+import com.oviva.telematik.vau.httpclient.VauClientFactoryBuilder;
+import com.oviva.telematik.vau.httpclient.internal.JavaHttpClient;
+import de.gematik.vau.lib.TestVauKeys;
+import de.gematik.vau.lib.VauClientStateMachine;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class VauHttpServerTest {
+
+  private final JavaHttpClient outerClient =
+      new JavaHttpClient(java.net.http.HttpClient.newHttpClient());
+
+  private VauHttpServer server;
+  private URI vauUri;
+
+  @BeforeEach
+  void setUp() {
+    server =
+        VauHttpServer.builder()
+            .keyMaterial(TestVauKeys.keyMaterial())
+            .backend(VauHttpServerTest::echoRequestLine)
+            .port(0)
+            .build();
+    server.start();
+    vauUri = URI.create("http://localhost:%d/VAU".formatted(server.address().getPort()));
+  }
+
+  @AfterEach
+  void tearDown() {
+    server.close();
+  }
+
+  @Test
+  void callThroughTunnel() {
+    var client = connect();
+
+    var res = client.call(get("/epa/authz/v1/getNonce"));
+
+    assertEquals(200, res.status());
+    assertEquals("GET /epa/authz/v1/getNonce HTTP/1.1", new String(res.body(), UTF_8));
+    assertEquals(1, server.vauServer().sessions());
+  }
+
+  @Test
+  void concurrentTunnels() {
+    var calls = new ArrayList<CompletableFuture<HttpClient.Response>>();
+    for (int i = 0; i < 8; i++) {
+      var path = "/tunnel/" + i;
+      calls.add(CompletableFuture.supplyAsync(() -> connect().call(get(path))));
+    }
+
+    for (int i = 0; i < calls.size(); i++) {
+      var res = calls.get(i).join();
+      assertEquals("GET /tunnel/%d HTTP/1.1".formatted(i), new String(res.body(), UTF_8));
+    }
+    assertEquals(8, server.vauServer().sessions());
+  }
+
+  @Test
+  void handshakeSetsVauCid() {
+    var res = postCbor(vauUri, new VauClientStateMachine(false).generateMessage1());
+
+    assertEquals(200, res.status());
+    var cid =
+        res.headers().stream()
+            .filter(h -> "VAU-CID".equalsIgnoreCase(h.name()))
+            .map(HttpClient.Header::value)
+            .findFirst()
+            .orElse(null);
+    assertNotNull(cid);
+    assertTrue(cid.matches("/VAU/[A-Za-z0-9-/]+"));
+  }
+
+  @Test
+  void rejectsUnknownCid() {
+    var res = postCbor(vauUri.resolve("/VAU/UNKNOWN"), new byte[] {1, 2, 3});
+
+    assertEquals(400, res.status());
+  }
+
+  @Test
+  void rejectsHandshakeMessagesOfTheWrongStep() {
+    var client = new VauClientStateMachine(false);
+    var message1 = client.generateMessage1();
+    var handshake = postCbor(vauUri, message1);
+    var cid =
+        vauUri.resolve(
+            handshake.headers().stream()
+                .filter(h -> "VAU-CID".equalsIgnoreCase(h.name()))
+                .map(HttpClient.Header::value)
+                .findFirst()
+                .orElseThrow());
+    var message3 = client.receiveMessage2(handshake.body());
+
+    // message 3 to the base path, message 1 to the VAU-CID, garbage to either
+    assertEquals(400, postCbor(vauUri, message3).status());
+    assertEquals(400, postCbor(cid, message1).status());
+    assertEquals(400, postCbor(vauUri, new byte[] {1, 2, 3}).status());
+
+    // the pending handshake is untouched and completes
+    var message4 = postCbor(cid, message3);
+    assertEquals(200, message4.status());
+    client.receiveMessage4(message4.body());
+  }
+
+  @Test
+  void rejectsOtherMethodsAndPaths() {
+    var get = outerClient.call(new HttpClient.Request(vauUri, "GET", List.of(), null));
+    var otherPath = postCbor(vauUri.resolve("/other"), new byte[] {1});
+
+    assertEquals(405, get.status());
+    assertEquals(404, otherPath.status());
+  }
+
+  private HttpClient connect() {
+    return VauClientFactoryBuilder.builder()
+        .outerClient(outerClient)
+        .environment(VauClientFactoryBuilder.Environment.TEST)
+        .vauBaseUri(vauUri)
+        .build()
+        .connect();
+  }
+
+  private HttpClient.Response postCbor(URI uri, byte[] body) {
+    return outerClient.call(
+        new HttpClient.Request(
+            uri, "POST", List.of(new HttpClient.Header("Content-Type", "application/cbor")), body));
+  }
+
+  private static HttpClient.Request get(String path) {
+    try {
+      return new HttpClient.Request(
+          new URI(path), "GET", List.of(new HttpClient.Header("accept", "text/plain")), null);
+    } catch (URISyntaxException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+  /** Answers every request with its request line. */
+  private static byte[] echoRequestLine(byte[] request) {
+    var text = new String(request, UTF_8);
+    var body = text.substring(0, text.indexOf("\r\n"));
+    return ("HTTP/1.1 200 OK\r\ncontent-type: text/plain\r\ncontent-length: %d\r\n\r\n%s"
+            .formatted(body.length(), body))
+        .getBytes(UTF_8);
+  }
+}